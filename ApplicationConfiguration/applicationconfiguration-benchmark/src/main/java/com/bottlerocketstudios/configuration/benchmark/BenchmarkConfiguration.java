@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.benchmark;
+
+import com.bottlerocketstudios.configuration.core.Configuration;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Configuration whose init() burns a fixed amount of CPU to stand in for real setup work.
+ */
+public class BenchmarkConfiguration implements Configuration<Void> {
+    private final long mId;
+    private final boolean mProduction;
+    private final long mInitTokens;
+
+    public BenchmarkConfiguration(long id, boolean production, long initTokens) {
+        mId = id;
+        mProduction = production;
+        mInitTokens = initTokens;
+    }
+
+    @Override
+    public long getId() {
+        return mId;
+    }
+
+    @Override
+    public String getName() {
+        return "Benchmark " + mId;
+    }
+
+    @Override
+    public void init(Void context) {
+        if (mInitTokens > 0) {
+            Blackhole.consumeCPU(mInitTokens);
+        }
+    }
+
+    @Override
+    public boolean isProduction() {
+        return mProduction;
+    }
+}
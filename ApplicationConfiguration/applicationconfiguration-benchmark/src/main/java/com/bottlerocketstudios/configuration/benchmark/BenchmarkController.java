@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.benchmark;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationController;
+import com.bottlerocketstudios.configuration.core.ConfigurationDescriptor;
+import com.bottlerocketstudios.configuration.core.ConfigurationFactory;
+
+/**
+ * Controller with any number of configurations, id 1 being production and id 2 the default selection.
+ * Configurations are added eagerly or through descriptors and a factory.
+ */
+public class BenchmarkController extends ConfigurationController<Void, BenchmarkConfiguration> {
+    public static final long PRODUCTION_CONFIG_ID = 1;
+    public static final long STAGING_CONFIG_ID = 2;
+
+    private final int mConfigurationCount;
+    private final long mInitTokens;
+    private final boolean mLazy;
+
+    public BenchmarkController(int configurationCount, long initTokens, boolean lazy) {
+        mConfigurationCount = configurationCount;
+        mInitTokens = initTokens;
+        mLazy = lazy;
+    }
+
+    @Override
+    protected long getDefaultAppConfigId() {
+        return mConfigurationCount > 1 ? STAGING_CONFIG_ID : PRODUCTION_CONFIG_ID;
+    }
+
+    @Override
+    protected void addAllApplicationConfigurations() {
+        ConfigurationFactory<BenchmarkConfiguration> factory = new ConfigurationFactory<BenchmarkConfiguration>() {
+            @Override
+            public BenchmarkConfiguration create(ConfigurationDescriptor descriptor) {
+                return new BenchmarkConfiguration(descriptor.getId(), descriptor.isProduction(), mInitTokens);
+            }
+        };
+        for (long id = 1; id <= mConfigurationCount; id++) {
+            boolean production = id == PRODUCTION_CONFIG_ID;
+            if (mLazy) {
+                putApplicationConfiguration(new ConfigurationDescriptor(id, "Benchmark " + id, production), factory);
+            } else {
+                putApplicationConfiguration(new BenchmarkConfiguration(id, production, mInitTokens));
+            }
+        }
+    }
+
+    @Override
+    protected boolean shouldExitOnChange() {
+        return false;
+    }
+}
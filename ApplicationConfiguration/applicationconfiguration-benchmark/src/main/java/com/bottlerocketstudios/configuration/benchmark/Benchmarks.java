@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.benchmark;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationLog;
+import com.bottlerocketstudios.configuration.core.ConfigurationLogger;
+import com.bottlerocketstudios.configuration.core.ConfigurationServiceLocator;
+import com.bottlerocketstudios.configuration.core.InMemorySelectionStore;
+
+/**
+ * Shared setup for benchmarks. Runs on a plain JVM with a null context and in memory selections.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {}
+
+    /**
+     * Create an initialized locator that allows staging, with log output discarded so that console
+     * I/O does not dominate the measurements.
+     */
+    static ConfigurationServiceLocator<Void> createLocator() {
+        ConfigurationLog.setLogger(new ConfigurationLogger() {
+            @Override
+            public void i(String tag, String message) {}
+
+            @Override
+            public void w(String tag, String message, Throwable throwable) {}
+
+            @Override
+            public void e(String tag, String message, Throwable throwable) {}
+        });
+        ConfigurationServiceLocator<Void> locator = new ConfigurationServiceLocator<>();
+        locator.setSelectionStore(new InMemorySelectionStore());
+        locator.initialize(null, true, true);
+        return locator;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of initialize() for a controller with many configurations, with and without heavy
+ * init() work, for configurations added eagerly and through descriptors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InitializeBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int mConfigurationCount;
+
+    @Param({"0", "1000"})
+    public long mInitTokens;
+
+    @Param({"false", "true"})
+    public boolean mLazy;
+
+    @Setup
+    public void setUp() {
+        Benchmarks.createLocator();
+    }
+
+    @Benchmark
+    public BenchmarkController initialize() {
+        BenchmarkController controller = new BenchmarkController(mConfigurationCount, mInitTokens, mLazy);
+        controller.initialize(null, "benchmark", true, true);
+        return controller;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.benchmark;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationServiceLocator;
+import com.bottlerocketstudios.configuration.core.ControllerKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of ConfigurationServiceLocator.getConfiguration(), which backs
+ * ApplicationConfigurationServiceLocator.getCurrentConfiguration(), by typed key and by id with a
+ * growing number of registered controllers. Each call reads a different controller.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocatorLookupBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int mControllerCount;
+
+    private ConfigurationServiceLocator<Void> mLocator;
+    private ControllerKey<BenchmarkConfiguration, BenchmarkController>[] mKeys;
+    private String[] mControllerIds;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        mLocator = Benchmarks.createLocator();
+        mKeys = (ControllerKey<BenchmarkConfiguration, BenchmarkController>[]) new ControllerKey<?, ?>[mControllerCount];
+        mControllerIds = new String[mControllerCount];
+        for (int i = 0; i < mControllerCount; i++) {
+            mControllerIds[i] = "benchmark" + i;
+            mKeys[i] = new ControllerKey<>(mControllerIds[i]);
+            mLocator.registerController(mKeys[i], new BenchmarkController(2, 0, false));
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BenchmarkConfiguration configurationByKey(Cursor cursor) {
+        return mLocator.getConfiguration(mKeys[cursor.next(mControllerCount)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BenchmarkConfiguration configurationById(Cursor cursor) {
+        return mLocator.getConfiguration(mControllerIds[cursor.next(mControllerCount)], BenchmarkController.class);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int mIndex;
+
+        int next(int count) {
+            mIndex = mIndex + 1 == count ? 0 : mIndex + 1;
+            return mIndex;
+        }
+    }
+}
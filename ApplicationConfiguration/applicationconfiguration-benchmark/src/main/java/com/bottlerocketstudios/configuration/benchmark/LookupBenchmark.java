@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.benchmark;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationServiceLocator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading the current configuration from several threads, alone and while another thread
+ * keeps switching the selection with live swap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+    private BenchmarkController mController;
+
+    @Setup
+    public void setUp() {
+        ConfigurationServiceLocator<Void> locator = Benchmarks.createLocator();
+        mController = locator.registerController("benchmark", new BenchmarkController(2, 0, false));
+        mController.setLiveSwapEnabled(true);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BenchmarkConfiguration currentConfiguration() {
+        return mController.getCurrentApplicationConfiguration();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long generation() {
+        return mController.getGeneration();
+    }
+
+    @Benchmark
+    @Group("switching")
+    @GroupThreads(3)
+    public BenchmarkConfiguration currentConfigurationWhileSwitching() {
+        return mController.getCurrentApplicationConfiguration();
+    }
+
+    @Benchmark
+    @Group("switching")
+    @GroupThreads(1)
+    public void switchWhileReading(Toggle toggle) {
+        mController.setSelectedConfigId(toggle.next());
+    }
+
+    @State(Scope.Thread)
+    public static class Toggle {
+        private long mConfigId = BenchmarkController.STAGING_CONFIG_ID;
+
+        long next() {
+            mConfigId = mConfigId == BenchmarkController.STAGING_CONFIG_ID ? BenchmarkController.PRODUCTION_CONFIG_ID : BenchmarkController.STAGING_CONFIG_ID;
+            return mConfigId;
+        }
+    }
+}
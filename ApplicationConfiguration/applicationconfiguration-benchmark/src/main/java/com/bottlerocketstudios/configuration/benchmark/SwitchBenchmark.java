@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.benchmark;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationListener;
+import com.bottlerocketstudios.configuration.core.ConfigurationServiceLocator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a live swap through setSelectedConfigId(), including listener dispatch and a synchronous
+ * write to the selection store, with a growing number of listeners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwitchBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int mListenerCount;
+
+    private BenchmarkController mController;
+    private long mConfigId = BenchmarkController.STAGING_CONFIG_ID;
+    private long mNotificationCount;
+
+    @Setup
+    public void setUp() {
+        ConfigurationServiceLocator<Void> locator = Benchmarks.createLocator();
+        mController = locator.registerController("benchmark", new BenchmarkController(2, 0, false));
+        mController.setLiveSwapEnabled(true);
+        for (int i = 0; i < mListenerCount; i++) {
+            mController.addListener(new ConfigurationListener<Void, BenchmarkConfiguration>() {
+                @Override
+                public void onStagingSwitch(Void context, BenchmarkConfiguration applicationConfiguration) {
+                    mNotificationCount += applicationConfiguration.getId();
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public long switchSelection() {
+        mConfigId = mConfigId == BenchmarkController.STAGING_CONFIG_ID ? BenchmarkController.PRODUCTION_CONFIG_ID : BenchmarkController.STAGING_CONFIG_ID;
+        mController.setSelectedConfigId(mConfigId);
+        return mNotificationCount;
+    }
+}
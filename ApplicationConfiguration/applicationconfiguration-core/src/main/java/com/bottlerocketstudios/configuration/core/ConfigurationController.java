@@ -0,0 +1,1210 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Manages the state and ability to switch application configurations for different aspects of the application.
+ * Will warn when in a non production mode. Each type of configuration that switch modes should have its
+ * own ConfigurationController managed by the ConfigurationServiceLocator. This class has no platform
+ * dependencies, C is the context type handed to each configuration's init.
+ */
+public abstract class ConfigurationController<C, T extends Configuration<C>> implements GenerationSource {
+    
+    private static final String TAG = ConfigurationController.class.getSimpleName();
+
+    protected static final long INVALID_CONFIG_ID = -1;
+    static final String SETTING_KEY_PREFIX = "com.bottlerocketstudios.configuration.ApplicationConfigurationController.";
+
+    private static final int MAX_RECENT_CONFIG_IDS = 4;
+    private static final int MAX_STANDBY_HINTS = 4;
+
+    private C mContext;
+    private ConfigurationWarningPresenter mWarningPresenter;
+    
+    private Boolean mStagingAllowed;
+    private volatile ConfigurationGeneration<T> mCurrentGeneration;
+    private final ReentrantLock mSelectionLock = new ReentrantLock();
+    private long mProductionConfigId = INVALID_CONFIG_ID;
+    private String mSettingKeyAddition;
+    private SelectedConfigurationPersister mPersister;
+    private ConfigurationMetrics mMetrics;
+    private final AtomicLong mLookupCount = new AtomicLong();
+    private final AtomicLong mSwitchCount = new AtomicLong();
+    private volatile long mInitializeNanos;
+    private volatile long mValidateNanos;
+    private volatile long mSelectionLoadNanos;
+    private volatile long mLastNotifyNanos;
+    private final ConfigurationListenerRegistry<C, T> mListeners;
+    private final ConfigurationRegistry<ConfigurationEntry<T>> mConfigurationRegistry;
+    private final GenerationStream<T> mGenerationStream = new GenerationStream<>();
+    private final DerivedValueCache<T> mDerivedValueCache = new DerivedValueCache<>();
+    private final CountDownLatch mInitializationLatch = new CountDownLatch(1);
+    private volatile boolean mInitializationPending;
+    private volatile Throwable mInitializationFailure;
+    private volatile boolean mLiveSwapEnabled;
+    private boolean mMultiProcessEnabled;
+    private volatile SharedSelectionStore mSharedSelectionStore;
+    private volatile int mObservedChangeSequence;
+    private volatile int mWarmStandbyCount;
+    private volatile ConfigurationWarmer<C, T> mConfigurationWarmer;
+    private Executor mStandbyExecutor;
+    private final AtomicBoolean mStandbyScheduled = new AtomicBoolean();
+    private final Object mStandbyLock = new Object();
+    private final Deque<Long> mRecentConfigIds = new ArrayDeque<>();
+    private final Deque<Long> mStandbyHints = new ArrayDeque<>();
+    private boolean mRecentConfigIdLoaded;
+
+    public ConfigurationController() {
+        mListeners = new ConfigurationListenerRegistry<>();
+        mConfigurationRegistry = new ConfigurationRegistry<>();
+        mMetrics = new ConfigurationMetrics();
+    }
+    
+    @SuppressWarnings("unused")
+    public void initialize(C context, String keyAddition, boolean stagingAllowed, boolean isDebugBuild) {
+        initialize(context, keyAddition, stagingAllowed, isDebugBuild, null);
+    }
+
+    /**
+     * Initialize the controller, running each configuration's init on the supplied executor when it is
+     * not null. The calling thread helps with configuration initialization and returns once all are done.
+     */
+    void initialize(C context, String keyAddition, boolean stagingAllowed, boolean isDebugBuild, Executor configurationExecutor) {
+        try {
+            mContext = context;
+            if (mPersister == null) {
+                mPersister = new SelectedConfigurationPersister(createSelectionStore(context));
+            }
+            if (mWarningPresenter == null) {
+                mWarningPresenter = createWarningPresenter(context);
+            }
+            mStagingAllowed = stagingAllowed;
+            mSettingKeyAddition = keyAddition;
+            long start = System.nanoTime();
+
+            addAllApplicationConfigurations();
+            getConfigurationRegistry().freeze();
+            initAllApplicationConfigurations(configurationExecutor);
+
+            long validateStart = System.nanoTime();
+            validateAllApplicationConfigurations();
+            mValidateNanos = System.nanoTime() - validateStart;
+            mMetrics.reportConfigurationsValidated(keyAddition, mValidateNanos);
+
+            long loadStart = System.nanoTime();
+            observeSharedSelectionStore();
+            long selectedConfigId = loadSelectedConfigId();
+            mSelectionLoadNanos = System.nanoTime() - loadStart;
+            mMetrics.reportSelectionLoaded(keyAddition, mSelectionLoadNanos);
+            publishGeneration(selectedConfigId);
+            scheduleStandby();
+
+            if (isStagingEnabled() && !isDebugBuild) {
+                mWarningPresenter.showWarning("DEBUG: STAGING IS IN USE FOR " + keyAddition);
+            }
+            mInitializeNanos = System.nanoTime() - start;
+            mMetrics.reportControllerInitialized(keyAddition, mInitializeNanos);
+        } catch (RuntimeException | Error e) {
+            mInitializationFailure = e;
+            throw e;
+        } finally {
+            mInitializationLatch.countDown();
+        }
+    }
+
+    /**
+     * Create the store used for selections when this controller is initialized without a service locator.
+     * Selections are only kept in memory unless overridden or setSelectionStore is called.
+     */
+    protected SelectionStore createSelectionStore(C context) {
+        return new InMemorySelectionStore();
+    }
+
+    /**
+     * Create the presenter for staging warnings when this controller is initialized without a service
+     * locator. Warnings are logged unless overridden or setWarningPresenter is called.
+     */
+    protected ConfigurationWarningPresenter createWarningPresenter(C context) {
+        return new LoggingWarningPresenter();
+    }
+
+    /**
+     * Create the executor used for warm standby. Defaults to a single shared daemon thread at the
+     * lowest priority.
+     */
+    protected Executor createStandbyExecutor() {
+        return StandbyExecutorHolder.instance;
+    }
+
+    /**
+     * Use the supplied store for selections. Must be called before initialize.
+     */
+    public void setSelectionStore(SelectionStore selectionStore) {
+        setPersister(new SelectedConfigurationPersister(selectionStore));
+    }
+
+    /**
+     * Use the supplied presenter for staging warnings. Must be called before initialize.
+     */
+    public void setWarningPresenter(ConfigurationWarningPresenter warningPresenter) {
+        mWarningPresenter = warningPresenter;
+    }
+
+    /**
+     * Share a persister with other controllers so selection changes can be written in one batch. Must
+     * be called before initialize.
+     */
+    void setPersister(SelectedConfigurationPersister persister) {
+        mPersister = persister;
+    }
+
+    /**
+     * Report timings to the supplied metrics holder. Must be called before initialize.
+     */
+    void setMetrics(ConfigurationMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Mark this controller as scheduled for background initialization. Readers will block until
+     * initialization completes instead of failing.
+     */
+    void setInitializationPending() {
+        mInitializationPending = true;
+    }
+
+    /**
+     * Release any readers waiting on a pending initialization that will never run.
+     */
+    void failInitialization(Throwable failure) {
+        mInitializationFailure = failure;
+        mInitializationLatch.countDown();
+    }
+
+    /**
+     * Context supplied to initialize, available from addAllApplicationConfigurations() on.
+     */
+    protected C getContext() {
+        return mContext;
+    }
+
+    /**
+     * Are staging environments allowed for this controller.
+     */
+    public boolean isStagingAllowed() {
+        return mStagingAllowed;
+    }
+
+    private boolean isStagingEnabled() {
+        return getSelectedConfigId() != getProductionConfigId();
+    }
+
+    protected long getSelectedConfigId() {
+        return currentGeneration().getSelectedConfigId();
+    }
+
+    /**
+     * Read the stored selection once during initialization so that later reads never touch storage.
+     */
+    private long loadSelectedConfigId() {
+        if (!isStagingAllowed()) {
+            //Cannot be enabled if it is not allowed, ignore configuration value.
+            return getProductionConfigId();
+        }
+        return mPersister.getSelectedConfigId(getSettingKey(), getDefaultAppConfigId());
+    }
+
+    /**
+     * In multi process mode remember the change sequence of a shared store before the selection is read,
+     * so a selection made in another process after this point is picked up by the next lookup.
+     */
+    private void observeSharedSelectionStore() {
+        if (!mMultiProcessEnabled || !isStagingAllowed()) {
+            return;
+        }
+        SelectionStore selectionStore = mPersister.getSelectionStore();
+        if (selectionStore instanceof SharedSelectionStore) {
+            SharedSelectionStore sharedSelectionStore = (SharedSelectionStore) selectionStore;
+            mObservedChangeSequence = sharedSelectionStore.getChangeSequence();
+            mSharedSelectionStore = sharedSelectionStore;
+        } else {
+            ConfigurationLog.w(TAG, "Multi process mode requires a SharedSelectionStore, selections made in other processes will be ignored for " + mSettingKeyAddition);
+        }
+    }
+
+    /**
+     * Adopt a selection stored by another process if the shared change sequence has moved. This is a
+     * single memory read unless something was written. Lookups call this, so listeners for an adopted
+     * selection are never run on the calling thread: they are handed to the listener executor or, when
+     * listeners are dispatched synchronously, to a background thread once the selection lock is released.
+     */
+    void checkSharedSelection() {
+        SharedSelectionStore sharedSelectionStore = mSharedSelectionStore;
+        if (sharedSelectionStore == null || sharedSelectionStore.getChangeSequence() == mObservedChangeSequence) {
+            return;
+        }
+
+        boolean adopted = false;
+        lockSelection();
+        try {
+            int changeSequence = sharedSelectionStore.getChangeSequence();
+            if (changeSequence == mObservedChangeSequence) {
+                return;
+            }
+            mObservedChangeSequence = changeSequence;
+            long selectedConfigId = mPersister.getSelectedConfigId(getSettingKey(), getDefaultAppConfigId());
+            if (publishSelection(selectedConfigId)) {
+                ConfigurationLog.i(TAG, "Adopting selection " + selectedConfigId + " made in another process for " + mSettingKeyAddition);
+                adopted = true;
+            }
+        } finally {
+            unlockSelection();
+        }
+
+        if (!adopted) {
+            return;
+        }
+        if (mListeners.hasExecutor()) {
+            notifySelectionListeners();
+        } else {
+            AdoptionExecutorHolder.instance.execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifySelectionListeners();
+                }
+            });
+        }
+    }
+
+    /**
+     * Resolve the configuration for the supplied id and publish it for readers with a single volatile write.
+     */
+    private ConfigurationGeneration<T> publishGeneration(long selectedConfigId) {
+        T applicationConfiguration = getApplicationConfigurationById(selectedConfigId);
+        if (applicationConfiguration == null) {
+            ConfigurationLog.w(TAG, "Selected Configuration was null. Falling back to production configuration.");
+            applicationConfiguration = getApplicationConfigurationById(getProductionConfigId());
+        }
+        ConfigurationGeneration<T> previous = mCurrentGeneration;
+        long generation = previous != null ? previous.getGeneration() + 1 : 1;
+        ConfigurationGeneration<T> current = new ConfigurationGeneration<>(generation, selectedConfigId, applicationConfiguration);
+        //Select first so derive() finds the values of whichever generation it reads.
+        mDerivedValueCache.select(applicationConfiguration.getId());
+        mCurrentGeneration = current;
+        mDerivedValueCache.closeEvicted();
+        mGenerationStream.publish(current);
+        return current;
+    }
+
+    /**
+     * Get the currently published generation. Hold on to the result to keep a consistent view of the
+     * selection for the duration of a unit of work.
+     */
+    public ConfigurationGeneration<T> getCurrentGeneration() {
+        if (mMetrics.isLookupCountingEnabled()) {
+            mLookupCount.incrementAndGet();
+        }
+        checkSharedSelection();
+        return currentGeneration();
+    }
+
+    /**
+     * Number of the current generation, bumped on every selection change, or 0 before initialization.
+     * Cheap enough for hot paths, use it to tell whether objects built from the configuration are stale.
+     * In multi process mode it also reads the shared change sequence.
+     */
+    @Override
+    public long getGeneration() {
+        checkSharedSelection();
+        ConfigurationGeneration<T> current = mCurrentGeneration;
+        return current != null ? current.getGeneration() : 0;
+    }
+
+    /**
+     * Receive every generation this controller publishes on the executor, starting with the current one
+     * if it has been published. Generations published while a delivery is queued replace each other so
+     * a slow observer only sees the latest. A null executor delivers on the publishing thread while the
+     * selection lock is held.
+     */
+    public Subscription subscribe(GenerationObserver<T> observer, Executor executor) {
+        return mGenerationStream.subscribe(observer, executor);
+    }
+
+    /**
+     * Return the published generation without waiting for a pending initialization, or null.
+     */
+    ConfigurationGeneration<T> peekGeneration() {
+        return mCurrentGeneration;
+    }
+
+    private ConfigurationGeneration<T> currentGeneration() {
+        ConfigurationGeneration<T> current = mCurrentGeneration;
+        if (current == null) {
+            current = awaitGeneration();
+        }
+        return current;
+    }
+
+    /**
+     * Slow path used only before the first generation is published.
+     */
+    private ConfigurationGeneration<T> awaitGeneration() {
+        if (mInitializationPending) {
+            boolean interrupted = false;
+            while (mInitializationLatch.getCount() > 0) {
+                try {
+                    mInitializationLatch.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        ConfigurationGeneration<T> current = mCurrentGeneration;
+        if (current == null) {
+            Throwable failure = mInitializationFailure;
+            if (failure != null) {
+                throw new IllegalStateException("Initialization failed for " + mSettingKeyAddition, failure);
+            }
+            throw new IllegalStateException("initialize() must be called before reading the selected configuration");
+        }
+        return current;
+    }
+
+    /**
+     * Select the specified application configuration by Id. This method will publish a new generation and
+     * notify all listeners, then shutdown the application by calling System.exit(0) if shouldExitOnChange()
+     * returns true and live swap is not enabled. When listeners are notified on an executor and have not
+     * run yet, this returns and the process exits once they have.
+     */
+    public void setSelectedConfigId(long applicationConfigId) {
+        Future<?> exitNotification = null;
+        lockSelection();
+        try {
+            long previousConfigId = getSelectedConfigId();
+            if (publishSelection(applicationConfigId)) {
+                persistSelection(applicationConfigId, previousConfigId);
+                Future<?> notification = notifySelectionListeners();
+                if (shouldExitAfterSwitch()) {
+                    exitNotification = notification;
+                }
+            }
+        } finally {
+            unlockSelection();
+        }
+        //Never wait for listeners with the lock held, they may be queued behind this very thread.
+        if (exitNotification != null) {
+            exitForSelectionChange(mPersister, Collections.<Future<?>>singletonList(exitNotification));
+        }
+    }
+
+    /**
+     * When enabled, selection changes take effect immediately as a new generation instead of restarting
+     * the process. Listeners must rebuild anything derived from the previous configuration. Restarting
+     * through shouldExitOnChange() remains the fallback when this is disabled.
+     */
+    public void setLiveSwapEnabled(boolean liveSwapEnabled) {
+        mLiveSwapEnabled = liveSwapEnabled;
+    }
+
+    public boolean isLiveSwapEnabled() {
+        return mLiveSwapEnabled;
+    }
+
+    /**
+     * When enabled and the selection store is a SharedSelectionStore, lookups adopt selections stored by
+     * other processes of the application as a new generation and notify listeners. These are always
+     * applied live, the process is not exited. Must be called before initialize.
+     */
+    public void setMultiProcessEnabled(boolean multiProcessEnabled) {
+        mMultiProcessEnabled = multiProcessEnabled;
+    }
+
+    public boolean isMultiProcessEnabled() {
+        return mMultiProcessEnabled;
+    }
+
+    /**
+     * Keep up to standbyCount configurations created, initialized, with every key used with derive()
+     * derived and passed to the ConfigurationWarmer on the standby executor, so switching to one of them
+     * only publishes a new generation. Candidates are the configurations hinted most recently, then those
+     * selected most recently. 0 disables warm standby, which is the default.
+     */
+    public void setWarmStandbyCount(int standbyCount) {
+        if (standbyCount < 0) {
+            throw new IllegalArgumentException("standbyCount must not be negative");
+        }
+        mWarmStandbyCount = standbyCount;
+        scheduleStandby();
+    }
+
+    public int getWarmStandbyCount() {
+        return mWarmStandbyCount;
+    }
+
+    /**
+     * Prepare derived state for each warm standby candidate before it is selected.
+     */
+    public void setConfigurationWarmer(ConfigurationWarmer<C, T> configurationWarmer) {
+        mConfigurationWarmer = configurationWarmer;
+    }
+
+    /**
+     * Run warm standby on the supplied executor instead of the one from createStandbyExecutor().
+     */
+    public synchronized void setStandbyExecutor(Executor standbyExecutor) {
+        mStandbyExecutor = standbyExecutor;
+    }
+
+    /**
+     * Make the configuration the first warm standby candidate, e.g. when it is highlighted in a picker.
+     */
+    public void hintStandbyConfiguration(long applicationConfigId) {
+        synchronized (mStandbyLock) {
+            mStandbyHints.remove(applicationConfigId);
+            mStandbyHints.addFirst(applicationConfigId);
+            if (mStandbyHints.size() > MAX_STANDBY_HINTS) {
+                mStandbyHints.removeLast();
+            }
+        }
+        scheduleStandby();
+    }
+
+    /**
+     * Return true if the configuration is resident and has been warmed as a standby candidate.
+     */
+    public boolean isConfigurationWarm(long applicationConfigId) {
+        ConfigurationEntry<T> entry = getConfigurationRegistry().get(applicationConfigId);
+        return entry != null && entry.isWarm();
+    }
+
+    /**
+     * Ids to keep warm in priority order, excluding the current selection.
+     */
+    List<Long> getStandbyCandidateIds() {
+        int standbyCount = mWarmStandbyCount;
+        ConfigurationGeneration<T> current = mCurrentGeneration;
+        if (standbyCount == 0 || current == null) {
+            return Collections.emptyList();
+        }
+
+        Set<Long> candidates = new LinkedHashSet<>();
+        synchronized (mStandbyLock) {
+            candidates.addAll(mStandbyHints);
+            candidates.addAll(mRecentConfigIds);
+        }
+        candidates.remove(current.getApplicationConfiguration().getId());
+
+        List<Long> standbyIds = new ArrayList<>(standbyCount);
+        for (Long candidate: candidates) {
+            if (standbyIds.size() == standbyCount) {
+                break;
+            }
+            if (hasApplicationConfiguration(candidate)) {
+                standbyIds.add(candidate);
+            }
+        }
+        return standbyIds;
+    }
+
+    private void scheduleStandby() {
+        if (mWarmStandbyCount == 0 || mCurrentGeneration == null || !isStagingAllowed() || !mStandbyScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            getStandbyExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mStandbyScheduled.set(false);
+                    warmStandbyCandidates();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mStandbyScheduled.set(false);
+            ConfigurationLog.e(TAG, "Warm standby rejected for " + mSettingKeyAddition, e);
+        }
+    }
+
+    private synchronized Executor getStandbyExecutor() {
+        if (mStandbyExecutor == null) {
+            mStandbyExecutor = createStandbyExecutor();
+        }
+        return mStandbyExecutor;
+    }
+
+    private void warmStandbyCandidates() {
+        loadRecentConfigId();
+        List<Long> candidates = getStandbyCandidateIds();
+        mDerivedValueCache.retainStandby(candidates);
+        for (long candidate: candidates) {
+            ConfigurationEntry<T> entry = getConfigurationRegistry().get(candidate);
+            try {
+                T appConfig = materialize(entry);
+                mDerivedValueCache.prepare(appConfig);
+                if (entry.isWarm()) {
+                    continue;
+                }
+                ConfigurationWarmer<C, T> configurationWarmer = mConfigurationWarmer;
+                if (configurationWarmer != null) {
+                    configurationWarmer.warm(mContext, appConfig);
+                }
+                synchronized (entry) {
+                    if (entry.getInstance() == appConfig) {
+                        entry.setWarm(true);
+                    }
+                }
+            } catch (RuntimeException e) {
+                ConfigurationLog.e(TAG, "Failed to warm " + entry.getDescriptor() + " for " + mSettingKeyAddition, e);
+            }
+        }
+    }
+
+    /**
+     * Seed the recently used ids with the selection that preceded the stored one, off the calling thread.
+     */
+    private void loadRecentConfigId() {
+        synchronized (mStandbyLock) {
+            if (mRecentConfigIdLoaded) {
+                return;
+            }
+            mRecentConfigIdLoaded = true;
+        }
+        long previousConfigId = mPersister.getSelectedConfigId(getPreviousSettingKey(), INVALID_CONFIG_ID);
+        if (previousConfigId != INVALID_CONFIG_ID) {
+            synchronized (mStandbyLock) {
+                if (!mRecentConfigIds.contains(previousConfigId)) {
+                    mRecentConfigIds.addLast(previousConfigId);
+                }
+            }
+        }
+    }
+
+    private void recordRecentConfigId(long applicationConfigId) {
+        synchronized (mStandbyLock) {
+            mRecentConfigIds.remove(applicationConfigId);
+            mRecentConfigIds.addFirst(applicationConfigId);
+            if (mRecentConfigIds.size() > MAX_RECENT_CONFIG_IDS) {
+                mRecentConfigIds.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Store the new selection, and the one it replaced when warm standby is enabled so it can be
+     * prepared again after a restart.
+     */
+    private void persistSelection(long applicationConfigId, long previousConfigId) {
+        Map<String, Long> selections = new LinkedHashMap<>(2);
+        putSelection(selections, applicationConfigId, previousConfigId);
+        mPersister.persist(selections);
+    }
+
+    /**
+     * Add the entries that store a selection to a batch of writes.
+     */
+    void putSelection(Map<String, Long> selections, long applicationConfigId, long previousConfigId) {
+        selections.put(getSettingKey(), applicationConfigId);
+        if (mWarmStandbyCount > 0) {
+            selections.put(getPreviousSettingKey(), previousConfigId);
+        }
+    }
+
+    boolean shouldExitAfterSwitch() {
+        return !isLiveSwapEnabled() && shouldExitOnChange();
+    }
+
+    void lockSelection() {
+        mSelectionLock.lock();
+    }
+
+    void unlockSelection() {
+        mSelectionLock.unlock();
+    }
+
+    /**
+     * Publish the supplied selection if it is allowed and differs from the current one. The selection
+     * lock must be held. Returns true if the selection changed.
+     */
+    boolean publishSelection(long applicationConfigId) {
+        T newApplicationConfig = getApplicationConfigurationById(applicationConfigId);
+        if (isStagingAllowed() && newApplicationConfig != null && applicationConfigId != getSelectedConfigId()) {
+            long previousConfigId = currentGeneration().getApplicationConfiguration().getId();
+            publishGeneration(applicationConfigId);
+            mSwitchCount.incrementAndGet();
+            recordRecentConfigId(previousConfigId);
+            scheduleStandby();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Notify all listeners of the currently selected configuration. The returned future completes once
+     * every listener has returned.
+     */
+    Future<?> notifySelectionListeners() {
+        T newApplicationConfig = currentGeneration().getApplicationConfiguration();
+        ConfigurationLog.i(TAG, "Notifying listeners for switch to " + newApplicationConfig.getName() + ".");
+        long start = System.nanoTime();
+        Future<?> notification = mListeners.dispatch(mContext, newApplicationConfig);
+        mLastNotifyNanos = System.nanoTime() - start;
+        mMetrics.reportListenersNotified(mSettingKeyAddition, mListeners.size(), mLastNotifyNanos);
+        return notification;
+    }
+
+    /**
+     * Wait for listener notifications and pending writes to finish, then shut down the VM. Must be called
+     * without any selection lock held. If a notification is still queued on a listener executor, for
+     * example the main thread's looper that the caller is running on, waiting here could never finish,
+     * so the wait and exit move to a separate thread and this returns.
+     */
+    static void exitForSelectionChange(final SelectedConfigurationPersister persister, final List<Future<?>> notifications) {
+        for (Future<?> notification: notifications) {
+            if (!notification.isDone()) {
+                Thread exitThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        exitAfterNotifications(persister, notifications);
+                    }
+                }, "ApplicationConfiguration-exit");
+                exitThread.start();
+                return;
+            }
+        }
+        exitAfterNotifications(persister, notifications);
+    }
+
+    private static void exitAfterNotifications(SelectedConfigurationPersister persister, List<Future<?>> notifications) {
+        for (Future<?> notification: notifications) {
+            try {
+                notification.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                ConfigurationLog.e(TAG, "Listener notification failed", e.getCause());
+            }
+        }
+        if (!persister.flush()) {
+            ConfigurationLog.e(TAG, "Selection could not be stored and will not survive the restart.");
+        }
+        ConfigurationLog.i(TAG, "Shutting down VM to affect staging switch.");
+        System.exit(0);
+    }
+
+    boolean hasApplicationConfiguration(long applicationConfigId) {
+        return getConfigurationRegistry().get(applicationConfigId) != null;
+    }
+
+    /**
+     * Create and initialize the configuration if it is lazy, so publishing it afterwards cannot fail.
+     * Returns false if there is no configuration with the id. Call with the selection lock held so it
+     * cannot be released again before it is published.
+     */
+    boolean prepareApplicationConfiguration(long applicationConfigId) {
+        return getApplicationConfigurationById(applicationConfigId) != null;
+    }
+    
+    /**
+     * Key the selection is persisted under. The prefix predates the core module and must not change or
+     * existing installs lose their stored selection.
+     */
+    protected String getSettingKey() {
+        return SETTING_KEY_PREFIX + mSettingKeyAddition + ".selectedConfigId";
+    }
+
+    private String getPreviousSettingKey() {
+        return getSettingKey() + ".previous";
+    }
+
+    /**
+     * Register interest in configuration changes.
+     */
+    public void addListener(ConfigurationListener<C, T> listener) {
+        addListener(listener, 0);
+    }
+
+    /**
+     * Register interest in configuration changes. Listeners with a higher priority are notified first
+     * unless listeners are dispatched in parallel.
+     */
+    public void addListener(ConfigurationListener<C, T> listener, int priority) {
+        mListeners.add(listener, priority, false);
+    }
+
+    /**
+     * Register interest in configuration changes while only holding a weak reference to the listener.
+     * The caller must keep a strong reference, e.g. an Activity registering itself, and the listener is
+     * removed automatically once it is collected.
+     */
+    public void addWeakListener(ConfigurationListener<C, T> listener) {
+        addWeakListener(listener, 0);
+    }
+
+    /**
+     * Register a weakly held listener with the supplied priority.
+     */
+    public void addWeakListener(ConfigurationListener<C, T> listener, int priority) {
+        mListeners.add(listener, priority, true);
+    }
+
+    /**
+     * Unregister interest in configuration changes.
+     */
+    public void removeListener(ConfigurationListener<C, T> listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Notify listeners on the supplied executor instead of the thread that changed the selection. When
+     * parallel is true every listener is submitted separately, otherwise they run in priority order in one
+     * task. Pass null to notify on the calling thread, which is the default. Exiting on change always
+     * waits for notification to complete.
+     */
+    public void setListenerExecutor(Executor executor, boolean parallel) {
+        mListeners.setExecutor(executor, parallel);
+    }
+
+    /**
+     * Return the time spent in each registered listener, slowest first.
+     */
+    public List<ListenerTiming> getListenerTimings() {
+        return mListeners.getTimings();
+    }
+
+    /**
+     * Register a configuration. Must only be called from addAllApplicationConfigurations() and each
+     * configuration must report a unique id. The configuration is initialized with the controller and
+     * stays resident.
+     */
+    protected void putApplicationConfiguration(T applicationConfiguration) {
+        putConfigurationEntry(new ConfigurationEntry<>(applicationConfiguration));
+    }
+
+    /**
+     * Register a configuration that is only constructed and initialized by the factory when it is
+     * selected or enumerated. While it is not selected it may be released again by
+     * releaseInactiveConfigurations(). Must only be called from addAllApplicationConfigurations().
+     */
+    protected void putApplicationConfiguration(ConfigurationDescriptor descriptor, ConfigurationFactory<T> factory) {
+        putConfigurationEntry(new ConfigurationEntry<>(descriptor, factory));
+    }
+
+    /**
+     * Register every configuration in the definitions lazily. The factory receives the descriptor of
+     * each definition and can look up its values with definitions.get(descriptor.getId()).
+     */
+    protected void putApplicationConfigurations(ConfigurationDefinitions definitions, ConfigurationFactory<T> factory) {
+        for (ConfigurationDefinition definition: definitions.getDefinitions()) {
+            putApplicationConfiguration(definition.getDescriptor(), factory);
+        }
+    }
+
+    /**
+     * Register every configuration of a generated table lazily.
+     */
+    protected void putApplicationConfigurations(ConfigurationTable<T> table) {
+        for (ConfigurationDescriptor descriptor: table.getDescriptors()) {
+            putApplicationConfiguration(descriptor, table);
+        }
+    }
+
+    private void putConfigurationEntry(ConfigurationEntry<T> entry) {
+        ConfigurationDescriptor descriptor = entry.getDescriptor();
+        getConfigurationRegistry().put(descriptor.getId(), entry);
+        if (descriptor.isProduction()) {
+            if (getProductionConfigId() == INVALID_CONFIG_ID) {
+                setProductionConfigId(descriptor.getId());
+            } else {
+                throw new IllegalStateException("You have added two configurations to the same set which both report isProduction() == true");
+            }
+        }
+    }
+
+    private ConfigurationRegistry<ConfigurationEntry<T>> getConfigurationRegistry() {
+        return mConfigurationRegistry;
+    }
+
+    /**
+     * Return the configuration for the id, creating and initializing it if it was registered with a
+     * factory and is not resident.
+     */
+    private T getApplicationConfigurationById(long id) {
+        ConfigurationEntry<T> entry = getConfigurationRegistry().get(id);
+        return entry != null ? materialize(entry) : null;
+    }
+
+    private T materialize(ConfigurationEntry<T> entry) {
+        T appConfig = entry.getInstance();
+        if (appConfig == null) {
+            synchronized (entry) {
+                appConfig = entry.getInstance();
+                if (appConfig == null) {
+                    appConfig = entry.create();
+                    initApplicationConfiguration(entry, appConfig);
+                    entry.setInstance(appConfig);
+                }
+            }
+        }
+        return appConfig;
+    }
+
+    /**
+     * Return descriptors of every registered configuration without creating any of them.
+     */
+    public List<ConfigurationDescriptor> getConfigurationDescriptors() {
+        ConfigurationRegistry<ConfigurationEntry<T>> registry = getConfigurationRegistry();
+        List<ConfigurationDescriptor> descriptors = new ArrayList<>(registry.size());
+        for (int i = 0; i < registry.size(); i++) {
+            descriptors.add(registry.valueAt(i).getDescriptor());
+        }
+        return descriptors;
+    }
+
+    /**
+     * Return every registered configuration in registration order, creating any that are not resident.
+     */
+    public List<T> getApplicationConfigurations() {
+        ConfigurationRegistry<ConfigurationEntry<T>> registry = getConfigurationRegistry();
+        List<T> applicationConfigurations = new ArrayList<>(registry.size());
+        for (int i = 0; i < registry.size(); i++) {
+            applicationConfigurations.add(materialize(registry.valueAt(i)));
+        }
+        return applicationConfigurations;
+    }
+
+    /**
+     * Release every configuration registered with a factory that is not currently selected so it can
+     * be garbage collected, e.g. when the platform reports memory pressure. Released configurations
+     * are created again if they are selected or enumerated. Derived values retained for inactive
+     * configurations are evicted as well. Returns the number of configurations released.
+     */
+    public int releaseInactiveConfigurations() {
+        if (mCurrentGeneration == null) {
+            return 0;
+        }
+        int released = 0;
+        lockSelection();
+        try {
+            long selectedConfigId = mCurrentGeneration.getApplicationConfiguration().getId();
+            ConfigurationRegistry<ConfigurationEntry<T>> registry = getConfigurationRegistry();
+            for (int i = 0; i < registry.size(); i++) {
+                ConfigurationEntry<T> entry = registry.valueAt(i);
+                if (entry.getDescriptor().getId() != selectedConfigId) {
+                    synchronized (entry) {
+                        if (entry.release()) {
+                            released++;
+                        }
+                    }
+                }
+            }
+        } finally {
+            unlockSelection();
+        }
+        mDerivedValueCache.evictInactive();
+        if (released > 0) {
+            ConfigurationLog.i(TAG, "Released " + released + " inactive configurations for " + mSettingKeyAddition);
+        }
+        return released;
+    }
+
+    /**
+     * Return the value for the key derived from the current configuration. The factory is called at most
+     * once per configuration and key while the value is cached, concurrent callers wait for the first.
+     * Values of the previous configuration are evicted on a switch, unless retained with
+     * setDerivedValueRetention(), and closed if they implement Closeable. The key and factory are
+     * remembered so warm standby can derive the value for its candidates ahead of a switch.
+     */
+    public <V> V derive(DerivedKey<V> key, DerivedValueFactory<T, V> factory) {
+        return mDerivedValueCache.derive(this, key, factory);
+    }
+
+    /**
+     * Keep the derived values of up to configurationCount previously selected configurations so
+     * switching back to one of them reuses its values. Defaults to 0.
+     */
+    public void setDerivedValueRetention(int configurationCount) {
+        mDerivedValueCache.setRetention(configurationCount);
+    }
+
+    /**
+     * Evict and close every derived value, including those of the current configuration.
+     */
+    public void clearDerivedValues() {
+        mDerivedValueCache.clear();
+    }
+
+    /**
+     * Get the currently selected application configuration.
+     */
+    public T getCurrentApplicationConfiguration() {
+        if (mMetrics.isLookupCountingEnabled()) {
+            mLookupCount.incrementAndGet();
+        }
+        checkSharedSelection();
+        return currentGeneration().getApplicationConfiguration();
+    }
+
+    /**
+     * Return the ID for the production configuration.
+     */
+    public long getProductionConfigId() {
+        return mProductionConfigId;
+    }
+
+    private void setProductionConfigId(long productionConfigId) {
+        mProductionConfigId = productionConfigId;
+    }
+
+    /**
+     * Initialize every eagerly added configuration. Configurations registered with a factory are
+     * initialized when they are first created.
+     */
+    private void initAllApplicationConfigurations(Executor executor) {
+        ConfigurationRegistry<ConfigurationEntry<T>> registry = getConfigurationRegistry();
+        List<ConfigurationEntry<T>> eagerEntries = new ArrayList<>(registry.size());
+        for (int i = 0; i < registry.size(); i++) {
+            if (!registry.valueAt(i).isLazy()) {
+                eagerEntries.add(registry.valueAt(i));
+            }
+        }
+
+        if (executor == null || eagerEntries.size() < 2) {
+            for (ConfigurationEntry<T> entry: eagerEntries) {
+                initApplicationConfiguration(entry, entry.getInstance());
+            }
+            return;
+        }
+
+        List<FutureTask<Void>> tasks = new ArrayList<>(eagerEntries.size());
+        for (final ConfigurationEntry<T> entry: eagerEntries) {
+            FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    initApplicationConfiguration(entry, entry.getInstance());
+                    return null;
+                }
+            });
+            if (!tasks.isEmpty()) {
+                executor.execute(task);
+            }
+            tasks.add(task);
+        }
+
+        //Run anything the executor has not started yet on this thread so a saturated pool cannot deadlock.
+        for (FutureTask<Void> task: tasks) {
+            task.run();
+        }
+        for (FutureTask<Void> task: tasks) {
+            awaitConfigurationInit(task);
+        }
+    }
+
+    private void initApplicationConfiguration(ConfigurationEntry<T> entry, T appConfig) {
+        long start = System.nanoTime();
+        appConfig.init(mContext);
+        long initNanos = System.nanoTime() - start;
+        entry.describeInitialized();
+        entry.setInitNanos(initNanos);
+        mMetrics.reportConfigurationInitialized(mSettingKeyAddition, appConfig.getId(), initNanos);
+    }
+
+    private static void awaitConfigurationInit(FutureTask<Void> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    task.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("Application configuration init failed", cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void validateAllApplicationConfigurations() {
+        if (getProductionConfigId() == INVALID_CONFIG_ID) {
+            throw new IllegalStateException("None of the application configurations report isProduction() == true");
+        }
+
+        if (getConfigurationRegistry().size() == 0) {
+            throw new IllegalStateException("No application configurations were provided");
+        }
+    }
+
+    /**
+     * Append a human readable description of this controller's state and timings.
+     */
+    void dump(StringBuilder builder) {
+        ConfigurationGeneration<T> current = mCurrentGeneration;
+        builder.append(mSettingKeyAddition).append('\n');
+        if (current == null) {
+            builder.append("  not initialized").append('\n');
+            return;
+        }
+        builder.append("  selected=").append(current.getSelectedConfigId())
+                .append(" (").append(current.getApplicationConfiguration().getName()).append(')')
+                .append(" generation=").append(current.getGeneration())
+                .append(" production=").append(getProductionConfigId())
+                .append(" stagingAllowed=").append(isStagingAllowed())
+                .append(" liveSwap=").append(isLiveSwapEnabled()).append('\n');
+
+        ConfigurationRegistry<ConfigurationEntry<T>> registry = getConfigurationRegistry();
+        for (int i = 0; i < registry.size(); i++) {
+            ConfigurationEntry<T> entry = registry.valueAt(i);
+            ConfigurationDescriptor descriptor = entry.getDescriptor();
+            builder.append("  configuration ").append(descriptor.getId()).append(' ').append(descriptor.getName());
+            if (descriptor.isProduction()) {
+                builder.append(" [production]");
+            }
+            if (entry.isLazy()) {
+                builder.append(entry.getInstance() != null ? " [loaded]" : " [not loaded]");
+            }
+            if (entry.getInitNanos() >= 0) {
+                builder.append(" init=").append(formatNanos(entry.getInitNanos()));
+            }
+            builder.append('\n');
+            T appConfig = entry.getInstance();
+            if (appConfig instanceof ConfigurationPropertySource) {
+                ConfigurationProperties properties = ((ConfigurationPropertySource) appConfig).getProperties();
+                for (PropertyKey<?> key: properties.getKeys()) {
+                    builder.append("    ").append(key.getName()).append('=').append(properties.getValue(key)).append('\n');
+                }
+            }
+        }
+
+        builder.append("  initialize=").append(formatNanos(mInitializeNanos))
+                .append(" validate=").append(formatNanos(mValidateNanos))
+                .append(" selectionLoad=").append(formatNanos(mSelectionLoadNanos))
+                .append(" lastNotify=").append(formatNanos(mLastNotifyNanos)).append('\n');
+        builder.append("  switches=").append(mSwitchCount.get())
+                .append(" lookups=").append(mMetrics.isLookupCountingEnabled() ? String.valueOf(mLookupCount.get()) : "disabled")
+                .append(" listeners=").append(mListeners.size()).append('\n');
+        for (ListenerTiming timing: getListenerTimings()) {
+            builder.append("  listener ").append(timing).append('\n');
+        }
+    }
+
+    static String formatNanos(long nanos) {
+        return String.format(Locale.US, "%.3fms", nanos / 1000000.0);
+    }
+
+    /**
+     * Return the ID for the configuration ID that is considered default for this build. Builds in which
+     * staging is not allowed will ignore this value altogether and use the production environment.
+     */
+    protected abstract long getDefaultAppConfigId();
+
+    /**
+     * Call putApplicationConfiguration for all of your application configuration objects or their
+     * descriptors. Exactly one must return isProduction() == true. After this call the init method for
+     * eagerly added configurations and the selected configuration will be called.
+     */
+    protected abstract void addAllApplicationConfigurations();
+
+    /**
+     * Return true if you want the application to be killed immediately after storing the newly selected
+     * environment and waiting for notified listeners to complete.
+     */
+    protected abstract boolean shouldExitOnChange();
+
+    private static class LoggingWarningPresenter implements ConfigurationWarningPresenter {
+        @Override
+        public void showWarning(String message) {
+            ConfigurationLog.w(TAG, message);
+        }
+    }
+
+    /**
+     * Runs synchronous listener notifications for selections adopted from another process.
+     */
+    private static class AdoptionExecutorHolder {
+        public static final Executor instance = createAdoptionExecutor();
+
+        private static Executor createAdoptionExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ApplicationConfiguration-Adoption");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    private static class StandbyExecutorHolder {
+        public static final Executor instance = createDefaultStandbyExecutor();
+
+        private static Executor createDefaultStandbyExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ApplicationConfiguration-Standby");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A single configuration declared in a definition file. Values are stored with the type declared in
+ * the file's schema, or as strings when the file has no schema.
+ */
+public final class ConfigurationDefinition {
+    private final ConfigurationDescriptor mDescriptor;
+    private final Map<String, Object> mValues;
+    private final ConfigurationProperties mProperties;
+
+    ConfigurationDefinition(ConfigurationDescriptor descriptor, Map<String, Object> values) {
+        mDescriptor = descriptor;
+        mValues = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+        ConfigurationProperties.Builder builder = new ConfigurationProperties.Builder();
+        for (Map.Entry<String, Object> value: mValues.entrySet()) {
+            builder.putValue(PropertyKey.of(value.getKey(), ConfigurationDefinitions.ValueType.of(value.getValue())), value.getValue());
+        }
+        mProperties = builder.build();
+    }
+
+    public ConfigurationDescriptor getDescriptor() {
+        return mDescriptor;
+    }
+
+    public long getId() {
+        return mDescriptor.getId();
+    }
+
+    public String getName() {
+        return mDescriptor.getName();
+    }
+
+    public boolean isProduction() {
+        return mDescriptor.isProduction();
+    }
+
+    public Set<String> getKeys() {
+        return mValues.keySet();
+    }
+
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    /**
+     * Values as typed properties keyed by the name and declared type of each value.
+     */
+    public ConfigurationProperties getProperties() {
+        return mProperties;
+    }
+
+    Map<String, Object> getValues() {
+        return mValues;
+    }
+
+    public String getString(String key) {
+        return String.valueOf(getValue(key));
+    }
+
+    public int getInt(String key) {
+        Object value = getValue(key);
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+    }
+
+    public long getLong(String key) {
+        Object value = getValue(key);
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    public boolean getBoolean(String key) {
+        Object value = getValue(key);
+        return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString());
+    }
+
+    private Object getValue(String key) {
+        Object value = mValues.get(key);
+        if (value == null) {
+            throw new IllegalStateException("Configuration " + getName() + " does not define " + key);
+        }
+        return value;
+    }
+}
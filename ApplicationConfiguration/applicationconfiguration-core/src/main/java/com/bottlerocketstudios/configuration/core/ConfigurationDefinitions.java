@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Set of configurations declared in a definition file. The file is read line by line in a single pass:
+ *
+ * <pre>
+ * # Optional schema, every configuration must then define exactly these keys
+ * [schema]
+ * apiUrl=string
+ * timeoutMs=int
+ *
+ * [configuration 1]
+ * name=Production
+ * production=true
+ * apiUrl=https://api.example.com
+ * timeoutMs=10000
+ * </pre>
+ *
+ * Schema types are string, int, long and boolean. Ids must be unique and exactly one configuration must
+ * be production. The parsed result can be stored as a binary snapshot stamped with the app version so
+ * later launches skip parsing and validation.
+ */
+public final class ConfigurationDefinitions {
+    private static final String TAG = ConfigurationDefinitions.class.getSimpleName();
+
+    private static final int SNAPSHOT_MAGIC = 0x41434453;
+    private static final int SNAPSHOT_FORMAT_VERSION = 1;
+
+    private static final String SCHEMA_SECTION = "schema";
+    private static final String CONFIGURATION_SECTION = "configuration ";
+    private static final String NAME_KEY = "name";
+    private static final String PRODUCTION_KEY = "production";
+
+    /**
+     * Types that can be declared in the schema section.
+     */
+    public enum ValueType {
+        STRING, INT, LONG, BOOLEAN;
+
+        Object parse(String value) {
+            switch (this) {
+                case INT:
+                    return Integer.valueOf(value);
+                case LONG:
+                    return Long.valueOf(value);
+                case BOOLEAN:
+                    if (!"true".equals(value) && !"false".equals(value)) {
+                        throw new IllegalArgumentException("Expected true or false");
+                    }
+                    return Boolean.valueOf(value);
+                default:
+                    return value;
+            }
+        }
+
+        static ValueType of(Object value) {
+            if (value instanceof Integer) {
+                return INT;
+            } else if (value instanceof Long) {
+                return LONG;
+            } else if (value instanceof Boolean) {
+                return BOOLEAN;
+            }
+            return STRING;
+        }
+    }
+
+    /**
+     * Opens the definition file when it needs to be parsed.
+     */
+    public interface Source {
+        public Reader open() throws IOException;
+    }
+
+    private final Map<String, ValueType> mSchema;
+    private final List<ConfigurationDefinition> mDefinitions;
+    private final Map<Long, ConfigurationDefinition> mDefinitionsById;
+
+    private ConfigurationDefinitions(Map<String, ValueType> schema, List<ConfigurationDefinition> definitions) throws IOException {
+        mSchema = Collections.unmodifiableMap(schema);
+        mDefinitions = Collections.unmodifiableList(definitions);
+        mDefinitionsById = new LinkedHashMap<>();
+        validate();
+    }
+
+    public Map<String, ValueType> getSchema() {
+        return mSchema;
+    }
+
+    /**
+     * Definitions in file order.
+     */
+    public List<ConfigurationDefinition> getDefinitions() {
+        return mDefinitions;
+    }
+
+    /**
+     * Return the definition with the id or null.
+     */
+    public ConfigurationDefinition get(long id) {
+        return mDefinitionsById.get(id);
+    }
+
+    private void validate() throws IOException {
+        if (mDefinitions.isEmpty()) {
+            throw new IOException("No configurations were defined");
+        }
+        int productionCount = 0;
+        for (ConfigurationDefinition definition: mDefinitions) {
+            if (mDefinitionsById.put(definition.getId(), definition) != null) {
+                throw new IOException("Configuration id " + definition.getId() + " is defined twice");
+            }
+            if (definition.isProduction()) {
+                productionCount++;
+            }
+            if (!mSchema.isEmpty()) {
+                for (Map.Entry<String, ValueType> key: mSchema.entrySet()) {
+                    Object value = definition.getValues().get(key.getKey());
+                    if (value == null) {
+                        throw new IOException("Configuration " + definition.getName() + " does not define " + key.getKey());
+                    }
+                    if (ValueType.of(value) != key.getValue()) {
+                        throw new IOException("Configuration " + definition.getName() + " defines " + key.getKey() + " with the wrong type");
+                    }
+                }
+                for (String key: definition.getKeys()) {
+                    if (!mSchema.containsKey(key)) {
+                        throw new IOException("Configuration " + definition.getName() + " defines " + key + " which is not in the schema");
+                    }
+                }
+            }
+        }
+        if (productionCount != 1) {
+            throw new IOException("Exactly one configuration must be production, found " + productionCount);
+        }
+    }
+
+    /**
+     * Parse and validate a definition file. The reader is closed.
+     */
+    public static ConfigurationDefinitions parse(Reader reader) throws IOException {
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        try {
+            Map<String, ValueType> schema = new LinkedHashMap<>();
+            List<ConfigurationDefinition> definitions = new ArrayList<>();
+            DefinitionBuilder current = null;
+            boolean inSchema = false;
+            int lineNumber = 0;
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith(";")) {
+                    continue;
+                }
+
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    String section = line.substring(1, line.length() - 1).trim();
+                    if (current != null) {
+                        definitions.add(current.build(lineNumber));
+                        current = null;
+                    }
+                    inSchema = SCHEMA_SECTION.equals(section);
+                    if (inSchema) {
+                        if (!schema.isEmpty() || !definitions.isEmpty()) {
+                            throw new IOException("Line " + lineNumber + ": the schema must be the first section and appear once");
+                        }
+                    } else if (section.startsWith(CONFIGURATION_SECTION)) {
+                        try {
+                            current = new DefinitionBuilder(Long.parseLong(section.substring(CONFIGURATION_SECTION.length()).trim()));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Line " + lineNumber + ": invalid configuration id in " + line);
+                        }
+                    } else {
+                        throw new IOException("Line " + lineNumber + ": unknown section " + line);
+                    }
+                    continue;
+                }
+
+                int separator = line.indexOf('=');
+                if (separator <= 0) {
+                    throw new IOException("Line " + lineNumber + ": expected key=value");
+                }
+                String key = line.substring(0, separator).trim();
+                String value = line.substring(separator + 1).trim();
+                if (inSchema) {
+                    if (NAME_KEY.equals(key) || PRODUCTION_KEY.equals(key)) {
+                        throw new IOException("Line " + lineNumber + ": " + key + " is reserved");
+                    }
+                    try {
+                        schema.put(key, ValueType.valueOf(value.toUpperCase(Locale.US)));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Line " + lineNumber + ": unknown type " + value);
+                    }
+                } else if (current != null) {
+                    current.put(key, value, schema, lineNumber);
+                } else {
+                    throw new IOException("Line " + lineNumber + ": " + key + " is outside of a section");
+                }
+            }
+            if (current != null) {
+                definitions.add(current.build(lineNumber));
+            }
+            return new ConfigurationDefinitions(schema, definitions);
+        } finally {
+            bufferedReader.close();
+        }
+    }
+
+    /**
+     * Load definitions from the snapshot if it was written for the same app version and source stamp,
+     * otherwise parse the source and write a new snapshot. The source stamp should change whenever the
+     * source may have changed without a version change, e.g. the install time of the app.
+     */
+    public static ConfigurationDefinitions load(Source source, File snapshotFile, long appVersionCode, long sourceStamp) throws IOException {
+        if (snapshotFile.isFile()) {
+            try {
+                ConfigurationDefinitions definitions = readSnapshot(new FileInputStream(snapshotFile), appVersionCode, sourceStamp);
+                if (definitions != null) {
+                    return definitions;
+                }
+            } catch (IOException e) {
+                ConfigurationLog.w(TAG, "Ignoring unreadable snapshot " + snapshotFile, e);
+            }
+        }
+
+        ConfigurationDefinitions definitions = parse(source.open());
+        File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+        try {
+            definitions.writeSnapshot(new FileOutputStream(temporaryFile), appVersionCode, sourceStamp);
+            if (!temporaryFile.renameTo(snapshotFile)) {
+                throw new IOException("Unable to rename " + temporaryFile);
+            }
+        } catch (IOException e) {
+            ConfigurationLog.w(TAG, "Unable to write snapshot " + snapshotFile, e);
+            temporaryFile.delete();
+        }
+        return definitions;
+    }
+
+    /**
+     * Write the definitions in the binary snapshot format. The stream is closed.
+     */
+    public void writeSnapshot(OutputStream outputStream, long appVersionCode, long sourceStamp) throws IOException {
+        CheckedOutputStream checkedOutputStream = new CheckedOutputStream(new BufferedOutputStream(outputStream), new CRC32());
+        DataOutputStream dataOutputStream = new DataOutputStream(checkedOutputStream);
+        try {
+            dataOutputStream.writeInt(SNAPSHOT_MAGIC);
+            dataOutputStream.writeInt(SNAPSHOT_FORMAT_VERSION);
+            dataOutputStream.writeLong(appVersionCode);
+            dataOutputStream.writeLong(sourceStamp);
+
+            dataOutputStream.writeInt(mSchema.size());
+            for (Map.Entry<String, ValueType> key: mSchema.entrySet()) {
+                dataOutputStream.writeUTF(key.getKey());
+                dataOutputStream.writeByte(key.getValue().ordinal());
+            }
+
+            dataOutputStream.writeInt(mDefinitions.size());
+            for (ConfigurationDefinition definition: mDefinitions) {
+                dataOutputStream.writeLong(definition.getId());
+                dataOutputStream.writeUTF(definition.getName());
+                dataOutputStream.writeBoolean(definition.isProduction());
+                dataOutputStream.writeInt(definition.getValues().size());
+                for (Map.Entry<String, Object> value: definition.getValues().entrySet()) {
+                    dataOutputStream.writeUTF(value.getKey());
+                    writeValue(dataOutputStream, value.getValue());
+                }
+            }
+            dataOutputStream.flush();
+            dataOutputStream.writeInt((int) checkedOutputStream.getChecksum().getValue());
+            dataOutputStream.flush();
+            if (outputStream instanceof FileOutputStream) {
+                ((FileOutputStream) outputStream).getFD().sync();
+            }
+        } finally {
+            dataOutputStream.close();
+        }
+    }
+
+    /**
+     * Read a binary snapshot. Returns null if it was written for another app version, source stamp or
+     * snapshot format. Throws if it is corrupt. The stream is closed.
+     */
+    public static ConfigurationDefinitions readSnapshot(InputStream inputStream, long appVersionCode, long sourceStamp) throws IOException {
+        CheckedInputStream checkedInputStream = new CheckedInputStream(new BufferedInputStream(inputStream), new CRC32());
+        DataInputStream dataInputStream = new DataInputStream(checkedInputStream);
+        try {
+            if (dataInputStream.readInt() != SNAPSHOT_MAGIC || dataInputStream.readInt() != SNAPSHOT_FORMAT_VERSION
+                    || dataInputStream.readLong() != appVersionCode || dataInputStream.readLong() != sourceStamp) {
+                return null;
+            }
+
+            ValueType[] valueTypes = ValueType.values();
+            Map<String, ValueType> schema = new LinkedHashMap<>();
+            int schemaSize = dataInputStream.readInt();
+            for (int i = 0; i < schemaSize; i++) {
+                schema.put(dataInputStream.readUTF(), valueTypes[dataInputStream.readUnsignedByte()]);
+            }
+
+            int definitionCount = dataInputStream.readInt();
+            List<ConfigurationDefinition> definitions = new ArrayList<>(definitionCount);
+            for (int i = 0; i < definitionCount; i++) {
+                ConfigurationDescriptor descriptor = new ConfigurationDescriptor(dataInputStream.readLong(), dataInputStream.readUTF(), dataInputStream.readBoolean());
+                int valueCount = dataInputStream.readInt();
+                Map<String, Object> values = new LinkedHashMap<>();
+                for (int j = 0; j < valueCount; j++) {
+                    values.put(dataInputStream.readUTF(), readValue(dataInputStream, valueTypes));
+                }
+                definitions.add(new ConfigurationDefinition(descriptor, values));
+            }
+
+            int expectedChecksum = (int) checkedInputStream.getChecksum().getValue();
+            if (dataInputStream.readInt() != expectedChecksum) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            return new ConfigurationDefinitions(schema, definitions);
+        } catch (ArrayIndexOutOfBoundsException | EOFException e) {
+            throw new IOException("Snapshot is truncated or corrupt", e);
+        } finally {
+            dataInputStream.close();
+        }
+    }
+
+    private static void writeValue(DataOutputStream dataOutputStream, Object value) throws IOException {
+        ValueType valueType = ValueType.of(value);
+        dataOutputStream.writeByte(valueType.ordinal());
+        switch (valueType) {
+            case INT:
+                dataOutputStream.writeInt((Integer) value);
+                break;
+            case LONG:
+                dataOutputStream.writeLong((Long) value);
+                break;
+            case BOOLEAN:
+                dataOutputStream.writeBoolean((Boolean) value);
+                break;
+            default:
+                dataOutputStream.writeUTF((String) value);
+                break;
+        }
+    }
+
+    private static Object readValue(DataInputStream dataInputStream, ValueType[] valueTypes) throws IOException {
+        switch (valueTypes[dataInputStream.readUnsignedByte()]) {
+            case INT:
+                return dataInputStream.readInt();
+            case LONG:
+                return dataInputStream.readLong();
+            case BOOLEAN:
+                return dataInputStream.readBoolean();
+            default:
+                return dataInputStream.readUTF();
+        }
+    }
+
+    private static class DefinitionBuilder {
+        private final long mId;
+        private final Map<String, Object> mValues = new LinkedHashMap<>();
+        private String mName;
+        private Boolean mProduction;
+
+        DefinitionBuilder(long id) {
+            mId = id;
+        }
+
+        void put(String key, String value, Map<String, ValueType> schema, int lineNumber) throws IOException {
+            if (NAME_KEY.equals(key)) {
+                if (mName != null) {
+                    throw new IOException("Line " + lineNumber + ": name is defined twice");
+                }
+                mName = value;
+            } else if (PRODUCTION_KEY.equals(key)) {
+                if (mProduction != null) {
+                    throw new IOException("Line " + lineNumber + ": production is defined twice");
+                }
+                mProduction = (Boolean) parseValue(ValueType.BOOLEAN, key, value, lineNumber);
+            } else {
+                if (mValues.containsKey(key)) {
+                    throw new IOException("Line " + lineNumber + ": " + key + " is defined twice");
+                }
+                ValueType valueType = schema.get(key);
+                if (valueType == null && !schema.isEmpty()) {
+                    throw new IOException("Line " + lineNumber + ": " + key + " is not in the schema");
+                }
+                mValues.put(key, valueType != null ? parseValue(valueType, key, value, lineNumber) : value);
+            }
+        }
+
+        private static Object parseValue(ValueType valueType, String key, String value, int lineNumber) throws IOException {
+            try {
+                return valueType.parse(value);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + key + " is not a valid " + valueType.name().toLowerCase(Locale.US));
+            }
+        }
+
+        ConfigurationDefinition build(int lineNumber) throws IOException {
+            if (mName == null) {
+                throw new IOException("Line " + lineNumber + ": configuration " + mId + " has no name");
+            }
+            return new ConfigurationDefinition(new ConfigurationDescriptor(mId, mName, mProduction != null && mProduction), mValues);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Lightweight description of a configuration that can be registered without constructing it. The
+ * configuration created by the paired ConfigurationFactory must report the same id, name and
+ * isProduction value.
+ */
+public final class ConfigurationDescriptor {
+    private final long mId;
+    private final String mName;
+    private final boolean mProduction;
+
+    public ConfigurationDescriptor(long id, String name, boolean production) {
+        mId = id;
+        mName = name;
+        mProduction = production;
+    }
+
+    static ConfigurationDescriptor describe(Configuration<?> configuration) {
+        return new ConfigurationDescriptor(configuration.getId(), configuration.getName(), configuration.isProduction());
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isProduction() {
+        return mProduction;
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigurationDescriptor{" + mId + ", " + mName + (mProduction ? ", production" : "") + "}";
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Registration of a single configuration. Eagerly added configurations keep their instance for the
+ * life of the controller. Entries with a factory create the instance on demand and may drop it again
+ * while it is not selected.
+ */
+final class ConfigurationEntry<T extends Configuration<?>> {
+    private volatile ConfigurationDescriptor mDescriptor;
+    private final ConfigurationFactory<T> mFactory;
+    private volatile T mInstance;
+    private volatile long mInitNanos = -1;
+    private volatile boolean mWarm;
+
+    ConfigurationEntry(T instance) {
+        mDescriptor = ConfigurationDescriptor.describe(instance);
+        mFactory = null;
+        mInstance = instance;
+    }
+
+    ConfigurationEntry(ConfigurationDescriptor descriptor, ConfigurationFactory<T> factory) {
+        mDescriptor = descriptor;
+        mFactory = factory;
+    }
+
+    ConfigurationDescriptor getDescriptor() {
+        return mDescriptor;
+    }
+
+    /**
+     * Describe an eagerly added instance again once init() has run, configurations commonly set their
+     * name there.
+     */
+    void describeInitialized() {
+        if (mFactory == null) {
+            mDescriptor = ConfigurationDescriptor.describe(mInstance);
+        }
+    }
+
+    boolean isLazy() {
+        return mFactory != null;
+    }
+
+    /**
+     * Return the instance if it currently exists, without creating it.
+     */
+    T getInstance() {
+        return mInstance;
+    }
+
+    void setInstance(T instance) {
+        mInstance = instance;
+        mWarm = false;
+    }
+
+    /**
+     * Construct a new instance with the factory and verify it matches the descriptor.
+     */
+    T create() {
+        T instance = mFactory.create(mDescriptor);
+        if (instance == null || instance.getId() != mDescriptor.getId() || instance.isProduction() != mDescriptor.isProduction()) {
+            throw new IllegalStateException("Factory for " + mDescriptor + " created a configuration that does not match its descriptor");
+        }
+        return instance;
+    }
+
+    /**
+     * Drop a lazily created instance so it can be collected. Returns true if an instance was released.
+     */
+    boolean release() {
+        if (mFactory == null || mInstance == null) {
+            return false;
+        }
+        mInstance = null;
+        mWarm = false;
+        return true;
+    }
+
+    /**
+     * True once the current instance has been handed to the warmer as a standby candidate.
+     */
+    boolean isWarm() {
+        return mWarm;
+    }
+
+    void setWarm(boolean warm) {
+        mWarm = warm;
+    }
+
+    long getInitNanos() {
+        return mInitNanos;
+    }
+
+    void setInitNanos(long initNanos) {
+        mInitNanos = initNanos;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Immutable view of a controller's selection. A new generation is published on every selection change,
+ * so code that holds on to a generation keeps a consistent view of the configuration it started with
+ * even if a live swap happens before it finishes.
+ */
+public final class ConfigurationGeneration<T extends Configuration<?>> {
+    private final long mGeneration;
+    private final long mSelectedConfigId;
+    private final T mApplicationConfiguration;
+
+    ConfigurationGeneration(long generation, long selectedConfigId, T applicationConfiguration) {
+        mGeneration = generation;
+        mSelectedConfigId = selectedConfigId;
+        mApplicationConfiguration = applicationConfiguration;
+    }
+
+    /**
+     * Monotonically increasing number starting at 1 for the selection made during initialization.
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * The id that was selected. If it did not match a configuration, the production configuration is used.
+     */
+    public long getSelectedConfigId() {
+        return mSelectedConfigId;
+    }
+
+    public T getApplicationConfiguration() {
+        return mApplicationConfiguration;
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigurationGeneration{" + mGeneration + ", " + mApplicationConfiguration.getName() + "}";
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Initializes several ConfigurationControllers in parallel on a bounded executor. Controllers
+ * may declare dependencies on other controllers and will only be initialized after those complete.
+ * All controllers are registered with the ConfigurationServiceLocator when start() is called,
+ * so lookups made before initialization completes block until that controller is ready.
+ *
+ * The service locator must be initialized before start().
+ */
+public class ConfigurationInitializer<C> {
+    private static final String TAG = ConfigurationInitializer.class.getSimpleName();
+
+    private static final int MAX_DEFAULT_THREADS = 4;
+
+    private final ConfigurationServiceLocator<C> mLocator;
+    private final Executor mExecutor;
+    private final boolean mOwnsExecutor;
+    private final Map<String, Node> mNodes;
+    private CountDownLatch mCompletionLatch;
+    private volatile Throwable mFailure;
+
+    /**
+     * Create an initializer backed by a bounded pool sized to the device, which is shut down once
+     * initialization completes.
+     */
+    public ConfigurationInitializer(ConfigurationServiceLocator<C> locator) {
+        this(locator, newBoundedExecutor(Math.max(1, Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors() - 1))), true);
+    }
+
+    /**
+     * Create an initializer that runs controller and configuration initialization on the supplied executor.
+     */
+    public ConfigurationInitializer(ConfigurationServiceLocator<C> locator, Executor executor) {
+        this(locator, executor, false);
+    }
+
+    private ConfigurationInitializer(ConfigurationServiceLocator<C> locator, Executor executor, boolean ownsExecutor) {
+        mLocator = locator;
+        mExecutor = executor;
+        mOwnsExecutor = ownsExecutor;
+        mNodes = new LinkedHashMap<>();
+    }
+
+    /**
+     * Create a bounded pool of daemon threads suitable for configuration initialization.
+     */
+    public static ExecutorService newBoundedExecutor(int threadCount) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ApplicationConfiguration-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Add a controller to initialize once all of its dependencies have been initialized. Dependencies must
+     * either be added to this initializer or already be registered with the service locator.
+     */
+    public synchronized <AC extends Configuration<C>, T extends ConfigurationController<C, AC>> ConfigurationInitializer<C> add(ControllerKey<AC, T> controllerKey, T controller, ControllerKey<?, ?>... dependencies) {
+        if (mCompletionLatch != null) {
+            throw new IllegalStateException("Controllers cannot be added after start()");
+        }
+        String controllerId = controllerKey.getControllerId();
+        if (mNodes.containsKey(controllerId)) {
+            throw new IllegalStateException("Controller " + controllerId + " was added twice");
+        }
+        Node node = new Node(controllerKey, controller);
+        for (ControllerKey<?, ?> dependency: dependencies) {
+            node.mDependencyIds.add(dependency.getControllerId());
+        }
+        mNodes.put(controllerId, node);
+        return this;
+    }
+
+    /**
+     * Register all controllers and begin initializing those without outstanding dependencies. Returns
+     * immediately, use await() as the readiness barrier.
+     */
+    public synchronized void start() {
+        if (mCompletionLatch != null) {
+            throw new IllegalStateException("start() has already been called");
+        }
+        linkDependencies();
+        checkForCycles();
+
+        mCompletionLatch = new CountDownLatch(mNodes.size());
+        for (Node node: mNodes.values()) {
+            node.mController.setInitializationPending();
+            mLocator.putConfigurationController(node.mControllerKey, node.mController);
+        }
+
+        if (mNodes.isEmpty()) {
+            shutdownExecutor();
+        }
+
+        for (Node node: mNodes.values()) {
+            if (node.mRemainingDependencies.get() == 0) {
+                schedule(node);
+            }
+        }
+    }
+
+    /**
+     * Block until every controller has been initialized. Throws IllegalStateException if any failed.
+     */
+    public void await() throws InterruptedException {
+        getCompletionLatch().await();
+        throwIfFailed();
+    }
+
+    /**
+     * Block until every controller has been initialized or the timeout elapses. Returns false on timeout.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        boolean complete = getCompletionLatch().await(timeout, unit);
+        if (complete) {
+            throwIfFailed();
+        }
+        return complete;
+    }
+
+    /**
+     * Return true if every controller has finished initializing, successfully or not.
+     */
+    public boolean isComplete() {
+        return getCompletionLatch().getCount() == 0;
+    }
+
+    private synchronized CountDownLatch getCompletionLatch() {
+        if (mCompletionLatch == null) {
+            throw new IllegalStateException("start() has not been called");
+        }
+        return mCompletionLatch;
+    }
+
+    private void throwIfFailed() {
+        Throwable failure = mFailure;
+        if (failure != null) {
+            throw new IllegalStateException("Application configuration initialization failed", failure);
+        }
+    }
+
+    private void linkDependencies() {
+        for (Node node: mNodes.values()) {
+            int remaining = 0;
+            for (String dependencyId: node.mDependencyIds) {
+                Node dependency = mNodes.get(dependencyId);
+                if (dependency != null) {
+                    dependency.mDependents.add(node);
+                    remaining++;
+                } else if (!mLocator.isControllerRegistered(dependencyId)) {
+                    throw new IllegalStateException("Controller " + node.getControllerId() + " depends on unknown controller " + dependencyId);
+                }
+            }
+            node.mRemainingDependencies.set(remaining);
+        }
+    }
+
+    private void checkForCycles() {
+        Map<Node, Integer> remaining = new LinkedHashMap<>();
+        Deque<Node> ready = new ArrayDeque<>();
+        for (Node node: mNodes.values()) {
+            remaining.put(node, node.mRemainingDependencies.get());
+            if (node.mRemainingDependencies.get() == 0) {
+                ready.add(node);
+            }
+        }
+
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            Node node = ready.poll();
+            visited++;
+            for (Node dependent: node.mDependents) {
+                int count = remaining.get(dependent) - 1;
+                remaining.put(dependent, count);
+                if (count == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (visited != mNodes.size()) {
+            throw new IllegalStateException("Controller dependencies contain a cycle");
+        }
+    }
+
+    private void schedule(final Node node) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                initialize(node);
+            }
+        });
+    }
+
+    private void initialize(Node node) {
+        try {
+            if (node.mDependencyFailed) {
+                node.mController.failInitialization(new IllegalStateException("A dependency of " + node.getControllerId() + " failed to initialize"));
+            } else {
+                mLocator.initializeController(node.getControllerId(), node.mController, mExecutor);
+            }
+        } catch (Throwable t) {
+            ConfigurationLog.e(TAG, "Failed to initialize " + node.getControllerId(), t);
+            mFailure = t;
+            node.mFailed = true;
+        } finally {
+            for (Node dependent: node.mDependents) {
+                if (node.mFailed || node.mDependencyFailed) {
+                    dependent.mDependencyFailed = true;
+                }
+                if (dependent.mRemainingDependencies.decrementAndGet() == 0) {
+                    schedule(dependent);
+                }
+            }
+            mCompletionLatch.countDown();
+            if (mCompletionLatch.getCount() == 0) {
+                shutdownExecutor();
+            }
+        }
+    }
+
+    private void shutdownExecutor() {
+        if (mOwnsExecutor) {
+            ((ExecutorService) mExecutor).shutdown();
+        }
+    }
+
+    private class Node {
+        final ControllerKey<?, ?> mControllerKey;
+        final ConfigurationController<C, ?> mController;
+        final List<String> mDependencyIds = new ArrayList<>();
+        final List<Node> mDependents = new ArrayList<>();
+        final AtomicInteger mRemainingDependencies = new AtomicInteger();
+        volatile boolean mFailed;
+        volatile boolean mDependencyFailed;
+
+        Node(ControllerKey<?, ?> controllerKey, ConfigurationController<C, ?> controller) {
+            mControllerKey = controllerKey;
+            mController = controller;
+        }
+
+        String getControllerId() {
+            return mControllerKey.getControllerId();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Platform independent listener for ConfigurationController switches.
+ */
+public interface ConfigurationListener<C, T extends Configuration<C>> {
+    /**
+     * A staging configuration change has occurred, clear any cached configuration or data that is subject
+     * to change when switching to staging. When live swap is enabled on the controller the process keeps
+     * running, so rebuild any clients that were created from the previous configuration.
+     */
+    public void onStagingSwitch(C context, T applicationConfiguration);
+}
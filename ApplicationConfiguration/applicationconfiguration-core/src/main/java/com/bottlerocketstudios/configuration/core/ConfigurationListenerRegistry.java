@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Holds the listeners for a controller and dispatches switch notifications to them. Listeners are kept
+ * in descending priority order and may be held weakly, in which case they are removed once collected.
+ * Dispatch happens on the calling thread unless an executor is supplied, either as one ordered task
+ * or with every listener in parallel. Time spent in each listener is recorded.
+ */
+final class ConfigurationListenerRegistry<C, T extends Configuration<C>> {
+    private static final String TAG = ConfigurationListenerRegistry.class.getSimpleName();
+
+    private static final long SLOW_LISTENER_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final ReferenceQueue<ConfigurationListener<C, T>> mReferenceQueue = new ReferenceQueue<>();
+    private volatile List<ListenerEntry<C, T>> mEntries = Collections.emptyList();
+    private volatile Executor mExecutor;
+    private volatile boolean mParallel;
+
+    /**
+     * Dispatch on the supplied executor. A null executor dispatches on the calling thread. When parallel
+     * is false all listeners run in priority order within a single task.
+     */
+    void setExecutor(Executor executor, boolean parallel) {
+        mExecutor = executor;
+        mParallel = parallel;
+    }
+
+    boolean hasExecutor() {
+        return mExecutor != null;
+    }
+
+    /**
+     * Add the listener. Adding a listener that is already registered updates its priority and reference
+     * type and keeps its recorded timings.
+     */
+    synchronized void add(ConfigurationListener<C, T> listener, int priority, boolean weak) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        ListenerStats stats = null;
+        for (ListenerEntry<C, T> entry: mEntries) {
+            if (listener.equals(entry.get())) {
+                stats = entry.mStats;
+            }
+        }
+        List<ListenerEntry<C, T>> entries = copyWithout(listener);
+        entries.add(new ListenerEntry<>(listener, priority, weak ? mReferenceQueue : null, stats != null ? stats : new ListenerStats()));
+        Collections.sort(entries, PRIORITY_ORDER);
+        mEntries = Collections.unmodifiableList(entries);
+    }
+
+    synchronized void remove(ConfigurationListener<C, T> listener) {
+        mEntries = Collections.unmodifiableList(copyWithout(listener));
+    }
+
+    int size() {
+        expungeCollected();
+        return mEntries.size();
+    }
+
+    /**
+     * Notify every listener of the new configuration. The returned future completes once all listeners
+     * have returned.
+     */
+    Future<?> dispatch(final C context, final T applicationConfiguration) {
+        expungeCollected();
+        List<ListenerEntry<C, T>> entries = mEntries;
+        Executor executor = mExecutor;
+
+        if (executor == null) {
+            for (ListenerEntry<C, T> entry: entries) {
+                entry.invoke(context, applicationConfiguration);
+            }
+            return new DispatchFuture(Collections.<Future<?>>emptyList());
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        if (mParallel) {
+            for (final ListenerEntry<C, T> entry: entries) {
+                futures.add(submit(executor, new Runnable() {
+                    @Override
+                    public void run() {
+                        invokeAndLog(entry, context, applicationConfiguration);
+                    }
+                }));
+            }
+        } else {
+            final List<ListenerEntry<C, T>> orderedEntries = entries;
+            futures.add(submit(executor, new Runnable() {
+                @Override
+                public void run() {
+                    for (ListenerEntry<C, T> entry: orderedEntries) {
+                        invokeAndLog(entry, context, applicationConfiguration);
+                    }
+                }
+            }));
+        }
+        return new DispatchFuture(futures);
+    }
+
+    /**
+     * Return the recorded timing for every live listener, slowest total time first.
+     */
+    List<ListenerTiming> getTimings() {
+        expungeCollected();
+        List<ListenerTiming> timings = new ArrayList<>();
+        for (ListenerEntry<C, T> entry: mEntries) {
+            ListenerTiming timing = entry.getTiming();
+            if (timing != null) {
+                timings.add(timing);
+            }
+        }
+        Collections.sort(timings, new Comparator<ListenerTiming>() {
+            @Override
+            public int compare(ListenerTiming lhs, ListenerTiming rhs) {
+                return lhs.getTotalNanos() < rhs.getTotalNanos() ? 1 : (lhs.getTotalNanos() == rhs.getTotalNanos() ? 0 : -1);
+            }
+        });
+        return timings;
+    }
+
+    private static Future<?> submit(Executor executor, Runnable runnable) {
+        FutureTask<Void> task = new FutureTask<>(runnable, null);
+        executor.execute(task);
+        return task;
+    }
+
+    private void invokeAndLog(ListenerEntry<C, T> entry, C context, T applicationConfiguration) {
+        try {
+            entry.invoke(context, applicationConfiguration);
+        } catch (RuntimeException e) {
+            ConfigurationLog.e(TAG, "Listener failed handling switch to " + applicationConfiguration.getName(), e);
+        }
+    }
+
+    private void expungeCollected() {
+        if (mReferenceQueue.poll() != null) {
+            while (mReferenceQueue.poll() != null) {
+                //Drain, the entries are found by checking for cleared references below.
+            }
+            synchronized (this) {
+                List<ListenerEntry<C, T>> entries = new ArrayList<>(mEntries.size());
+                for (ListenerEntry<C, T> entry: mEntries) {
+                    if (entry.get() != null) {
+                        entries.add(entry);
+                    }
+                }
+                mEntries = Collections.unmodifiableList(entries);
+            }
+        }
+    }
+
+    private List<ListenerEntry<C, T>> copyWithout(ConfigurationListener<C, T> listener) {
+        List<ListenerEntry<C, T>> entries = new ArrayList<>(mEntries.size() + 1);
+        for (ListenerEntry<C, T> entry: mEntries) {
+            ConfigurationListener<C, T> existing = entry.get();
+            if (existing != null && !existing.equals(listener)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static final Comparator<ListenerEntry<?, ?>> PRIORITY_ORDER = new Comparator<ListenerEntry<?, ?>>() {
+        @Override
+        public int compare(ListenerEntry<?, ?> lhs, ListenerEntry<?, ?> rhs) {
+            return lhs.mPriority > rhs.mPriority ? -1 : (lhs.mPriority == rhs.mPriority ? 0 : 1);
+        }
+    };
+
+    private static final class ListenerEntry<C, T extends Configuration<C>> {
+        private final ConfigurationListener<C, T> mStrongListener;
+        private final Reference<ConfigurationListener<C, T>> mWeakListener;
+        private final String mListenerName;
+        final int mPriority;
+        final ListenerStats mStats;
+
+        ListenerEntry(ConfigurationListener<C, T> listener, int priority, ReferenceQueue<ConfigurationListener<C, T>> referenceQueue, ListenerStats stats) {
+            mPriority = priority;
+            mStats = stats;
+            mListenerName = listener.getClass().getName();
+            if (referenceQueue != null) {
+                mStrongListener = null;
+                mWeakListener = new WeakReference<>(listener, referenceQueue);
+            } else {
+                mStrongListener = listener;
+                mWeakListener = null;
+            }
+        }
+
+        ConfigurationListener<C, T> get() {
+            return mStrongListener != null ? mStrongListener : mWeakListener.get();
+        }
+
+        void invoke(C context, T applicationConfiguration) {
+            ConfigurationListener<C, T> listener = get();
+            if (listener == null) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                listener.onStagingSwitch(context, applicationConfiguration);
+            } finally {
+                long elapsedNanos = System.nanoTime() - start;
+                mStats.record(elapsedNanos);
+                if (elapsedNanos > SLOW_LISTENER_NANOS) {
+                    ConfigurationLog.w(TAG, "Slow listener " + mListenerName + " took " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms");
+                }
+            }
+        }
+
+        ListenerTiming getTiming() {
+            if (get() == null) {
+                return null;
+            }
+            return mStats.toTiming(mListenerName, mPriority);
+        }
+    }
+
+    /**
+     * Timings of one listener, carried over when the listener is added again.
+     */
+    private static final class ListenerStats {
+        private long mInvocationCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private long mLastNanos;
+
+        synchronized void record(long elapsedNanos) {
+            mInvocationCount++;
+            mTotalNanos += elapsedNanos;
+            mMaxNanos = Math.max(mMaxNanos, elapsedNanos);
+            mLastNanos = elapsedNanos;
+        }
+
+        synchronized ListenerTiming toTiming(String listenerName, int priority) {
+            return new ListenerTiming(listenerName, priority, mInvocationCount, mTotalNanos, mMaxNanos, mLastNanos);
+        }
+    }
+
+    /**
+     * Completes when every dispatched task has completed.
+     */
+    private static final class DispatchFuture implements Future<Void> {
+        private final List<Future<?>> mFutures;
+
+        DispatchFuture(List<Future<?>> futures) {
+            mFutures = futures;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = false;
+            for (Future<?> future: mFutures) {
+                cancelled |= future.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            for (Future<?> future: mFutures) {
+                if (future.isCancelled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            for (Future<?> future: mFutures) {
+                if (!future.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            for (Future<?> future: mFutures) {
+                future.get();
+            }
+            return null;
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (Future<?> future: mFutures) {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Static logging facade used throughout the library. Logs through java.util.logging until a platform
+ * logger is installed.
+ */
+public final class ConfigurationLog {
+    private static volatile ConfigurationLogger sLogger = new JavaConfigurationLogger();
+
+    private ConfigurationLog() {}
+
+    public static void setLogger(ConfigurationLogger logger) {
+        if (logger == null) {
+            throw new IllegalArgumentException("logger cannot be null");
+        }
+        sLogger = logger;
+    }
+
+    public static ConfigurationLogger getLogger() {
+        return sLogger;
+    }
+
+    public static void i(String tag, String message) {
+        sLogger.i(tag, message);
+    }
+
+    public static void w(String tag, String message) {
+        sLogger.w(tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable throwable) {
+        sLogger.w(tag, message, throwable);
+    }
+
+    public static void e(String tag, String message) {
+        sLogger.e(tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        sLogger.e(tag, message, throwable);
+    }
+
+    private static class JavaConfigurationLogger implements ConfigurationLogger {
+        @Override
+        public void i(String tag, String message) {
+            Logger.getLogger(tag).log(Level.INFO, message);
+        }
+
+        @Override
+        public void w(String tag, String message, Throwable throwable) {
+            Logger.getLogger(tag).log(Level.WARNING, message, throwable);
+        }
+
+        @Override
+        public void e(String tag, String message, Throwable throwable) {
+            Logger.getLogger(tag).log(Level.SEVERE, message, throwable);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Shared holder for the optional metrics listener. When no listener is set every report is a null check
+ * and lookups are not counted.
+ */
+final class ConfigurationMetrics {
+    private volatile ConfigurationMetricsListener mListener;
+
+    /**
+     * Deliberately not volatile, it is read on the lookup hot path and a late view of a change is harmless.
+     */
+    private boolean mLookupCountingEnabled;
+
+    void setListener(ConfigurationMetricsListener listener) {
+        mListener = listener;
+        mLookupCountingEnabled = listener != null;
+    }
+
+    boolean isLookupCountingEnabled() {
+        return mLookupCountingEnabled;
+    }
+
+    void reportControllerInitialized(String controllerId, long elapsedNanos) {
+        ConfigurationMetricsListener listener = mListener;
+        if (listener != null) {
+            listener.onControllerInitialized(controllerId, elapsedNanos);
+        }
+    }
+
+    void reportConfigurationInitialized(String controllerId, long applicationConfigId, long elapsedNanos) {
+        ConfigurationMetricsListener listener = mListener;
+        if (listener != null) {
+            listener.onConfigurationInitialized(controllerId, applicationConfigId, elapsedNanos);
+        }
+    }
+
+    void reportConfigurationsValidated(String controllerId, long elapsedNanos) {
+        ConfigurationMetricsListener listener = mListener;
+        if (listener != null) {
+            listener.onConfigurationsValidated(controllerId, elapsedNanos);
+        }
+    }
+
+    void reportSelectionLoaded(String controllerId, long elapsedNanos) {
+        ConfigurationMetricsListener listener = mListener;
+        if (listener != null) {
+            listener.onSelectionLoaded(controllerId, elapsedNanos);
+        }
+    }
+
+    void reportListenersNotified(String controllerId, int listenerCount, long elapsedNanos) {
+        ConfigurationMetricsListener listener = mListener;
+        if (listener != null) {
+            listener.onListenersNotified(controllerId, listenerCount, elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Receives timings for the work done by ConfigurationControllers. Register with
+ * ConfigurationServiceLocator.setMetricsListener(). Callbacks are made on the thread doing the
+ * work, which may be a background thread during parallel initialization, so implementations must be
+ * thread safe and fast.
+ */
+public interface ConfigurationMetricsListener {
+    /**
+     * A controller finished initialize(), including all of the work reported by the other callbacks.
+     */
+    public void onControllerInitialized(String controllerId, long elapsedNanos);
+
+    /**
+     * A single configuration finished init(Context).
+     */
+    public void onConfigurationInitialized(String controllerId, long applicationConfigId, long elapsedNanos);
+
+    /**
+     * A controller finished validating its configurations.
+     */
+    public void onConfigurationsValidated(String controllerId, long elapsedNanos);
+
+    /**
+     * A controller finished reading its stored selection.
+     */
+    public void onSelectionLoaded(String controllerId, long elapsedNanos);
+
+    /**
+     * A controller finished notifying its listeners of a selection change. When listeners are dispatched on
+     * an executor this only measures handing off the notification.
+     */
+    public void onListenersNotified(String controllerId, int listenerCount, long elapsedNanos);
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named set of configuration selections across several ConfigurationControllers, e.g. a
+ * "staging-EU" profile selecting the EU staging API host, CDN and analytics configurations. Apply with
+ * ConfigurationServiceLocator.applyProfile() to switch every controller as one transaction.
+ */
+public final class ConfigurationProfile {
+    private final String mName;
+    private final Map<String, Long> mSelections;
+
+    public ConfigurationProfile(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name cannot be null");
+        }
+        mName = name;
+        mSelections = new LinkedHashMap<>();
+    }
+
+    /**
+     * Select the configuration id for the controller associated with the key.
+     */
+    public ConfigurationProfile select(ControllerKey<?, ?> controllerKey, long applicationConfigId) {
+        return select(controllerKey.getControllerId(), applicationConfigId);
+    }
+
+    /**
+     * Select the configuration id for the controller associated with the controllerId.
+     */
+    public synchronized ConfigurationProfile select(String controllerId, long applicationConfigId) {
+        mSelections.put(controllerId, applicationConfigId);
+        return this;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Return an unmodifiable copy of the selections keyed by controllerId.
+     */
+    public synchronized Map<String, Long> getSelections() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(mSelections));
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigurationProfile{" + mName + "=" + getSelections() + "}";
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable typed property values of a configuration. Values are stored in primitive arrays indexed by
+ * key ordinal, so reads are array loads without boxing. Every key and value can be enumerated for
+ * environment pickers and diagnostics without reflection.
+ */
+public final class ConfigurationProperties {
+    public static final ConfigurationProperties EMPTY = new Builder().build();
+
+    private final int[] mInts;
+    private final boolean[] mIntsPresent;
+    private final long[] mLongs;
+    private final boolean[] mLongsPresent;
+    private final boolean[] mBooleans;
+    private final boolean[] mBooleansPresent;
+    private final String[] mStrings;
+    private final List<PropertyKey<?>> mKeys;
+
+    private ConfigurationProperties(Builder builder) {
+        mInts = Arrays.copyOf(builder.mInts, builder.mInts.length);
+        mIntsPresent = Arrays.copyOf(builder.mIntsPresent, builder.mIntsPresent.length);
+        mLongs = Arrays.copyOf(builder.mLongs, builder.mLongs.length);
+        mLongsPresent = Arrays.copyOf(builder.mLongsPresent, builder.mLongsPresent.length);
+        mBooleans = Arrays.copyOf(builder.mBooleans, builder.mBooleans.length);
+        mBooleansPresent = Arrays.copyOf(builder.mBooleansPresent, builder.mBooleansPresent.length);
+        mStrings = Arrays.copyOf(builder.mStrings, builder.mStrings.length);
+        mKeys = Collections.unmodifiableList(new ArrayList<>(builder.mKeys));
+    }
+
+    /**
+     * Keys with a value, in the order they were first put.
+     */
+    public List<PropertyKey<?>> getKeys() {
+        return mKeys;
+    }
+
+    public boolean contains(PropertyKey<?> key) {
+        int ordinal = key.ordinal();
+        switch (key.getValueType()) {
+            case INT:
+                return ordinal < mIntsPresent.length && mIntsPresent[ordinal];
+            case LONG:
+                return ordinal < mLongsPresent.length && mLongsPresent[ordinal];
+            case BOOLEAN:
+                return ordinal < mBooleansPresent.length && mBooleansPresent[ordinal];
+            default:
+                return ordinal < mStrings.length && mStrings[ordinal] != null;
+        }
+    }
+
+    public int get(IntKey key) {
+        checkPresent(key);
+        return mInts[key.ordinal()];
+    }
+
+    public int get(IntKey key, int defaultValue) {
+        int ordinal = key.ordinal();
+        return ordinal < mIntsPresent.length && mIntsPresent[ordinal] ? mInts[ordinal] : defaultValue;
+    }
+
+    public long get(LongKey key) {
+        checkPresent(key);
+        return mLongs[key.ordinal()];
+    }
+
+    public long get(LongKey key, long defaultValue) {
+        int ordinal = key.ordinal();
+        return ordinal < mLongsPresent.length && mLongsPresent[ordinal] ? mLongs[ordinal] : defaultValue;
+    }
+
+    public boolean get(BooleanKey key) {
+        checkPresent(key);
+        return mBooleans[key.ordinal()];
+    }
+
+    public boolean get(BooleanKey key, boolean defaultValue) {
+        int ordinal = key.ordinal();
+        return ordinal < mBooleansPresent.length && mBooleansPresent[ordinal] ? mBooleans[ordinal] : defaultValue;
+    }
+
+    public String get(StringKey key) {
+        checkPresent(key);
+        return mStrings[key.ordinal()];
+    }
+
+    public String get(StringKey key, String defaultValue) {
+        int ordinal = key.ordinal();
+        String value = ordinal < mStrings.length ? mStrings[ordinal] : null;
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Return the value of any key boxed, or null if it has no value. Intended for tooling, use the typed
+     * getters on hot paths.
+     */
+    public Object getValue(PropertyKey<?> key) {
+        if (!contains(key)) {
+            return null;
+        }
+        switch (key.getValueType()) {
+            case INT:
+                return mInts[key.ordinal()];
+            case LONG:
+                return mLongs[key.ordinal()];
+            case BOOLEAN:
+                return mBooleans[key.ordinal()];
+            default:
+                return mStrings[key.ordinal()];
+        }
+    }
+
+    private void checkPresent(PropertyKey<?> key) {
+        if (!contains(key)) {
+            throw new IllegalStateException("No value for property " + key);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (PropertyKey<?> key: mKeys) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(key.getName()).append('=').append(getValue(key));
+        }
+        return builder.append('}').toString();
+    }
+
+    public static class Builder {
+        private int[] mInts = new int[0];
+        private boolean[] mIntsPresent = new boolean[0];
+        private long[] mLongs = new long[0];
+        private boolean[] mLongsPresent = new boolean[0];
+        private boolean[] mBooleans = new boolean[0];
+        private boolean[] mBooleansPresent = new boolean[0];
+        private String[] mStrings = new String[0];
+        private final List<PropertyKey<?>> mKeys = new ArrayList<>();
+
+        public Builder() {}
+
+        /**
+         * Start with every value of the supplied properties.
+         */
+        public Builder(ConfigurationProperties properties) {
+            mInts = Arrays.copyOf(properties.mInts, properties.mInts.length);
+            mIntsPresent = Arrays.copyOf(properties.mIntsPresent, properties.mIntsPresent.length);
+            mLongs = Arrays.copyOf(properties.mLongs, properties.mLongs.length);
+            mLongsPresent = Arrays.copyOf(properties.mLongsPresent, properties.mLongsPresent.length);
+            mBooleans = Arrays.copyOf(properties.mBooleans, properties.mBooleans.length);
+            mBooleansPresent = Arrays.copyOf(properties.mBooleansPresent, properties.mBooleansPresent.length);
+            mStrings = Arrays.copyOf(properties.mStrings, properties.mStrings.length);
+            mKeys.addAll(properties.mKeys);
+        }
+
+        public Builder put(IntKey key, int value) {
+            int ordinal = key.ordinal();
+            if (ordinal >= mInts.length) {
+                mInts = Arrays.copyOf(mInts, ordinal + 1);
+                mIntsPresent = Arrays.copyOf(mIntsPresent, ordinal + 1);
+            }
+            addKey(key, mIntsPresent[ordinal]);
+            mInts[ordinal] = value;
+            mIntsPresent[ordinal] = true;
+            return this;
+        }
+
+        public Builder put(LongKey key, long value) {
+            int ordinal = key.ordinal();
+            if (ordinal >= mLongs.length) {
+                mLongs = Arrays.copyOf(mLongs, ordinal + 1);
+                mLongsPresent = Arrays.copyOf(mLongsPresent, ordinal + 1);
+            }
+            addKey(key, mLongsPresent[ordinal]);
+            mLongs[ordinal] = value;
+            mLongsPresent[ordinal] = true;
+            return this;
+        }
+
+        public Builder put(BooleanKey key, boolean value) {
+            int ordinal = key.ordinal();
+            if (ordinal >= mBooleans.length) {
+                mBooleans = Arrays.copyOf(mBooleans, ordinal + 1);
+                mBooleansPresent = Arrays.copyOf(mBooleansPresent, ordinal + 1);
+            }
+            addKey(key, mBooleansPresent[ordinal]);
+            mBooleans[ordinal] = value;
+            mBooleansPresent[ordinal] = true;
+            return this;
+        }
+
+        public Builder put(StringKey key, String value) {
+            if (value == null) {
+                throw new IllegalArgumentException("Property " + key + " cannot be null");
+            }
+            int ordinal = key.ordinal();
+            if (ordinal >= mStrings.length) {
+                mStrings = Arrays.copyOf(mStrings, ordinal + 1);
+            }
+            addKey(key, mStrings[ordinal] != null);
+            mStrings[ordinal] = value;
+            return this;
+        }
+
+        /**
+         * Put a value of any key type. The value must be the key's boxed type.
+         */
+        public Builder putValue(PropertyKey<?> key, Object value) {
+            switch (key.getValueType()) {
+                case INT:
+                    return put((IntKey) key, (Integer) value);
+                case LONG:
+                    return put((LongKey) key, (Long) value);
+                case BOOLEAN:
+                    return put((BooleanKey) key, (Boolean) value);
+                default:
+                    return put((StringKey) key, (String) value);
+            }
+        }
+
+        /**
+         * Remove the value of the key if it has one.
+         */
+        public Builder remove(PropertyKey<?> key) {
+            int ordinal = key.ordinal();
+            switch (key.getValueType()) {
+                case INT:
+                    if (ordinal < mIntsPresent.length) {
+                        mIntsPresent[ordinal] = false;
+                    }
+                    break;
+                case LONG:
+                    if (ordinal < mLongsPresent.length) {
+                        mLongsPresent[ordinal] = false;
+                    }
+                    break;
+                case BOOLEAN:
+                    if (ordinal < mBooleansPresent.length) {
+                        mBooleansPresent[ordinal] = false;
+                    }
+                    break;
+                default:
+                    if (ordinal < mStrings.length) {
+                        mStrings[ordinal] = null;
+                    }
+                    break;
+            }
+            mKeys.remove(key);
+            return this;
+        }
+
+        private void addKey(PropertyKey<?> key, boolean present) {
+            if (!present) {
+                mKeys.add(key);
+            }
+        }
+
+        public ConfigurationProperties build() {
+            return new ConfigurationProperties(this);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.Arrays;
+
+/**
+ * Primitive long keyed registry of application configuration entries. Entries are appended while the
+ * controller is being set up, then the registry is frozen into either a dense array indexed by
+ * id offset (when ids are compact) or an open addressed table. Lookups never box the id.
+ */
+final class ConfigurationRegistry<T> {
+
+    /**
+     * Largest id range, relative to the number of entries, that will still be stored as a dense array.
+     */
+    private static final int DENSE_RANGE_FACTOR = 4;
+    private static final int DENSE_RANGE_MINIMUM = 16;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] mIds = new long[8];
+    private Object[] mConfigurations = new Object[8];
+    private int mSize;
+    private boolean mFrozen;
+
+    private long mDenseBase;
+    private Object[] mDenseTable;
+
+    private long[] mHashIds;
+    private Object[] mHashConfigurations;
+    private int mHashShift;
+
+    /**
+     * Add an entry. Throws if the registry is frozen or the id has already been registered.
+     */
+    void put(long id, T entry) {
+        if (mFrozen) {
+            throw new IllegalStateException("Application configurations cannot be added after addAllApplicationConfigurations() has completed");
+        }
+        if (indexOf(id) >= 0) {
+            throw new IllegalStateException("You have added two configurations to the same set which both report getId() == " + id);
+        }
+        if (mSize == mIds.length) {
+            mIds = Arrays.copyOf(mIds, mSize * 2);
+            mConfigurations = Arrays.copyOf(mConfigurations, mSize * 2);
+        }
+        mIds[mSize] = id;
+        mConfigurations[mSize] = entry;
+        mSize++;
+    }
+
+    /**
+     * Build the read optimized lookup table. No further configurations can be added.
+     */
+    void freeze() {
+        if (mFrozen) {
+            return;
+        }
+        mFrozen = true;
+        if (mSize == 0) {
+            return;
+        }
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            min = Math.min(min, mIds[i]);
+            max = Math.max(max, mIds[i]);
+        }
+
+        long range = max - min;
+        if (range >= 0 && range < Math.max(DENSE_RANGE_MINIMUM, (long) mSize * DENSE_RANGE_FACTOR)) {
+            mDenseBase = min;
+            mDenseTable = new Object[(int) range + 1];
+            for (int i = 0; i < mSize; i++) {
+                mDenseTable[(int) (mIds[i] - min)] = mConfigurations[i];
+            }
+        } else {
+            int capacity = Integer.highestOneBit(mSize * 2 - 1) << 1;
+            mHashShift = 64 - Integer.numberOfTrailingZeros(capacity);
+            mHashIds = new long[capacity];
+            mHashConfigurations = new Object[capacity];
+            for (int i = 0; i < mSize; i++) {
+                int slot = hash(mIds[i]);
+                while (mHashConfigurations[slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                mHashIds[slot] = mIds[i];
+                mHashConfigurations[slot] = mConfigurations[i];
+            }
+        }
+    }
+
+    /**
+     * Return the entry registered with this id or null.
+     */
+    @SuppressWarnings("unchecked")
+    T get(long id) {
+        Object[] denseTable = mDenseTable;
+        if (denseTable != null) {
+            long offset = id - mDenseBase;
+            return offset >= 0 && offset < denseTable.length ? (T) denseTable[(int) offset] : null;
+        }
+
+        Object[] hashConfigurations = mHashConfigurations;
+        if (hashConfigurations != null) {
+            int mask = hashConfigurations.length - 1;
+            for (int slot = hash(id); hashConfigurations[slot] != null; slot = (slot + 1) & mask) {
+                if (mHashIds[slot] == id) {
+                    return (T) hashConfigurations[slot];
+                }
+            }
+            return null;
+        }
+
+        int index = indexOf(id);
+        return index >= 0 ? (T) mConfigurations[index] : null;
+    }
+
+    /**
+     * Number of registered entries.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Return the entry at the supplied registration index.
+     */
+    @SuppressWarnings("unchecked")
+    T valueAt(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + " size " + mSize);
+        }
+        return (T) mConfigurations[index];
+    }
+
+    boolean isFrozen() {
+        return mFrozen;
+    }
+
+    private int indexOf(long id) {
+        for (int i = 0; i < mSize; i++) {
+            if (mIds[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int hash(long id) {
+        return (int) ((id * HASH_MULTIPLIER) >>> mHashShift);
+    }
+}
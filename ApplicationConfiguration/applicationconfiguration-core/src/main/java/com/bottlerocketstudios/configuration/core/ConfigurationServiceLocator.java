@@ -0,0 +1,515 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service locator for one or more ConfigurationControllers without platform dependencies. Selections are
+ * stored in the SelectionStore created by createSelectionStore and warnings are shown through the
+ * ConfigurationWarningPresenter created by createWarningPresenter. This will show a warning on release
+ * builds with staging allowed.
+ */
+public class ConfigurationServiceLocator<C> implements GenerationSource {
+    private static final String TAG = ConfigurationServiceLocator.class.getSimpleName();
+
+    private static final AtomicInteger sNextLocatorId = new AtomicInteger();
+
+    private final int mLocatorId = sNextLocatorId.incrementAndGet();
+    private final Object mRegistrationLock = new Object();
+    private final Map<String, Integer> mControllerSlots;
+    private volatile ConfigurationController<C, ?>[] mControllers;
+    private C mContext;
+    private Boolean mStagingAllowed;
+    private boolean mDebugBuild;
+    private boolean mMultiProcessEnabled;
+    private SelectedConfigurationPersister mPersister;
+    private ConfigurationWarningPresenter mWarningPresenter;
+    private final Map<String, ConfigurationProfile> mProfiles;
+    private final Map<String, Subscription> mControllerSubscriptions = new HashMap<>();
+    private final CopyOnWriteArrayList<ChangeSubscriber> mChangeSubscribers = new CopyOnWriteArrayList<>();
+    private final AtomicLong mGeneration = new AtomicLong();
+    private final ConfigurationMetrics mMetrics;
+
+    @SuppressWarnings("unchecked")
+    public ConfigurationServiceLocator() {
+        mControllerSlots = new ConcurrentHashMap<>();
+        mControllers = (ConfigurationController<C, ?>[]) new ConfigurationController<?, ?>[0];
+        mProfiles = new ConcurrentHashMap<>();
+        mMetrics = new ConfigurationMetrics();
+    }
+
+    @SuppressWarnings("unused")
+    public void initialize(C context, boolean allowStaging, boolean isDebugBuild) {
+        mContext = context;
+        mStagingAllowed = allowStaging;
+        mDebugBuild = isDebugBuild;
+        if (mPersister == null) {
+            mPersister = new SelectedConfigurationPersister(createSelectionStore(context));
+        }
+        if (mWarningPresenter == null) {
+            mWarningPresenter = createWarningPresenter(context);
+        }
+        if (isStagingAllowed() && !mDebugBuild) {
+            mWarningPresenter.showWarning("DEBUG: STAGING ALLOWED ON A RELEASE BUILD.");
+        }
+    }
+
+    /**
+     * Create the store shared by every registered controller. Selections are only kept in memory
+     * unless overridden or setSelectionStore is called.
+     */
+    protected SelectionStore createSelectionStore(C context) {
+        return new InMemorySelectionStore();
+    }
+
+    /**
+     * Create the presenter shared by every registered controller. Warnings are logged unless overridden
+     * or setWarningPresenter is called.
+     */
+    protected ConfigurationWarningPresenter createWarningPresenter(C context) {
+        return new ConfigurationWarningPresenter() {
+            @Override
+            public void showWarning(String message) {
+                ConfigurationLog.w(TAG, message);
+            }
+        };
+    }
+
+    /**
+     * Use the supplied store for every registered controller. Must be called before initialize.
+     */
+    public void setSelectionStore(SelectionStore selectionStore) {
+        mPersister = new SelectedConfigurationPersister(selectionStore);
+    }
+
+    /**
+     * Use the supplied presenter for every registered controller. Must be called before initialize.
+     */
+    public void setWarningPresenter(ConfigurationWarningPresenter warningPresenter) {
+        mWarningPresenter = warningPresenter;
+    }
+
+    public C getContext() {
+        return mContext;
+    }
+
+    public boolean isStagingAllowed() {
+        return mStagingAllowed;
+    }
+
+    public boolean isDebugBuild() {
+        return mDebugBuild;
+    }
+
+    /**
+     * When true, selection changes from every registered controller are coalesced and written on a
+     * background thread instead of blocking the caller on disk I/O. Selections are always flushed before
+     * a controller exits the process on change. Disabling this flushes any pending writes.
+     */
+    public void setPersistSelectionAsynchronously(boolean asynchronous) {
+        getPersister().setAsynchronous(asynchronous);
+    }
+
+    public boolean isPersistSelectionAsynchronously() {
+        return getPersister().isAsynchronous();
+    }
+
+    /**
+     * When true, controllers registered afterwards pick up selections stored by other processes of the
+     * application on their next lookup. Requires a SharedSelectionStore such as MappedSelectionStore.
+     */
+    public void setMultiProcessEnabled(boolean multiProcessEnabled) {
+        mMultiProcessEnabled = multiProcessEnabled;
+    }
+
+    public boolean isMultiProcessEnabled() {
+        return mMultiProcessEnabled;
+    }
+
+    /**
+     * Block until every pending selection change has been written to storage. Returns false if the
+     * selection store failed to write them, they remain pending and are retried by the next write.
+     */
+    public boolean flushSelectedConfigurations() {
+        return getPersister().flush();
+    }
+
+    /**
+     * Register a named profile that can later be applied with switchToProfile(). Replaces any profile
+     * with the same name.
+     */
+    public void registerProfile(ConfigurationProfile profile) {
+        mProfiles.put(profile.getName(), profile);
+    }
+
+    public ConfigurationProfile getProfile(String profileName) {
+        return mProfiles.get(profileName);
+    }
+
+    public Collection<String> getProfileNames() {
+        return Collections.unmodifiableCollection(new ArrayList<>(mProfiles.keySet()));
+    }
+
+    /**
+     * Apply the registered profile with the supplied name.
+     */
+    public void switchToProfile(String profileName) {
+        ConfigurationProfile profile = getProfile(profileName);
+        if (profile == null) {
+            throw new IllegalArgumentException("No profile has been registered named " + profileName);
+        }
+        applyProfile(profile);
+    }
+
+    /**
+     * Switch every controller in the profile as one transaction. Every controller is locked and every
+     * selected configuration is created and initialized before anything changes, then they are published,
+     * stored in a single write and listeners are notified once per changed controller. If any changed
+     * controller exits on change, the process is shut down once after all listeners have been notified.
+     *
+     * There is no snapshot across controllers: they are published one after the other, so a reader on
+     * another thread may briefly see some controllers on the new profile and others on the old one. Each
+     * controller switches atomically and never goes back, listeners run only after every controller has
+     * been published and all of them are switched when this returns.
+     */
+    public void applyProfile(ConfigurationProfile profile) {
+        if (!isStagingAllowed()) {
+            throw new IllegalStateException("Profiles cannot be applied when staging is not allowed");
+        }
+
+        //Order by slot so concurrent profile switches lock consistently.
+        Map<Integer, Long> selectionsBySlot = new TreeMap<>();
+        for (Map.Entry<String, Long> selection: profile.getSelections().entrySet()) {
+            Integer slot = mControllerSlots.get(selection.getKey());
+            if (slot == null) {
+                throw new IllegalStateException("Profile " + profile.getName() + " references unregistered controller " + selection.getKey());
+            }
+            selectionsBySlot.put(slot, selection.getValue());
+        }
+
+        ConfigurationController<C, ?>[] controllers = mControllers;
+        List<ConfigurationController<C, ?>> lockedControllers = new ArrayList<>(selectionsBySlot.size());
+        List<ConfigurationController<C, ?>> changedControllers = new ArrayList<>(selectionsBySlot.size());
+        try {
+            //Lock and prepare every target first, a lazy configuration failing to initialize changes nothing.
+            for (Map.Entry<Integer, Long> selection: selectionsBySlot.entrySet()) {
+                ConfigurationController<C, ?> controller = controllers[selection.getKey()];
+                controller.lockSelection();
+                lockedControllers.add(controller);
+                if (!controller.prepareApplicationConfiguration(selection.getValue())) {
+                    throw new IllegalArgumentException("Profile " + profile.getName() + " references unknown configuration " + selection.getValue() + " for " + controller.getSettingKey());
+                }
+            }
+
+            Map<String, Long> changedSelections = new LinkedHashMap<>();
+            for (Map.Entry<Integer, Long> selection: selectionsBySlot.entrySet()) {
+                ConfigurationController<C, ?> controller = controllers[selection.getKey()];
+                long previousConfigId = controller.getSelectedConfigId();
+                if (controller.publishSelection(selection.getValue())) {
+                    changedControllers.add(controller);
+                    controller.putSelection(changedSelections, selection.getValue(), previousConfigId);
+                }
+            }
+            if (!changedSelections.isEmpty()) {
+                getPersister().persist(changedSelections);
+            }
+        } finally {
+            for (ConfigurationController<C, ?> controller: lockedControllers) {
+                controller.unlockSelection();
+            }
+        }
+
+        ConfigurationLog.i(TAG, "Applied profile " + profile.getName() + " changing " + changedControllers.size() + " controllers.");
+        boolean exitOnChange = false;
+        List<Future<?>> notifications = new ArrayList<>(changedControllers.size());
+        for (ConfigurationController<C, ?> controller: changedControllers) {
+            notifications.add(controller.notifySelectionListeners());
+            exitOnChange |= controller.shouldExitAfterSwitch();
+        }
+        if (exitOnChange) {
+            ConfigurationController.exitForSelectionChange(getPersister(), notifications);
+        }
+    }
+
+    /**
+     * Receive timings for controller initialization and switches. Set before registering controllers to
+     * capture startup. Setting a listener also enables lookup counting. Pass null to disable.
+     */
+    public void setMetricsListener(ConfigurationMetricsListener metricsListener) {
+        mMetrics.setListener(metricsListener);
+    }
+
+    /**
+     * Return a text description of every registered controller with its selection and timings, suitable
+     * for attaching to bug reports.
+     */
+    public String dumpState() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Configuration stagingAllowed=").append(mStagingAllowed)
+                .append(" debugBuild=").append(mDebugBuild)
+                .append(" asyncPersistence=").append(mPersister != null && mPersister.isAsynchronous())
+                .append(" profiles=").append(new TreeMap<>(mProfiles).keySet()).append('\n');
+        for (ConfigurationController<C, ?> controller: mControllers) {
+            controller.dump(builder);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Release configurations registered with a factory that are not selected in any controller, e.g.
+     * in response to memory pressure. Returns the number released.
+     */
+    public int releaseInactiveConfigurations() {
+        int released = 0;
+        for (ConfigurationController<C, ?> controller: mControllers) {
+            released += controller.releaseInactiveConfigurations();
+        }
+        return released;
+    }
+
+    private SelectedConfigurationPersister getPersister() {
+        if (mPersister == null) {
+            throw new IllegalStateException("initialize() must be called first");
+        }
+        return mPersister;
+    }
+
+    /**
+     * Initialize the supplied configuration controller and associate it with the supplied identifier.
+     * Readers on other threads that find the controller before initialization completes wait for it.
+     */
+    public <T extends ConfigurationController<C, ?>> T registerController(String controllerId, T controller) {
+        controller.setInitializationPending();
+        putConfigurationController(controllerId, controller);
+        initializeController(controllerId, controller);
+        return controller;
+    }
+
+    /**
+     * Initialize the supplied configuration controller and resolve the key to its slot for fast lookups.
+     */
+    public <AC extends Configuration<C>, T extends ConfigurationController<C, AC>> T registerController(ControllerKey<AC, T> controllerKey, T controller) {
+        controller.setInitializationPending();
+        putConfigurationController(controllerKey, controller);
+        initializeController(controllerKey.getControllerId(), controller);
+        return controller;
+    }
+
+    void putConfigurationController(ControllerKey<?, ?> controllerKey, ConfigurationController<C, ?> controller) {
+        controllerKey.setSlot(mLocatorId, putConfigurationController(controllerKey.getControllerId(), controller));
+    }
+
+    /**
+     * Store the controller using copy on write so that readers never need to lock. Re-registering an
+     * identifier replaces the controller in its existing slot.
+     */
+    private int putConfigurationController(String controllerId, ConfigurationController<C, ?> controller) {
+        synchronized (mRegistrationLock) {
+            Integer slot = mControllerSlots.get(controllerId);
+            ConfigurationController<C, ?>[] controllers;
+            if (slot == null) {
+                slot = mControllers.length;
+                controllers = Arrays.copyOf(mControllers, slot + 1);
+            } else {
+                controllers = mControllers.clone();
+            }
+            controllers[slot] = controller;
+            mControllers = controllers;
+            mControllerSlots.put(controllerId, slot);
+
+            Subscription previous = mControllerSubscriptions.put(controllerId, forwardGenerations(controllerId, controller));
+            if (previous != null) {
+                previous.cancel();
+            }
+            return slot;
+        }
+    }
+
+    private <T extends Configuration<C>> Subscription forwardGenerations(final String controllerId, ConfigurationController<C, T> controller) {
+        return controller.subscribe(new GenerationObserver<T>() {
+            @Override
+            public void onGeneration(ConfigurationGeneration<T> generation) {
+                mGeneration.incrementAndGet();
+                for (ChangeSubscriber subscriber: mChangeSubscribers) {
+                    subscriber.offer(controllerId, generation);
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * Locator wide generation, bumped after any registered controller publishes a generation, including
+     * its first. Objects built from several controllers can use it to tell whether any of them is stale.
+     */
+    @Override
+    public long getGeneration() {
+        if (mMultiProcessEnabled) {
+            for (ConfigurationController<C, ?> controller: mControllers) {
+                controller.checkSharedSelection();
+            }
+        }
+        return mGeneration.get();
+    }
+
+    /**
+     * Receive the generations published by every registered controller on the executor, starting with
+     * the current generation of each. Generations of a controller published while a delivery is queued
+     * replace each other so a slow observer only sees the latest state of each controller.
+     */
+    public Subscription subscribe(ConfigurationChangeObserver observer, Executor executor) {
+        ChangeSubscriber subscriber = new ChangeSubscriber(observer, executor);
+        mChangeSubscribers.add(subscriber);
+        synchronized (mRegistrationLock) {
+            for (Map.Entry<String, Integer> controllerSlot: mControllerSlots.entrySet()) {
+                ConfigurationGeneration<?> generation = mControllers[controllerSlot.getValue()].peekGeneration();
+                if (generation != null) {
+                    subscriber.offer(controllerSlot.getKey(), generation);
+                }
+            }
+        }
+        return subscriber;
+    }
+
+    private ConfigurationController<C, ?> getControllerById(String controllerId) {
+        Integer slot = mControllerSlots.get(controllerId);
+        return slot != null ? mControllers[slot] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getControllerByKey(ControllerKey<?, ?> controllerKey) {
+        int slot = controllerKey.getSlot(mLocatorId);
+        if (slot == ControllerKey.UNRESOLVED_SLOT) {
+            Integer resolvedSlot = mControllerSlots.get(controllerKey.getControllerId());
+            if (resolvedSlot == null) {
+                return null;
+            }
+            slot = resolvedSlot;
+            controllerKey.setSlot(mLocatorId, slot);
+        }
+        return (T) mControllers[slot];
+    }
+
+    private void initializeController(String controllerId, ConfigurationController<C, ?> controller) {
+        initializeController(controllerId, controller, null);
+    }
+
+    void initializeController(String controllerId, ConfigurationController<C, ?> controller, Executor configurationExecutor) {
+        controller.setPersister(getPersister());
+        controller.setWarningPresenter(mWarningPresenter);
+        controller.setMetrics(mMetrics);
+        if (mMultiProcessEnabled) {
+            controller.setMultiProcessEnabled(true);
+        }
+        controller.initialize(mContext, controllerId, isStagingAllowed(), isDebugBuild(), configurationExecutor);
+    }
+
+    boolean isControllerRegistered(String controllerId) {
+        return mControllerSlots.containsKey(controllerId);
+    }
+
+    /**
+     * Get configuration associated with the controllerId
+     */
+    public <T extends ConfigurationController<?, ?>> T getController(String controllerId, Class<T> configurationControllerClass) {
+        return configurationControllerClass.cast(getControllerById(controllerId));
+    }
+
+    /**
+     * Get the configuration controller associated with the key or null if it has not been registered.
+     */
+    public <AC extends Configuration<C>, T extends ConfigurationController<C, AC>> T getController(ControllerKey<AC, T> controllerKey) {
+        return getControllerByKey(controllerKey);
+    }
+
+    public <AC extends Configuration<C>, T extends ConfigurationController<C, AC>> AC getConfiguration(String controllerId, Class<T> configurationControllerClass) {
+        return getController(controllerId, configurationControllerClass).getCurrentApplicationConfiguration();
+    }
+
+    /**
+     * Get the current configuration of the controller associated with the key.
+     */
+    public <AC extends Configuration<C>, T extends ConfigurationController<C, AC>> AC getConfiguration(ControllerKey<AC, T> controllerKey) {
+        T controller = getControllerByKey(controllerKey);
+        if (controller == null) {
+            throw new IllegalStateException("No configuration controller has been registered for " + controllerKey.getControllerId());
+        }
+        return controller.getCurrentApplicationConfiguration();
+    }
+
+    private class ChangeSubscriber extends ConflatingSubscriber {
+        private final ConfigurationChangeObserver mObserver;
+        private Map<String, ConfigurationGeneration<?>> mPending = new LinkedHashMap<>();
+        private final Map<String, Long> mLastDelivered = new HashMap<>();
+
+        ChangeSubscriber(ConfigurationChangeObserver observer, Executor executor) {
+            super(executor);
+            mObserver = observer;
+        }
+
+        void offer(String controllerId, ConfigurationGeneration<?> generation) {
+            synchronized (this) {
+                ConfigurationGeneration<?> pending = mPending.get(controllerId);
+                if (pending != null && pending.getGeneration() >= generation.getGeneration()) {
+                    return;
+                }
+                mPending.put(controllerId, generation);
+            }
+            schedule();
+        }
+
+        @Override
+        void deliverPending() {
+            Map<String, ConfigurationGeneration<?>> pending;
+            synchronized (this) {
+                pending = mPending;
+                mPending = new LinkedHashMap<>();
+            }
+            for (Map.Entry<String, ConfigurationGeneration<?>> change: pending.entrySet()) {
+                Long lastDelivered = mLastDelivered.get(change.getKey());
+                if (lastDelivered == null || change.getValue().getGeneration() > lastDelivered) {
+                    mLastDelivered.put(change.getKey(), change.getValue().getGeneration());
+                    mObserver.onConfigurationChanged(change.getKey(), change.getValue());
+                }
+            }
+        }
+
+        @Override
+        synchronized boolean hasPending() {
+            return !mPending.isEmpty();
+        }
+
+        @Override
+        void onCancel() {
+            mChangeSubscribers.remove(this);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Descriptors and a factory for every configuration of a controller, generated at build time from
+ * ControllerConfiguration annotations. The generated subclass creates configurations by index in a
+ * switch, so no reflection or registration logic runs at startup.
+ */
+public abstract class ConfigurationTable<T extends Configuration<?>> implements ConfigurationFactory<T> {
+    private final List<ConfigurationDescriptor> mDescriptors;
+    private final long[] mIds;
+
+    /**
+     * Descriptors must be sorted by id. Generated tables are validated at compile time.
+     */
+    protected ConfigurationTable(ConfigurationDescriptor... descriptors) {
+        mDescriptors = Collections.unmodifiableList(Arrays.asList(descriptors));
+        mIds = new long[descriptors.length];
+        for (int i = 0; i < descriptors.length; i++) {
+            mIds[i] = descriptors[i].getId();
+        }
+    }
+
+    /**
+     * Descriptors of every configuration in ascending id order.
+     */
+    public List<ConfigurationDescriptor> getDescriptors() {
+        return mDescriptors;
+    }
+
+    @Override
+    public T create(ConfigurationDescriptor descriptor) {
+        int index = Arrays.binarySearch(mIds, descriptor.getId());
+        if (index < 0) {
+            throw new IllegalArgumentException("No configuration with id " + descriptor.getId());
+        }
+        return create(index);
+    }
+
+    /**
+     * Create the configuration at the index of getDescriptors().
+     */
+    protected abstract T create(int index);
+}
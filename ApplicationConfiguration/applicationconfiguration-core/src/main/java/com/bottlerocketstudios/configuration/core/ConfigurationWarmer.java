@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Prepares state derived from a configuration that is not selected yet, such as clients and caches,
+ * so a later switch to it does not have to build them. Called on the controller's standby executor.
+ */
+public interface ConfigurationWarmer<C, T extends Configuration<C>> {
+    /**
+     * The configuration has been created and initialized as a warm standby candidate.
+     */
+    public void warm(C context, T applicationConfiguration);
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers pending values on an executor with at most one delivery task queued at a time. Values that
+ * arrive while a delivery is queued or running replace older pending values, so a slow subscriber
+ * only receives the latest state. A null executor delivers on the publishing thread.
+ */
+abstract class ConflatingSubscriber extends Subscription implements Runnable {
+    private static final String TAG = ConflatingSubscriber.class.getSimpleName();
+
+    private final Executor mExecutor;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    ConflatingSubscriber(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Queue a delivery if none is pending. Call after storing the new pending value.
+     */
+    final void schedule() {
+        if (isCancelled() || !mScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (mExecutor == null) {
+            run();
+            return;
+        }
+        try {
+            mExecutor.execute(this);
+        } catch (RejectedExecutionException e) {
+            mScheduled.set(false);
+            ConfigurationLog.e(TAG, "Generation delivery rejected", e);
+        }
+    }
+
+    @Override
+    public final void run() {
+        while (true) {
+            if (!isCancelled()) {
+                try {
+                    deliverPending();
+                } catch (RuntimeException e) {
+                    ConfigurationLog.e(TAG, "Observer failed", e);
+                }
+            }
+            mScheduled.set(false);
+            if (isCancelled() || !hasPending() || !mScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take every pending value and deliver it.
+     */
+    abstract void deliverPending();
+
+    abstract boolean hasPending();
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a configuration class as one of the configurations of a controller. The
+ * applicationconfiguration-processor annotation processor generates a ConfigurationTable named
+ * &lt;Controller&gt;_ConfigurationTable for each controller. Duplicate ids, a missing or duplicate
+ * production configuration and a duplicate default configuration are reported as compile errors.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ControllerConfiguration {
+    /**
+     * Controller the configuration belongs to.
+     */
+    Class<? extends ConfigurationController<?, ?>> controller();
+
+    /**
+     * Must match the value returned by getId().
+     */
+    long id();
+
+    /**
+     * Name shown before the configuration is created. Should match the value returned by getName().
+     */
+    String name();
+
+    /**
+     * Must match the value returned by isProduction().
+     */
+    boolean production() default false;
+
+    /**
+     * Marks the configuration getDefaultAppConfigId() returns, at most one per controller. The generated
+     * table exposes it as DEFAULT_CONFIG_ID and a production only table fails the build if it would
+     * leave it out.
+     */
+    boolean defaultConfiguration() default false;
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Typed handle for a ConfigurationController registered with a
+ * ConfigurationServiceLocator. The key is resolved to a fixed slot the first time it is
+ * used so later lookups are a single array load without string hashing or casting. Declare one
+ * instance per controller as a static final field.
+ */
+public final class ControllerKey<AC extends Configuration<?>, T extends ConfigurationController<?, AC>> {
+
+    static final int UNRESOLVED_SLOT = -1;
+
+    private final String mControllerId;
+
+    /**
+     * Slot and the service locator that assigned it. Slots never change once assigned and the pair is
+     * immutable, so a racy read that misses a concurrent resolution only costs a repeated lookup.
+     */
+    private Resolution mResolution;
+
+    public ControllerKey(String controllerId) {
+        if (controllerId == null) {
+            throw new IllegalArgumentException("controllerId cannot be null");
+        }
+        mControllerId = controllerId;
+    }
+
+    public String getControllerId() {
+        return mControllerId;
+    }
+
+    /**
+     * Return the slot assigned by the locator with the supplied id or UNRESOLVED_SLOT. A key shared by
+     * several locators stays correct and is resolved again whenever it is used with another locator.
+     */
+    int getSlot(int locatorId) {
+        Resolution resolution = mResolution;
+        return resolution != null && resolution.mLocatorId == locatorId ? resolution.mSlot : UNRESOLVED_SLOT;
+    }
+
+    void setSlot(int locatorId, int slot) {
+        mResolution = new Resolution(locatorId, slot);
+    }
+
+    @Override
+    public String toString() {
+        return "ControllerKey{" + mControllerId + "}";
+    }
+
+    private static final class Resolution {
+        final int mLocatorId;
+        final int mSlot;
+
+        Resolution(int locatorId, int slot) {
+            mLocatorId = locatorId;
+            mSlot = slot;
+        }
+    }
+}
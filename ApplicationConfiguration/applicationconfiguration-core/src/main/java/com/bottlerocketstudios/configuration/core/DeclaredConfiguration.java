@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Configuration backed by a ConfigurationDefinition loaded from a definition file instead of a
+ * hand written class. Subclass to expose typed accessors or to load resources in init.
+ */
+public class DeclaredConfiguration<C> implements Configuration<C>, ConfigurationPropertySource {
+    private final ConfigurationDefinition mDefinition;
+
+    public DeclaredConfiguration(ConfigurationDefinition definition) {
+        mDefinition = definition;
+    }
+
+    public ConfigurationDefinition getDefinition() {
+        return mDefinition;
+    }
+
+    @Override
+    public long getId() {
+        return mDefinition.getId();
+    }
+
+    @Override
+    public String getName() {
+        return mDefinition.getName();
+    }
+
+    @Override
+    public void init(C context) {}
+
+    @Override
+    public boolean isProduction() {
+        return mDefinition.isProduction();
+    }
+
+    @Override
+    public ConfigurationProperties getProperties() {
+        return mDefinition.getProperties();
+    }
+
+    public String getString(String key) {
+        return mDefinition.getString(key);
+    }
+
+    public int getInt(String key) {
+        return mDefinition.getInt(key);
+    }
+
+    public long getLong(String key) {
+        return mDefinition.getLong(key);
+    }
+
+    public boolean getBoolean(String key) {
+        return mDefinition.getBoolean(key);
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Values derived from each configuration of a controller, keyed by configuration id and DerivedKey.
+ * Every value is computed once, concurrent callers for the same key wait on the same task while other
+ * keys proceed independently. When a configuration is selected, the values of configurations beyond
+ * the most recently selected ones kept by the retention count are evicted and closed.
+ *
+ * Only select() changes which configurations are most recent. The controller selects before it
+ * publishes the generation, so a reader of the new generation always finds its values, and closes the
+ * evicted values afterwards. A derivation that races with the eviction of its configuration is closed
+ * once it completes and repeated against the current configuration, so evicted configurations never
+ * regain values and no Closeable is left open.
+ *
+ * Warm standby calls prepare() to derive every key used so far for a candidate ahead of time. Those
+ * values are kept apart from the selected ones and become the configuration's values when it is
+ * selected.
+ */
+final class DerivedValueCache<T extends Configuration<?>> {
+    private static final String TAG = DerivedValueCache.class.getSimpleName();
+    private static final Object EVICTED = new Object();
+
+    private final Object mLock = new Object();
+    /**
+     * Least recently selected first.
+     */
+    private final LinkedHashMap<Long, DerivedValues<T>> mValues = new LinkedHashMap<>();
+    private volatile DerivedValues<T> mCurrent;
+    private int mRetention;
+    private List<DerivedValues<T>> mEvicted = new ArrayList<>();
+    private final Map<Long, DerivedValues<T>> mStandby = new HashMap<>();
+    private final ConcurrentHashMap<DerivedKey<?>, DerivedValueFactory<T, ?>> mFactories = new ConcurrentHashMap<>();
+
+    /**
+     * Return the value for the key derived from the current configuration of the controller, creating
+     * it with the factory if needed.
+     */
+    @SuppressWarnings("unchecked")
+    <V> V derive(ConfigurationController<?, T> controller, DerivedKey<V> key, DerivedValueFactory<T, V> factory) {
+        mFactories.put(key, factory);
+        while (true) {
+            T applicationConfiguration = controller.getCurrentApplicationConfiguration();
+            DerivedValues<T> values = mCurrent;
+            if (values == null || values.mConfigId != applicationConfiguration.getId()) {
+                values = findValues(applicationConfiguration.getId());
+            }
+            if (values != null) {
+                Object value = values.derive(applicationConfiguration, key, factory);
+                if (value != EVICTED) {
+                    return (V) value;
+                }
+            }
+            //The configuration was evicted by a switch that has already selected the new one, so the
+            //next read of the current configuration returns it as soon as its generation is published.
+        }
+    }
+
+    /**
+     * Record the configuration as selected and evict whatever falls outside the retention count. Call
+     * before publishing the selection, then call closeEvicted().
+     */
+    void select(long configId) {
+        synchronized (mLock) {
+            DerivedValues<T> values = mValues.remove(configId);
+            if (values == null) {
+                values = mStandby.remove(configId);
+            }
+            if (values == null) {
+                values = new DerivedValues<>(configId);
+            }
+            mValues.put(configId, values);
+            mCurrent = values;
+            mEvicted.addAll(trim(mRetention));
+        }
+    }
+
+    /**
+     * Close the values evicted by select().
+     */
+    void closeEvicted() {
+        List<DerivedValues<T>> evicted;
+        synchronized (mLock) {
+            evicted = mEvicted;
+            mEvicted = new ArrayList<>();
+        }
+        close(evicted);
+    }
+
+    /**
+     * Derive every key derived so far for a configuration that is not selected yet, so selecting it
+     * finds the values ready. Failures are logged and left to be retried by derive().
+     */
+    void prepare(T applicationConfiguration) {
+        long configId = applicationConfiguration.getId();
+        DerivedValues<T> values;
+        synchronized (mLock) {
+            values = mValues.get(configId);
+            if (values == null) {
+                values = mStandby.get(configId);
+            }
+            if (values == null) {
+                values = new DerivedValues<>(configId);
+                mStandby.put(configId, values);
+            }
+        }
+        for (Map.Entry<DerivedKey<?>, DerivedValueFactory<T, ?>> factory: mFactories.entrySet()) {
+            try {
+                values.derive(applicationConfiguration, factory.getKey(), factory.getValue());
+            } catch (RuntimeException e) {
+                ConfigurationLog.w(TAG, "Failed to prepare " + factory.getKey() + " of configuration " + configId, e);
+            }
+        }
+    }
+
+    /**
+     * Close prepared values of configurations that are no longer standby candidates.
+     */
+    void retainStandby(Collection<Long> candidateIds) {
+        List<DerivedValues<T>> evicted = new ArrayList<>();
+        synchronized (mLock) {
+            Iterator<DerivedValues<T>> iterator = mStandby.values().iterator();
+            while (iterator.hasNext()) {
+                DerivedValues<T> values = iterator.next();
+                if (!candidateIds.contains(values.mConfigId)) {
+                    iterator.remove();
+                    evicted.add(values);
+                }
+            }
+        }
+        close(evicted);
+    }
+
+    /**
+     * Number of previously selected configurations whose values are kept.
+     */
+    void setRetention(int retention) {
+        if (retention < 0) {
+            throw new IllegalArgumentException("retention must not be negative");
+        }
+        List<DerivedValues<T>> evicted;
+        synchronized (mLock) {
+            mRetention = retention;
+            evicted = trim(retention);
+        }
+        close(evicted);
+    }
+
+    /**
+     * Evict the values of every configuration except the selected one, including prepared ones. Returns
+     * the number evicted.
+     */
+    int evictInactive() {
+        List<DerivedValues<T>> evicted;
+        synchronized (mLock) {
+            evicted = trim(0);
+            evicted.addAll(mStandby.values());
+            mStandby.clear();
+        }
+        close(evicted);
+        return evicted.size();
+    }
+
+    /**
+     * Evict everything, including values of the selected configuration.
+     */
+    void clear() {
+        List<DerivedValues<T>> evicted;
+        synchronized (mLock) {
+            evicted = new ArrayList<>(mValues.values());
+            evicted.addAll(mStandby.values());
+            mValues.clear();
+            mStandby.clear();
+            DerivedValues<T> current = mCurrent;
+            if (current != null) {
+                mCurrent = new DerivedValues<>(current.mConfigId);
+                mValues.put(current.mConfigId, mCurrent);
+            }
+        }
+        close(evicted);
+    }
+
+    int getConfigurationCount() {
+        synchronized (mLock) {
+            return mValues.size();
+        }
+    }
+
+    /**
+     * Return the cached values of the configuration without changing its recency, or null if it has
+     * been evicted.
+     */
+    private DerivedValues<T> findValues(long configId) {
+        synchronized (mLock) {
+            DerivedValues<T> values = mValues.get(configId);
+            if (values == null && mCurrent == null) {
+                //Nothing has been selected yet.
+                values = new DerivedValues<>(configId);
+                mValues.put(configId, values);
+                mCurrent = values;
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Remove the least recently selected configurations, never the current one, until at most
+     * retention others remain.
+     */
+    private List<DerivedValues<T>> trim(int retention) {
+        List<DerivedValues<T>> evicted = new ArrayList<>();
+        synchronized (mLock) {
+            DerivedValues<T> current = mCurrent;
+            int excess = mValues.size() - retention - (current != null ? 1 : 0);
+            Iterator<Map.Entry<Long, DerivedValues<T>>> iterator = mValues.entrySet().iterator();
+            while (excess > 0 && iterator.hasNext()) {
+                DerivedValues<T> values = iterator.next().getValue();
+                if (values != current) {
+                    iterator.remove();
+                    evicted.add(values);
+                    excess--;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private static <T extends Configuration<?>> void close(List<DerivedValues<T>> evicted) {
+        for (DerivedValues<T> values: evicted) {
+            values.close();
+        }
+    }
+
+    private static class DerivedValues<T extends Configuration<?>> {
+        final long mConfigId;
+        final ConcurrentHashMap<DerivedKey<?>, FutureTask<Object>> mTasks = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<DerivedKey<?>, Thread> mDerivingThreads = new ConcurrentHashMap<>();
+        private boolean mClosed;
+
+        DerivedValues(long configId) {
+            mConfigId = configId;
+        }
+
+        /**
+         * Return the derived value or EVICTED if these values were closed before it could be returned.
+         */
+        Object derive(final T applicationConfiguration, DerivedKey<?> key, final DerivedValueFactory<T, ?> factory) {
+            FutureTask<Object> task = mTasks.get(key);
+            if (task == null) {
+                FutureTask<Object> created = new FutureTask<>(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return factory.create(applicationConfiguration);
+                    }
+                });
+                synchronized (this) {
+                    if (mClosed) {
+                        return EVICTED;
+                    }
+                    task = mTasks.putIfAbsent(key, created);
+                }
+                if (task == null) {
+                    task = created;
+                    mDerivingThreads.put(key, Thread.currentThread());
+                    try {
+                        created.run();
+                    } finally {
+                        mDerivingThreads.remove(key);
+                    }
+                }
+            } else if (!task.isDone() && mDerivingThreads.get(key) == Thread.currentThread()) {
+                //Waiting would never return.
+                throw new IllegalStateException("The factory for " + key + " derived the same key again");
+            }
+            Object value = await(key, task);
+            if (isClosed()) {
+                //Evicted while deriving, close() skipped the unfinished task.
+                closeValue(key, task);
+                return EVICTED;
+            }
+            return value;
+        }
+
+        private synchronized boolean isClosed() {
+            return mClosed;
+        }
+
+        private Object await(DerivedKey<?> key, FutureTask<Object> task) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return task.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        //Allow a later call to try again.
+                        mTasks.remove(key, task);
+                        Throwable cause = e.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        } else if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IllegalStateException("Failed to derive " + key, cause);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Stop accepting derivations and close every completed Closeable value. Values still being
+         * derived are closed by their callers once they complete.
+         */
+        void close() {
+            List<Map.Entry<DerivedKey<?>, FutureTask<Object>>> entries;
+            synchronized (this) {
+                mClosed = true;
+                entries = new ArrayList<>(mTasks.entrySet());
+            }
+            for (Map.Entry<DerivedKey<?>, FutureTask<Object>> entry: entries) {
+                if (entry.getValue().isDone()) {
+                    closeValue(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        /**
+         * Close the value of a completed task, only the caller that removes the task closes it.
+         */
+        private void closeValue(DerivedKey<?> key, FutureTask<Object> task) {
+            if (!mTasks.remove(key, task)) {
+                return;
+            }
+            try {
+                Object value = task.get();
+                if (value instanceof Closeable) {
+                    ((Closeable) value).close();
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                //Failed derivations have nothing to close.
+            } catch (IOException | RuntimeException e) {
+                ConfigurationLog.w(TAG, "Failed to close " + key + " of configuration " + mConfigId, e);
+            }
+        }
+    }
+}
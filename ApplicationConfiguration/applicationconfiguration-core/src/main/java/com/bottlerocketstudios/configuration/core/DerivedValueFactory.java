@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Builds an expensive object, such as an HTTP client, from a configuration. Called at most once per
+ * configuration and key while the result is cached. Results that implement Closeable are closed when
+ * they are evicted.
+ */
+public interface DerivedValueFactory<T extends Configuration<?>, V> {
+    public V create(T applicationConfiguration);
+}
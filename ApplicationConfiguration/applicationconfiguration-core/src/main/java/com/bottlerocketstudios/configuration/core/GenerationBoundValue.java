@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Holds an expensive object built from configuration, such as an HTTP client, and rebuilds it the first
+ * time it is read after the generation of its source has changed. While the generation is unchanged,
+ * get() costs one volatile read of the source and one of the holder.
+ */
+public abstract class GenerationBoundValue<V> {
+    private final GenerationSource mGenerationSource;
+    private volatile Bound<V> mBound;
+
+    public GenerationBoundValue(GenerationSource generationSource) {
+        mGenerationSource = generationSource;
+    }
+
+    /**
+     * Return the value built for the current generation, building it first if it is stale.
+     */
+    public V get() {
+        long generation = mGenerationSource.getGeneration();
+        Bound<V> bound = mBound;
+        if (bound != null && bound.mGeneration == generation) {
+            return bound.mValue;
+        }
+        return rebuild(generation);
+    }
+
+    /**
+     * True if the value has not been built or was built for an older generation.
+     */
+    public boolean isStale() {
+        Bound<V> bound = mBound;
+        return bound == null || bound.mGeneration != mGenerationSource.getGeneration();
+    }
+
+    /**
+     * Drop the current value so the next get() builds a new one.
+     */
+    public synchronized void invalidate() {
+        Bound<V> bound = mBound;
+        mBound = null;
+        if (bound != null) {
+            release(bound.mValue);
+        }
+    }
+
+    private synchronized V rebuild(long generation) {
+        Bound<V> bound = mBound;
+        if (bound != null && bound.mGeneration == generation) {
+            return bound.mValue;
+        }
+        //The generation is read before building, so a change made meanwhile triggers another rebuild.
+        V value = create();
+        mBound = new Bound<>(generation, value);
+        if (bound != null) {
+            release(bound.mValue);
+        }
+        return value;
+    }
+
+    /**
+     * Build the value from the current configuration.
+     */
+    protected abstract V create();
+
+    /**
+     * Called with a value that has been replaced, e.g. to shut down a client. Does nothing by default.
+     */
+    protected void release(V staleValue) {}
+
+    private static class Bound<V> {
+        final long mGeneration;
+        final V mValue;
+
+        Bound(long generation, V value) {
+            mGeneration = generation;
+            mValue = value;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Anything whose state is versioned by a monotonically increasing generation number. Comparing the
+ * number with the one an object was built from is enough to tell whether it is stale.
+ */
+public interface GenerationSource {
+    /**
+     * Current generation, increases on every change. Cheap enough for hot paths: a volatile read for
+     * controllers and LayeredProperties. In multi process mode a controller also reads the shared change
+     * sequence and the service locator does so for each of its controllers.
+     */
+    public long getGeneration();
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stream of the generations published by one controller. New subscribers immediately receive the
+ * current generation, and slow subscribers only receive the latest one.
+ */
+final class GenerationStream<T extends Configuration<?>> {
+    private final CopyOnWriteArrayList<GenerationSubscriber<T>> mSubscribers = new CopyOnWriteArrayList<>();
+    private volatile ConfigurationGeneration<T> mLatest;
+
+    void publish(ConfigurationGeneration<T> generation) {
+        mLatest = generation;
+        for (GenerationSubscriber<T> subscriber: mSubscribers) {
+            subscriber.offer(generation);
+        }
+    }
+
+    ConfigurationGeneration<T> getLatest() {
+        return mLatest;
+    }
+
+    Subscription subscribe(GenerationObserver<T> observer, Executor executor) {
+        GenerationSubscriber<T> subscriber = new GenerationSubscriber<>(this, observer, executor);
+        mSubscribers.add(subscriber);
+        ConfigurationGeneration<T> latest = mLatest;
+        if (latest != null) {
+            subscriber.offer(latest);
+        }
+        return subscriber;
+    }
+
+    int getSubscriberCount() {
+        return mSubscribers.size();
+    }
+
+    private static class GenerationSubscriber<T extends Configuration<?>> extends ConflatingSubscriber {
+        private final GenerationStream<T> mStream;
+        private final GenerationObserver<T> mObserver;
+        private final AtomicReference<ConfigurationGeneration<T>> mPending = new AtomicReference<>();
+        private volatile long mLastDelivered;
+
+        GenerationSubscriber(GenerationStream<T> stream, GenerationObserver<T> observer, Executor executor) {
+            super(executor);
+            mStream = stream;
+            mObserver = observer;
+        }
+
+        void offer(ConfigurationGeneration<T> generation) {
+            while (true) {
+                ConfigurationGeneration<T> pending = mPending.get();
+                if (generation.getGeneration() <= mLastDelivered || (pending != null && pending.getGeneration() >= generation.getGeneration())) {
+                    return;
+                }
+                if (mPending.compareAndSet(pending, generation)) {
+                    break;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        void deliverPending() {
+            ConfigurationGeneration<T> generation = mPending.getAndSet(null);
+            if (generation != null && generation.getGeneration() > mLastDelivered) {
+                mLastDelivered = generation.getGeneration();
+                mObserver.onGeneration(generation);
+            }
+        }
+
+        @Override
+        boolean hasPending() {
+            return mPending.get() != null;
+        }
+
+        @Override
+        void onCancel() {
+            mStream.mSubscribers.remove(this);
+        }
+    }
+}
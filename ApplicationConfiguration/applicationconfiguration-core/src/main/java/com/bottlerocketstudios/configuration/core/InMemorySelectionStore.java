@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SelectionStore that keeps selections for the life of the process. Default for controllers that do not
+ * supply a platform store, useful for tools and tests.
+ */
+public class InMemorySelectionStore implements SelectionStore {
+    private final Map<String, Long> mSelections = new ConcurrentHashMap<>();
+
+    @Override
+    public long getSelectedConfigId(String settingKey, long defaultConfigId) {
+        Long selectedConfigId = mSelections.get(settingKey);
+        return selectedConfigId != null ? selectedConfigId : defaultConfigId;
+    }
+
+    @Override
+    public boolean putSelectedConfigIds(Map<String, Long> selections) {
+        mSelections.putAll(selections);
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Key of an int configuration property.
+ */
+public final class IntKey extends PropertyKey<Integer> {
+    private static final Pool<IntKey> POOL = new Pool<IntKey>() {
+        @Override
+        IntKey create(String name, int ordinal) {
+            return new IntKey(name, ordinal);
+        }
+    };
+
+    private IntKey(String name, int ordinal) {
+        super(name, ordinal);
+    }
+
+    /**
+     * Return the key with this name, creating it on first use.
+     */
+    public static IntKey of(String name) {
+        return POOL.intern(name);
+    }
+
+    @Override
+    public ConfigurationDefinitions.ValueType getValueType() {
+        return ConfigurationDefinitions.ValueType.INT;
+    }
+}
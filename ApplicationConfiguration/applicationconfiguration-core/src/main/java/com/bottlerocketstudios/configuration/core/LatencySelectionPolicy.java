@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Picks the fastest healthy configuration among equivalent ones, such as regional mirrors of the same
+ * staging environment. Each candidate's health endpoint is probed in parallel with a timeout and a
+ * moving average of its latency is kept across probes. The pick is cached for a time to live and is
+ * only reused for the same set of candidates.
+ *
+ * Use selectFastestConfigId() where blocking on the network is acceptable, or return
+ * getRecommendedConfigId() from a controller's getDefaultAppConfigId(), which never blocks and refreshes
+ * in the background. Until the first probe finishes it returns the fallback, so call refresh() early or
+ * switch with setSelectedConfigId() once a background selectFastestConfigId() returns.
+ */
+public class LatencySelectionPolicy<T extends Configuration<?>> {
+    private static final String TAG = LatencySelectionPolicy.class.getSimpleName();
+
+    public static final long DEFAULT_PROBE_TIMEOUT_MILLIS = 2000;
+    public static final long DEFAULT_RESULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final double DEFAULT_SMOOTHING_FACTOR = 0.3;
+
+    private static final int MAX_PARALLEL_PROBES = 8;
+    private static final int DRAIN_BUFFER_SIZE = 512;
+
+    private final HealthEndpointResolver<T> mHealthEndpointResolver;
+    private final ConcurrentHashMap<Long, Estimate> mEstimates = new ConcurrentHashMap<>();
+    private final AtomicBoolean mRefreshing = new AtomicBoolean();
+    private volatile Recommendation mRecommendation;
+    private volatile long mProbeTimeoutMillis = DEFAULT_PROBE_TIMEOUT_MILLIS;
+    private volatile long mResultTtlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RESULT_TTL_MILLIS);
+    private volatile double mSmoothingFactor = DEFAULT_SMOOTHING_FACTOR;
+    private volatile Executor mProbeExecutor;
+
+    public LatencySelectionPolicy(HealthEndpointResolver<T> healthEndpointResolver) {
+        mHealthEndpointResolver = healthEndpointResolver;
+    }
+
+    /**
+     * Time allowed to connect and, separately, to read the response of each probe.
+     */
+    public void setProbeTimeout(long timeout, TimeUnit unit) {
+        mProbeTimeoutMillis = Math.max(1, unit.toMillis(timeout));
+    }
+
+    /**
+     * How long a pick is reused before the candidates are probed again.
+     */
+    public void setResultTtl(long ttl, TimeUnit unit) {
+        mResultTtlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Weight of the newest sample in the moving average, greater than 0 and at most 1.
+     */
+    public void setSmoothingFactor(double smoothingFactor) {
+        if (!(smoothingFactor > 0 && smoothingFactor <= 1)) {
+            throw new IllegalArgumentException("smoothingFactor must be in (0, 1]");
+        }
+        mSmoothingFactor = smoothingFactor;
+    }
+
+    /**
+     * Run probes on the supplied executor instead of a shared pool of daemon threads.
+     */
+    public void setProbeExecutor(Executor probeExecutor) {
+        mProbeExecutor = probeExecutor;
+    }
+
+    /**
+     * Return the cached pick for these candidates or probe them and wait for the result. Returns
+     * fallbackConfigId when no candidate is healthy.
+     */
+    public long selectFastestConfigId(Collection<T> candidates, long fallbackConfigId) {
+        Recommendation recommendation = mRecommendation;
+        if (recommendation != null && recommendation.isValidFor(resolveCandidateIds(candidates), System.nanoTime())) {
+            return recommendation.mConfigId;
+        }
+        return probe(candidates, fallbackConfigId);
+    }
+
+    /**
+     * Return the cached pick for these candidates without blocking. When it has expired a background
+     * probe is started and the expired pick is returned meanwhile, or fallbackConfigId if there is none.
+     */
+    public long getRecommendedConfigId(Collection<T> candidates, long fallbackConfigId) {
+        Recommendation recommendation = mRecommendation;
+        Set<Long> candidateIds = resolveCandidateIds(candidates);
+        if (recommendation != null && recommendation.isValidFor(candidateIds, System.nanoTime())) {
+            return recommendation.mConfigId;
+        }
+        refresh(candidates, fallbackConfigId);
+        return recommendation != null && recommendation.mCandidateIds.equals(candidateIds) ? recommendation.mConfigId : fallbackConfigId;
+    }
+
+    /**
+     * Probe the candidates in the background unless a probe is already running.
+     */
+    public void refresh(Collection<T> candidates, final long fallbackConfigId) {
+        if (!mRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        final List<T> snapshot = new ArrayList<>(candidates);
+        try {
+            getProbeExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        probe(snapshot, fallbackConfigId);
+                    } finally {
+                        mRefreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mRefreshing.set(false);
+            ConfigurationLog.e(TAG, "Latency probe rejected", e);
+        }
+    }
+
+    /**
+     * Discard the cached pick so the next selection probes again. Latency estimates are kept.
+     */
+    public void invalidate() {
+        mRecommendation = null;
+    }
+
+    /**
+     * Probe every candidate with a health endpoint in parallel, wait for all of them or the timeout and
+     * cache the id of the healthy candidate with the lowest latency estimate.
+     */
+    public long probe(Collection<T> candidates, long fallbackConfigId) {
+        long timeoutMillis = mProbeTimeoutMillis;
+        List<Long> configIds = new ArrayList<>(candidates.size());
+        List<FutureTask<Long>> tasks = new ArrayList<>(candidates.size());
+        for (T candidate: candidates) {
+            URL endpoint = mHealthEndpointResolver.getHealthEndpoint(candidate);
+            if (endpoint == null) {
+                continue;
+            }
+            FutureTask<Long> task = new FutureTask<>(new ProbeCallable(endpoint, timeoutMillis));
+            try {
+                getProbeExecutor().execute(task);
+            } catch (RejectedExecutionException e) {
+                ConfigurationLog.w(TAG, "Probe of " + endpoint + " rejected, running it on the calling thread");
+            }
+            configIds.add(candidate.getId());
+            tasks.add(task);
+        }
+
+        //A probe may spend the timeout on connecting and again on reading.
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis * 2);
+        //Run anything the executor has not started yet on this thread so a saturated pool cannot deadlock.
+        for (FutureTask<Long> task: tasks) {
+            task.run();
+        }
+        double smoothingFactor = mSmoothingFactor;
+        for (int i = 0; i < tasks.size(); i++) {
+            getEstimate(configIds.get(i)).record(awaitProbe(tasks.get(i), deadline), smoothingFactor);
+        }
+
+        long fastestConfigId = fallbackConfigId;
+        long fastestNanos = Long.MAX_VALUE;
+        for (long configId: configIds) {
+            ProbeResult result = getEstimate(configId).toProbeResult(configId);
+            if (result.isHealthy() && result.getEstimateNanos() < fastestNanos) {
+                fastestNanos = result.getEstimateNanos();
+                fastestConfigId = configId;
+            }
+        }
+        if (fastestNanos == Long.MAX_VALUE) {
+            ConfigurationLog.w(TAG, "No healthy candidate among " + configIds + ", using " + fallbackConfigId);
+        }
+        mRecommendation = new Recommendation(fastestConfigId, new HashSet<>(configIds), System.nanoTime() + mResultTtlNanos);
+        return fastestConfigId;
+    }
+
+    /**
+     * Return the current estimate of every configuration that has been probed.
+     */
+    public List<ProbeResult> getProbeResults() {
+        List<ProbeResult> results = new ArrayList<>(mEstimates.size());
+        for (Map.Entry<Long, Estimate> estimate: mEstimates.entrySet()) {
+            results.add(estimate.getValue().toProbeResult(estimate.getKey()));
+        }
+        return results;
+    }
+
+    private Set<Long> resolveCandidateIds(Collection<T> candidates) {
+        Set<Long> candidateIds = new HashSet<>();
+        for (T candidate: candidates) {
+            if (mHealthEndpointResolver.getHealthEndpoint(candidate) != null) {
+                candidateIds.add(candidate.getId());
+            }
+        }
+        return candidateIds;
+    }
+
+    private Estimate getEstimate(long configId) {
+        Estimate estimate = mEstimates.get(configId);
+        if (estimate == null) {
+            estimate = new Estimate();
+            Estimate existing = mEstimates.putIfAbsent(configId, estimate);
+            if (existing != null) {
+                estimate = existing;
+            }
+        }
+        return estimate;
+    }
+
+    private Executor getProbeExecutor() {
+        Executor probeExecutor = mProbeExecutor;
+        return probeExecutor != null ? probeExecutor : ProbeExecutorHolder.instance;
+    }
+
+    /**
+     * Return the probe latency in nanoseconds or -1 if it failed or did not finish before the deadline.
+     */
+    private static long awaitProbe(FutureTask<Long> task, long deadline) {
+        try {
+            return task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            ConfigurationLog.w(TAG, "Probe failed: " + e.getCause());
+        } catch (TimeoutException e) {
+            ConfigurationLog.w(TAG, "Probe timed out");
+        }
+        task.cancel(true);
+        return -1;
+    }
+
+    private static class ProbeCallable implements Callable<Long> {
+        private final URL mEndpoint;
+        private final int mTimeoutMillis;
+
+        ProbeCallable(URL endpoint, long timeoutMillis) {
+            mEndpoint = endpoint;
+            mTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, timeoutMillis);
+        }
+
+        @Override
+        public Long call() throws IOException {
+            long start = System.nanoTime();
+            URLConnection connection = mEndpoint.openConnection();
+            try {
+                connection.setConnectTimeout(mTimeoutMillis);
+                connection.setReadTimeout(mTimeoutMillis);
+                connection.setUseCaches(false);
+                int responseCode = 200;
+                InputStream body;
+                if (connection instanceof HttpURLConnection) {
+                    HttpURLConnection httpConnection = (HttpURLConnection) connection;
+                    httpConnection.setInstanceFollowRedirects(false);
+                    responseCode = httpConnection.getResponseCode();
+                    body = responseCode < 400 ? httpConnection.getInputStream() : httpConnection.getErrorStream();
+                } else {
+                    body = connection.getInputStream();
+                }
+                drain(body);
+                if (responseCode < 200 || responseCode >= 300) {
+                    ConfigurationLog.w(TAG, mEndpoint + " responded " + responseCode);
+                    return -1L;
+                }
+                return System.nanoTime() - start;
+            } finally {
+                if (connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection) connection).disconnect();
+                }
+            }
+        }
+
+        private static void drain(InputStream body) throws IOException {
+            if (body == null) {
+                return;
+            }
+            try {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (body.read(buffer) >= 0) {
+                    //Discard, only the time to receive the response matters.
+                }
+            } finally {
+                body.close();
+            }
+        }
+    }
+
+    private static class Estimate {
+        private boolean mHealthy;
+        private double mEstimateNanos;
+        private long mLastNanos;
+        private long mSampleCount;
+
+        synchronized void record(long latencyNanos, double smoothingFactor) {
+            if (latencyNanos < 0) {
+                mHealthy = false;
+                return;
+            }
+            mHealthy = true;
+            mLastNanos = latencyNanos;
+            mEstimateNanos = mSampleCount == 0 ? latencyNanos : smoothingFactor * latencyNanos + (1 - smoothingFactor) * mEstimateNanos;
+            mSampleCount++;
+        }
+
+        synchronized ProbeResult toProbeResult(long configId) {
+            return new ProbeResult(configId, mHealthy, (long) mEstimateNanos, mLastNanos, mSampleCount);
+        }
+    }
+
+    private static class Recommendation {
+        final long mConfigId;
+        final Set<Long> mCandidateIds;
+        final long mExpiresAtNanos;
+
+        Recommendation(long configId, Set<Long> candidateIds, long expiresAtNanos) {
+            mConfigId = configId;
+            mCandidateIds = candidateIds;
+            mExpiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isValidFor(Set<Long> candidateIds, long now) {
+            return now - mExpiresAtNanos < 0 && mCandidateIds.equals(candidateIds);
+        }
+    }
+
+    private static class ProbeExecutorHolder {
+        public static final Executor instance = ConfigurationInitializer.newBoundedExecutor(MAX_PARALLEL_PROBES);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Resolves an ordered stack of property layers, e.g. base, environment, region and a local developer
+ * override, into one flattened ConfigurationProperties. Later layers win. Changing a layer only
+ * resolves the keys that layer had or has, then publishes a new flattened table, so reads never walk
+ * the layers.
+ */
+public class LayeredProperties implements GenerationSource {
+    private static final String TAG = LayeredProperties.class.getSimpleName();
+
+    private final String[] mLayerNames;
+    private final ConfigurationProperties[] mLayers;
+    private final long[] mBoundGenerations;
+    private volatile ConfigurationProperties mResolved = ConfigurationProperties.EMPTY;
+    private volatile long mGeneration;
+    private int mLastResolvedKeyCount;
+
+    /**
+     * Create empty layers with the supplied names, lowest precedence first.
+     */
+    public LayeredProperties(String... layerNames) {
+        if (layerNames.length == 0) {
+            throw new IllegalArgumentException("At least one layer is required");
+        }
+        if (new LinkedHashSet<>(Arrays.asList(layerNames)).size() != layerNames.length) {
+            throw new IllegalArgumentException("Layer names must be unique");
+        }
+        mLayerNames = layerNames.clone();
+        mLayers = new ConfigurationProperties[layerNames.length];
+        Arrays.fill(mLayers, ConfigurationProperties.EMPTY);
+        mBoundGenerations = new long[layerNames.length];
+    }
+
+    /**
+     * The flattened view of every layer.
+     */
+    public ConfigurationProperties getProperties() {
+        return mResolved;
+    }
+
+    /**
+     * Incremented every time a layer change publishes a new flattened view.
+     */
+    @Override
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    public synchronized ConfigurationProperties getLayer(String layerName) {
+        return mLayers[indexOf(layerName)];
+    }
+
+    /**
+     * Return the name of the layer that supplies the resolved value of the key or null.
+     */
+    public synchronized String getSourceLayer(PropertyKey<?> key) {
+        for (int i = mLayers.length - 1; i >= 0; i--) {
+            if (mLayers[i].contains(key)) {
+                return mLayerNames[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace the contents of a layer and publish the re-resolved view.
+     */
+    public synchronized void setLayer(String layerName, ConfigurationProperties properties) {
+        int layerIndex = indexOf(layerName);
+        ConfigurationProperties previous = mLayers[layerIndex];
+        if (previous == properties) {
+            return;
+        }
+        mLayers[layerIndex] = properties;
+
+        Set<PropertyKey<?>> affectedKeys = new LinkedHashSet<>(previous.getKeys());
+        affectedKeys.addAll(properties.getKeys());
+        ConfigurationProperties.Builder builder = new ConfigurationProperties.Builder(mResolved);
+        for (PropertyKey<?> key: affectedKeys) {
+            resolveKey(builder, key);
+        }
+        mLastResolvedKeyCount = affectedKeys.size();
+        mResolved = builder.build();
+        mGeneration++;
+    }
+
+    public void clearLayer(String layerName) {
+        setLayer(layerName, ConfigurationProperties.EMPTY);
+    }
+
+    synchronized int getLastResolvedKeyCount() {
+        return mLastResolvedKeyCount;
+    }
+
+    private void resolveKey(ConfigurationProperties.Builder builder, PropertyKey<?> key) {
+        for (int i = mLayers.length - 1; i >= 0; i--) {
+            if (mLayers[i].contains(key)) {
+                builder.putValue(key, mLayers[i].getValue(key));
+                return;
+            }
+        }
+        builder.remove(key);
+    }
+
+    private int indexOf(String layerName) {
+        for (int i = 0; i < mLayerNames.length; i++) {
+            if (mLayerNames[i].equals(layerName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown layer " + layerName);
+    }
+
+    /**
+     * Keep a layer in sync with the selected configuration of a controller. The configurations must
+     * implement ConfigurationPropertySource. The controller must already be registered, the layer is
+     * filled immediately and updated by a listener with the highest priority. A layer should only be
+     * bound to one controller.
+     *
+     * The layer always takes the controller's current generation and never one older than it already
+     * holds, so a notification delivered late or the initial fill racing with a switch cannot bring back
+     * a previous configuration.
+     */
+    public <C, T extends Configuration<C>> void bindLayer(String layerName, final ConfigurationController<C, T> controller) {
+        final int layerIndex = indexOf(layerName);
+        controller.addListener(new ConfigurationListener<C, T>() {
+            @Override
+            public void onStagingSwitch(C context, T configuration) {
+                applyGeneration(layerIndex, controller.getCurrentGeneration());
+            }
+        }, Integer.MAX_VALUE);
+        applyGeneration(layerIndex, controller.getCurrentGeneration());
+    }
+
+    private synchronized void applyGeneration(int layerIndex, ConfigurationGeneration<?> generation) {
+        if (generation.getGeneration() <= mBoundGenerations[layerIndex]) {
+            return;
+        }
+        mBoundGenerations[layerIndex] = generation.getGeneration();
+        setLayer(mLayerNames[layerIndex], getProperties(generation.getApplicationConfiguration()));
+    }
+
+    private static ConfigurationProperties getProperties(Configuration<?> configuration) {
+        if (!(configuration instanceof ConfigurationPropertySource)) {
+            throw new IllegalStateException(configuration.getName() + " does not implement ConfigurationPropertySource");
+        }
+        return ((ConfigurationPropertySource) configuration).getProperties();
+    }
+
+    /**
+     * Load a layer from a key=value override file, typically kept outside the app for local debugging.
+     * The layer is cleared if the file does not exist. Returns true if the file was applied.
+     */
+    public boolean applyOverrideFile(String layerName, File file) {
+        if (!file.isFile()) {
+            clearLayer(layerName);
+            return false;
+        }
+        try {
+            setLayer(layerName, parseOverrides(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8"))));
+            ConfigurationLog.i(TAG, "Applied overrides from " + file);
+            return true;
+        } catch (IOException e) {
+            ConfigurationLog.w(TAG, "Ignoring override file " + file, e);
+            clearLayer(layerName);
+            return false;
+        }
+    }
+
+    /**
+     * Parse key=value lines. Each value takes the type of the resolved key with the same name, names
+     * that are not resolved yet become strings. The reader is closed.
+     */
+    public ConfigurationProperties parseOverrides(Reader reader) throws IOException {
+        ConfigurationProperties resolved = mResolved;
+        ConfigurationProperties.Builder builder = new ConfigurationProperties.Builder();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        try {
+            int lineNumber = 0;
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf('=');
+                if (separator <= 0) {
+                    throw new IOException("Line " + lineNumber + ": expected key=value");
+                }
+                String name = line.substring(0, separator).trim();
+                String value = line.substring(separator + 1).trim();
+                PropertyKey<?> key = findKey(resolved, name);
+                try {
+                    builder.putValue(key, key.getValueType().parse(value));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Line " + lineNumber + ": " + name + " is not a valid " + key.getValueType());
+                }
+            }
+        } finally {
+            bufferedReader.close();
+        }
+        return builder.build();
+    }
+
+    private static PropertyKey<?> findKey(ConfigurationProperties resolved, String name) {
+        for (PropertyKey<?> key: resolved.getKeys()) {
+            if (key.getName().equals(name)) {
+                return key;
+            }
+        }
+        return StringKey.of(name);
+    }
+}
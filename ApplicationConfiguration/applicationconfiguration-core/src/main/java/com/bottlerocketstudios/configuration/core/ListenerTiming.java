@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time copy of how long a registered listener has spent handling configuration switches.
+ */
+public final class ListenerTiming {
+    private final String mListenerName;
+    private final int mPriority;
+    private final long mInvocationCount;
+    private final long mTotalNanos;
+    private final long mMaxNanos;
+    private final long mLastNanos;
+
+    ListenerTiming(String listenerName, int priority, long invocationCount, long totalNanos, long maxNanos, long lastNanos) {
+        mListenerName = listenerName;
+        mPriority = priority;
+        mInvocationCount = invocationCount;
+        mTotalNanos = totalNanos;
+        mMaxNanos = maxNanos;
+        mLastNanos = lastNanos;
+    }
+
+    /**
+     * Class name of the listener.
+     */
+    public String getListenerName() {
+        return mListenerName;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public long getInvocationCount() {
+        return mInvocationCount;
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    public long getLastNanos() {
+        return mLastNanos;
+    }
+
+    @Override
+    public String toString() {
+        return mListenerName + " priority=" + mPriority + " invocations=" + mInvocationCount
+                + " totalMs=" + TimeUnit.NANOSECONDS.toMillis(mTotalNanos)
+                + " maxMs=" + TimeUnit.NANOSECONDS.toMillis(mMaxNanos)
+                + " lastMs=" + TimeUnit.NANOSECONDS.toMillis(mLastNanos);
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * SelectionStore backed by a small memory-mapped file of fixed size slots. Each slot is found by
+ * open addressing on a 64 bit hash of the setting key and holds two copies of its value. Updates
+ * are written to the older copy with the next sequence number and a CRC32, so a torn write leaves
+ * the previous value readable. Reads never parse anything beyond the probed slots.
+ *
+ * An optional fallback store is consulted for keys that are not in the file yet and any selection
+ * found there is migrated into the file.
+ *
+ * Every process that opens the same file maps the same pages. The header holds a change sequence that
+ * is odd while a batch of writes is in progress and even once it has been forced, so other processes
+ * can poll it cheaply and only read the slots again once it moves.
+ *
+ * Initialization and each batch of writes hold an exclusive lock on the file, so concurrent writers in
+ * different processes neither lose a change sequence bump nor claim the same slot. Reads take no file
+ * lock: they probe the slots between two reads of the change sequence and retry if it was odd or moved,
+ * so a batch covering several keys is never seen half applied, while the CRC of each copy still guards
+ * against a torn value. A reader that keeps racing writers falls back to a shared lock, which also
+ * covers a sequence left odd by a writer that died. The file stays open until close() to hold the locks.
+ */
+public class MappedSelectionStore implements SharedSelectionStore, Closeable {
+    private static final String TAG = MappedSelectionStore.class.getSimpleName();
+
+    public static final int DEFAULT_SLOT_COUNT = 64;
+
+    private static final int MAGIC = 0x41435346;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_SLOT_COUNT = 8;
+    private static final int HEADER_CHANGE_SEQUENCE = 12;
+
+    private static final int COPY_SIZE = 32;
+    private static final int COPY_SEQUENCE = 0;
+    private static final int COPY_KEY_HASH = 8;
+    private static final int COPY_VALUE = 16;
+    private static final int COPY_CRC = 24;
+    private static final int SLOT_SIZE = COPY_SIZE * 2;
+
+    private static final int NO_SLOT = Integer.MIN_VALUE;
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 4;
+
+    private static final Map<String, Object> sFileMonitors = new HashMap<>();
+
+    private final RandomAccessFile mFile;
+    private final Object mFileMonitor;
+    private final MappedByteBuffer mBuffer;
+    private final int mSlotCount;
+    private final SelectionStore mFallbackStore;
+    private final byte[] mCrcBytes = new byte[COPY_CRC];
+    private final CRC32 mCrc = new CRC32();
+
+    private MappedSelectionStore(RandomAccessFile file, Object fileMonitor, MappedByteBuffer buffer, int slotCount, SelectionStore fallbackStore) {
+        mFile = file;
+        mFileMonitor = fileMonitor;
+        mBuffer = buffer;
+        mSlotCount = slotCount;
+        mFallbackStore = fallbackStore;
+    }
+
+    /**
+     * Open or create the store at the supplied file with the default number of slots.
+     */
+    public static MappedSelectionStore open(File file) throws IOException {
+        return open(file, DEFAULT_SLOT_COUNT, null);
+    }
+
+    /**
+     * Open or create the store at the supplied file. An existing valid file keeps its own slot count.
+     * A file that is missing, truncated or from another format version is recreated empty.
+     */
+    public static MappedSelectionStore open(File file, int slotCount, SelectionStore fallbackStore) throws IOException {
+        if (slotCount <= 0) {
+            throw new IllegalArgumentException("slotCount must be positive");
+        }
+
+        Object fileMonitor = getFileMonitor(file);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        boolean opened = false;
+        try {
+            MappedByteBuffer buffer;
+            synchronized (fileMonitor) {
+                FileLock fileLock = randomAccessFile.getChannel().lock();
+                try {
+                    int existingSlotCount = readValidSlotCount(randomAccessFile);
+                    if (existingSlotCount > 0) {
+                        slotCount = existingSlotCount;
+                    } else {
+                        recreate(file, randomAccessFile, slotCount);
+                    }
+                    buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, getFileSize(slotCount));
+                } finally {
+                    fileLock.release();
+                }
+            }
+            opened = true;
+            return new MappedSelectionStore(randomAccessFile, fileMonitor, buffer, slotCount, fallbackStore);
+        } finally {
+            if (!opened) {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    /**
+     * Overwrite an invalid file with an empty store. Only called with the exclusive lock held. No other
+     * process can have mapped an invalid file, so resizing it is safe, but it is never truncated to zero
+     * first so a valid file that raced with us is not pulled from under its mappings.
+     */
+    private static void recreate(File file, RandomAccessFile randomAccessFile, int slotCount) throws IOException {
+        if (randomAccessFile.length() > 0) {
+            ConfigurationLog.w(TAG, "Recreating invalid selection store " + file);
+        }
+        long fileSize = getFileSize(slotCount);
+        randomAccessFile.setLength(fileSize);
+        randomAccessFile.seek(0);
+        randomAccessFile.write(new byte[(int) fileSize]);
+        randomAccessFile.seek(0);
+        randomAccessFile.writeInt(MAGIC);
+        randomAccessFile.writeInt(FORMAT_VERSION);
+        randomAccessFile.writeInt(slotCount);
+        randomAccessFile.getFD().sync();
+    }
+
+    /**
+     * FileLocks are held on behalf of the whole JVM and overlapping requests from the same JVM fail,
+     * so stores for the same file in one process first agree on a shared monitor.
+     */
+    private static Object getFileMonitor(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        synchronized (sFileMonitors) {
+            Object fileMonitor = sFileMonitors.get(path);
+            if (fileMonitor == null) {
+                fileMonitor = new Object();
+                sFileMonitors.put(path, fileMonitor);
+            }
+            return fileMonitor;
+        }
+    }
+
+    private static int readValidSlotCount(RandomAccessFile randomAccessFile) throws IOException {
+        if (randomAccessFile.length() < HEADER_SIZE) {
+            return 0;
+        }
+        randomAccessFile.seek(HEADER_MAGIC);
+        int magic = randomAccessFile.readInt();
+        int version = randomAccessFile.readInt();
+        int slotCount = randomAccessFile.readInt();
+        if (magic != MAGIC || version != FORMAT_VERSION || slotCount <= 0 || randomAccessFile.length() != getFileSize(slotCount)) {
+            return 0;
+        }
+        return slotCount;
+    }
+
+    private static long getFileSize(int slotCount) {
+        return HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    @Override
+    public int getChangeSequence() {
+        return mBuffer.getInt(HEADER_CHANGE_SEQUENCE);
+    }
+
+    @Override
+    public long getSelectedConfigId(String settingKey, long defaultConfigId) {
+        long keyHash = hashKey(settingKey);
+        Long configId = readSelection(keyHash);
+        if (configId != null) {
+            return configId;
+        }
+
+        if (mFallbackStore != null) {
+            long fallbackConfigId = mFallbackStore.getSelectedConfigId(settingKey, defaultConfigId);
+            if (fallbackConfigId != defaultConfigId) {
+                return migrateSelection(settingKey, keyHash, fallbackConfigId);
+            }
+        }
+        return defaultConfigId;
+    }
+
+    /**
+     * Return the selection stored for the key hash or null if there is none. Only falls back to a shared
+     * file lock if no attempt saw an even change sequence that did not move while the slots were probed.
+     */
+    private Long readSelection(long keyHash) {
+        synchronized (mFileMonitor) {
+            for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+                int changeSequence = getChangeSequence();
+                if ((changeSequence & 1) == 0) {
+                    Long configId = probeSelection(keyHash);
+                    if (getChangeSequence() == changeSequence) {
+                        return configId;
+                    }
+                }
+                Thread.yield();
+            }
+
+            FileLock fileLock = lockFile(true);
+            try {
+                return probeSelection(keyHash);
+            } finally {
+                releaseFile(fileLock);
+            }
+        }
+    }
+
+    private Long probeSelection(long keyHash) {
+        int slot = probe(keyHash);
+        return slot >= 0 ? mBuffer.getLong(getCurrentCopyOffset(slot) + COPY_VALUE) : null;
+    }
+
+    /**
+     * Copy a selection found in the fallback store into the file unless another process stored one for
+     * the key first, and return whichever is in the file.
+     */
+    private long migrateSelection(String settingKey, long keyHash, long fallbackConfigId) {
+        synchronized (mFileMonitor) {
+            FileLock fileLock = lockFile(false);
+            try {
+                int slot = probe(keyHash);
+                if (slot >= 0) {
+                    return mBuffer.getLong(getCurrentCopyOffset(slot) + COPY_VALUE);
+                } else if (slot == NO_SLOT) {
+                    ConfigurationLog.w(TAG, "No free slot to migrate " + settingKey);
+                } else {
+                    int changeSequence = beginWrite();
+                    writeSlot(-(slot + 1), keyHash, fallbackConfigId);
+                    endWrite(changeSequence);
+                }
+                return fallbackConfigId;
+            } finally {
+                releaseFile(fileLock);
+            }
+        }
+    }
+
+    @Override
+    public boolean putSelectedConfigIds(Map<String, Long> selections) {
+        synchronized (mFileMonitor) {
+            FileLock fileLock = lockFile(false);
+            try {
+                int changeSequence = beginWrite();
+                boolean stored = true;
+                for (Map.Entry<String, Long> selection: selections.entrySet()) {
+                    long keyHash = hashKey(selection.getKey());
+                    int slot = probe(keyHash);
+                    if (slot == NO_SLOT) {
+                        ConfigurationLog.w(TAG, "No free slot for " + selection.getKey());
+                        stored = false;
+                    } else {
+                        writeSlot(slot >= 0 ? slot : -(slot + 1), keyHash, selection.getValue());
+                    }
+                }
+                endWrite(changeSequence);
+                return stored;
+            } finally {
+                releaseFile(fileLock);
+            }
+        }
+    }
+
+    /**
+     * Make the change sequence odd so readers retry until the batch is complete and return it. A sequence
+     * that is already odd was left by a writer that died and is reused. Only called with the exclusive lock.
+     */
+    private int beginWrite() {
+        int changeSequence = mBuffer.getInt(HEADER_CHANGE_SEQUENCE) | 1;
+        mBuffer.putInt(HEADER_CHANGE_SEQUENCE, changeSequence);
+        mBuffer.force();
+        return changeSequence;
+    }
+
+    private void endWrite(int changeSequence) {
+        //Slots must reach the shared pages before other processes see the sequence move.
+        mBuffer.force();
+        mBuffer.putInt(HEADER_CHANGE_SEQUENCE, changeSequence + 1);
+        mBuffer.force();
+    }
+
+    /**
+     * Close the file and release its locks. The store must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (mFileMonitor) {
+            mFile.close();
+        }
+    }
+
+    /**
+     * Lock the whole file, blocking until other processes release it. Without a lock the store still
+     * works within this process, so a failure is logged rather than thrown to the reader.
+     */
+    private FileLock lockFile(boolean shared) {
+        try {
+            return mFile.getChannel().lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException e) {
+            ConfigurationLog.w(TAG, "Unable to lock selection store", e);
+            return null;
+        }
+    }
+
+    private static void releaseFile(FileLock fileLock) {
+        if (fileLock != null) {
+            try {
+                fileLock.release();
+            } catch (IOException e) {
+                ConfigurationLog.w(TAG, "Unable to release selection store lock", e);
+            }
+        }
+    }
+
+    /**
+     * Return the slot holding the key hash, -(slot + 1) for the empty slot where it would be inserted
+     * or NO_SLOT when every slot is taken by other keys.
+     */
+    private int probe(long keyHash) {
+        int start = (int) ((keyHash ^ (keyHash >>> 32)) & Integer.MAX_VALUE) % mSlotCount;
+        for (int i = 0; i < mSlotCount; i++) {
+            int slot = (start + i) % mSlotCount;
+            int copyOffset = getCurrentCopyOffset(slot);
+            if (copyOffset < 0) {
+                return -(slot + 1);
+            }
+            if (mBuffer.getLong(copyOffset + COPY_KEY_HASH) == keyHash) {
+                return slot;
+            }
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * Return the offset of the valid copy with the highest sequence in the slot or -1 if it is empty.
+     */
+    private int getCurrentCopyOffset(int slot) {
+        int firstOffset = getSlotOffset(slot);
+        int secondOffset = firstOffset + COPY_SIZE;
+        long firstSequence = isValidCopy(firstOffset) ? mBuffer.getLong(firstOffset + COPY_SEQUENCE) : 0;
+        long secondSequence = isValidCopy(secondOffset) ? mBuffer.getLong(secondOffset + COPY_SEQUENCE) : 0;
+        if (firstSequence == 0 && secondSequence == 0) {
+            return -1;
+        }
+        return firstSequence >= secondSequence ? firstOffset : secondOffset;
+    }
+
+    private void writeSlot(int slot, long keyHash, long value) {
+        int currentOffset = getCurrentCopyOffset(slot);
+        int firstOffset = getSlotOffset(slot);
+        int targetOffset;
+        long sequence;
+        if (currentOffset < 0) {
+            targetOffset = firstOffset;
+            sequence = 1;
+        } else {
+            targetOffset = currentOffset == firstOffset ? firstOffset + COPY_SIZE : firstOffset;
+            sequence = mBuffer.getLong(currentOffset + COPY_SEQUENCE) + 1;
+        }
+
+        mBuffer.putLong(targetOffset + COPY_SEQUENCE, sequence);
+        mBuffer.putLong(targetOffset + COPY_KEY_HASH, keyHash);
+        mBuffer.putLong(targetOffset + COPY_VALUE, value);
+        mBuffer.putInt(targetOffset + COPY_CRC, computeCrc(targetOffset));
+    }
+
+    private boolean isValidCopy(int copyOffset) {
+        return mBuffer.getLong(copyOffset + COPY_SEQUENCE) != 0 && mBuffer.getInt(copyOffset + COPY_CRC) == computeCrc(copyOffset);
+    }
+
+    private int computeCrc(int copyOffset) {
+        for (int i = 0; i < COPY_CRC; i++) {
+            mCrcBytes[i] = mBuffer.get(copyOffset + i);
+        }
+        mCrc.reset();
+        mCrc.update(mCrcBytes, 0, COPY_CRC);
+        return (int) mCrc.getValue();
+    }
+
+    private static int getSlotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the setting key.
+     */
+    static long hashKey(String settingKey) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < settingKey.length(); i++) {
+            char character = settingKey.charAt(i);
+            hash ^= character & 0xff;
+            hash *= 0x100000001b3L;
+            hash ^= character >>> 8;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
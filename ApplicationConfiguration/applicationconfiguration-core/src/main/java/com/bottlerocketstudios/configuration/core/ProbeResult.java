@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time copy of the latency estimate a LatencySelectionPolicy holds for one configuration.
+ */
+public final class ProbeResult {
+    private final long mConfigId;
+    private final boolean mHealthy;
+    private final long mEstimateNanos;
+    private final long mLastNanos;
+    private final long mSampleCount;
+
+    ProbeResult(long configId, boolean healthy, long estimateNanos, long lastNanos, long sampleCount) {
+        mConfigId = configId;
+        mHealthy = healthy;
+        mEstimateNanos = estimateNanos;
+        mLastNanos = lastNanos;
+        mSampleCount = sampleCount;
+    }
+
+    public long getConfigId() {
+        return mConfigId;
+    }
+
+    /**
+     * True if the most recent probe completed with a 2xx response within the timeout.
+     */
+    public boolean isHealthy() {
+        return mHealthy;
+    }
+
+    /**
+     * Exponentially weighted moving average of successful probe latencies.
+     */
+    public long getEstimateNanos() {
+        return mEstimateNanos;
+    }
+
+    public long getLastNanos() {
+        return mLastNanos;
+    }
+
+    /**
+     * Number of successful probes that contributed to the estimate.
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    @Override
+    public String toString() {
+        return "configId=" + mConfigId + " healthy=" + mHealthy
+                + " estimateMs=" + TimeUnit.NANOSECONDS.toMillis(mEstimateNanos)
+                + " lastMs=" + TimeUnit.NANOSECONDS.toMillis(mLastNanos)
+                + " samples=" + mSampleCount;
+    }
+}
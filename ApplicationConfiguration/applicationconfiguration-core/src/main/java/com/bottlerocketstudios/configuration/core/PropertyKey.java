@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Interned, typed name of a configuration property. Each key type numbers its keys densely in the
+ * order they are first requested so ConfigurationProperties can store values in primitive arrays
+ * indexed by ordinal. Keys are process wide and should be held in static final fields.
+ */
+public abstract class PropertyKey<V> {
+    private final String mName;
+    private final int mOrdinal;
+
+    PropertyKey(String name, int ordinal) {
+        mName = name;
+        mOrdinal = ordinal;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Dense index of this key among keys of the same type.
+     */
+    public int ordinal() {
+        return mOrdinal;
+    }
+
+    public abstract ConfigurationDefinitions.ValueType getValueType();
+
+    /**
+     * Return the interned key of the supplied type with this name.
+     */
+    public static PropertyKey<?> of(String name, ConfigurationDefinitions.ValueType valueType) {
+        switch (valueType) {
+            case INT:
+                return IntKey.of(name);
+            case LONG:
+                return LongKey.of(name);
+            case BOOLEAN:
+                return BooleanKey.of(name);
+            default:
+                return StringKey.of(name);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName + ":" + getValueType().name().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Interns keys of one type by name.
+     */
+    abstract static class Pool<K extends PropertyKey<?>> {
+        private final Map<String, K> mKeys = new HashMap<>();
+
+        synchronized K intern(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("Property key name cannot be null");
+            }
+            K key = mKeys.get(name);
+            if (key == null) {
+                key = create(name, mKeys.size());
+                mKeys.put(name, key);
+            }
+            return key;
+        }
+
+        abstract K create(String name, int ordinal);
+    }
+}
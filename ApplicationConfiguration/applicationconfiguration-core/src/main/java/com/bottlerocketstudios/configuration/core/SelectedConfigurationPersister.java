@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores selected configuration ids. In synchronous mode each change is committed on the calling thread.
+ * In asynchronous mode changes from every controller sharing this persister are coalesced into a single
+ * background commit. flush() blocks until all pending changes are durable.
+ *
+ * Reads see pending selections and selections that are being written. A batch the store fails to write
+ * stays pending, so this process keeps seeing it, and is retried with the next write or flush().
+ */
+final class SelectedConfigurationPersister {
+    private static final String TAG = SelectedConfigurationPersister.class.getSimpleName();
+
+    private final SelectionStore mSelectionStore;
+    private final Object mPendingLock = new Object();
+    private final Object mWriteLock = new Object();
+    private Map<String, Long> mPending = new LinkedHashMap<>();
+    private Map<String, Long> mWriting = Collections.emptyMap();
+    private boolean mWriteScheduled;
+    private volatile boolean mAsynchronous;
+    private ExecutorService mWriteExecutor;
+
+    SelectedConfigurationPersister(SelectionStore selectionStore) {
+        mSelectionStore = selectionStore;
+    }
+
+    void setAsynchronous(boolean asynchronous) {
+        mAsynchronous = asynchronous;
+        if (!asynchronous) {
+            flush();
+        }
+    }
+
+    boolean isAsynchronous() {
+        return mAsynchronous;
+    }
+
+    SelectionStore getSelectionStore() {
+        return mSelectionStore;
+    }
+
+    /**
+     * Read the selection for the setting key, including changes that have not been written yet.
+     */
+    long getSelectedConfigId(String settingKey, long defaultConfigId) {
+        synchronized (mPendingLock) {
+            Long pending = mPending.get(settingKey);
+            if (pending == null) {
+                pending = mWriting.get(settingKey);
+            }
+            if (pending != null) {
+                return pending;
+            }
+        }
+        return mSelectionStore.getSelectedConfigId(settingKey, defaultConfigId);
+    }
+
+    /**
+     * Store the selected id for the setting key, on this thread or in the next background batch.
+     */
+    void persist(String settingKey, long selectedConfigId) {
+        Map<String, Long> selections = new LinkedHashMap<>(1);
+        selections.put(settingKey, selectedConfigId);
+        persist(selections);
+    }
+
+    /**
+     * Store several selections in one write.
+     */
+    void persist(Map<String, Long> selections) {
+        boolean schedule = false;
+        synchronized (mPendingLock) {
+            mPending.putAll(selections);
+            if (mAsynchronous && !mWriteScheduled) {
+                mWriteScheduled = true;
+                schedule = true;
+            }
+        }
+
+        if (!mAsynchronous) {
+            writePending();
+        } else if (schedule) {
+            getWriteExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    writePending();
+                }
+            });
+        }
+    }
+
+    /**
+     * Block until every pending selection has been committed to storage. Returns false if the store
+     * failed to write them, they remain pending and are retried by the next write.
+     */
+    boolean flush() {
+        return writePending();
+    }
+
+    private boolean writePending() {
+        synchronized (mWriteLock) {
+            Map<String, Long> batch;
+            synchronized (mPendingLock) {
+                batch = mPending;
+                mPending = new LinkedHashMap<>();
+                mWriting = batch;
+                mWriteScheduled = false;
+            }
+            if (batch.isEmpty()) {
+                return true;
+            }
+
+            boolean stored = mSelectionStore.putSelectedConfigIds(batch);
+            synchronized (mPendingLock) {
+                if (!stored) {
+                    //Selections made during the write are newer than the failed batch.
+                    batch.putAll(mPending);
+                    mPending = batch;
+                }
+                mWriting = Collections.emptyMap();
+            }
+            if (!stored) {
+                ConfigurationLog.e(TAG, "Failed to store selected configuration ids " + batch.keySet() + ", will retry with the next write");
+            }
+            return stored;
+        }
+    }
+
+    private synchronized ExecutorService getWriteExecutor() {
+        if (mWriteExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            mWriteExecutor = executor;
+        }
+        return mWriteExecutor;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import java.util.Map;
+
+/**
+ * Storage for the configuration id selected by each controller, keyed by the controller's setting key.
+ */
+public interface SelectionStore {
+    /**
+     * Return the stored id for the setting key or defaultConfigId if nothing has been stored.
+     */
+    public long getSelectedConfigId(String settingKey, long defaultConfigId);
+
+    /**
+     * Store every selection in one write. The selections must be durable when this returns true.
+     */
+    public boolean putSelectedConfigIds(Map<String, Long> selections);
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * SelectionStore whose contents are shared with other processes. Every write from any process changes
+ * the change sequence, so a reader can detect a selection made elsewhere with one memory read.
+ */
+public interface SharedSelectionStore extends SelectionStore {
+    /**
+     * Return a value that changes whenever any process stores a selection. Only inequality is meaningful.
+     */
+    public int getChangeSequence();
+}
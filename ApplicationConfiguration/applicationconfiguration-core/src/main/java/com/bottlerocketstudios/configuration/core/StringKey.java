@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+/**
+ * Key of a string configuration property.
+ */
+public final class StringKey extends PropertyKey<String> {
+    private static final Pool<StringKey> POOL = new Pool<StringKey>() {
+        @Override
+        StringKey create(String name, int ordinal) {
+            return new StringKey(name, ordinal);
+        }
+    };
+
+    private StringKey(String name, int ordinal) {
+        super(name, ordinal);
+    }
+
+    /**
+     * Return the key with this name, creating it on first use.
+     */
+    public static StringKey of(String name) {
+        return POOL.intern(name);
+    }
+
+    @Override
+    public ConfigurationDefinitions.ValueType getValueType() {
+        return ConfigurationDefinitions.ValueType.STRING;
+    }
+}
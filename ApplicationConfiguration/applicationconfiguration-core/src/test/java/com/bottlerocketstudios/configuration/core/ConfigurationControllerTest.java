@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exercises the core controller and service locator on the JVM without any platform classes.
+ */
+public class ConfigurationControllerTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final long STAGING_ID = 2;
+
+    private ConfigurationServiceLocator<Void> mLocator;
+    private InMemorySelectionStore mSelectionStore;
+
+    @Before
+    public void setUp() {
+        mSelectionStore = new InMemorySelectionStore();
+        mLocator = newLocator(mSelectionStore);
+    }
+
+    @Test
+    public void testDefaultSelection() {
+        TestController controller = mLocator.registerController(TestController.KEY, new TestController());
+        assertEquals(STAGING_ID, controller.getCurrentApplicationConfiguration().getId());
+        assertEquals(PRODUCTION_ID, controller.getProductionConfigId());
+        assertSame(controller, mLocator.getController(TestController.KEY));
+    }
+
+    @Test
+    public void testLiveSwitchNotifiesAndPersists() {
+        TestController controller = mLocator.registerController(TestController.KEY, new TestController());
+        controller.setLiveSwapEnabled(true);
+        final AtomicReference<TestConfiguration> notified = new AtomicReference<>();
+        controller.addListener(new ConfigurationListener<Void, TestConfiguration>() {
+            @Override
+            public void onStagingSwitch(Void context, TestConfiguration configuration) {
+                notified.set(configuration);
+            }
+        });
+
+        long generation = controller.getCurrentGeneration().getGeneration();
+        controller.setSelectedConfigId(PRODUCTION_ID);
+        mLocator.flushSelectedConfigurations();
+
+        assertEquals(PRODUCTION_ID, mLocator.getConfiguration(TestController.KEY).getId());
+        assertEquals(PRODUCTION_ID, notified.get().getId());
+        assertEquals(generation + 1, controller.getCurrentGeneration().getGeneration());
+        assertEquals(PRODUCTION_ID, mSelectionStore.getSelectedConfigId(controller.getSettingKey(), -1));
+    }
+
+    @Test
+    public void testSelectionStoredUnderLegacyKeyIsRead() throws IOException {
+        String legacyKey = "com.bottlerocketstudios.configuration.ApplicationConfigurationController.TestController.selectedConfigId";
+        InMemorySelectionStore preferencesStore = new InMemorySelectionStore();
+        preferencesStore.putSelectedConfigIds(Collections.singletonMap(legacyKey, PRODUCTION_ID));
+        File file = File.createTempFile("selections", ".bin");
+        try {
+            ConfigurationServiceLocator<Void> locator = newLocator(MappedSelectionStore.open(file, MappedSelectionStore.DEFAULT_SLOT_COUNT, preferencesStore));
+            TestController controller = locator.registerController(TestController.KEY, new TestController());
+
+            assertEquals(legacyKey, controller.getSettingKey());
+            assertEquals(PRODUCTION_ID, controller.getCurrentApplicationConfiguration().getId());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testKeysSharedBetweenLocators() {
+        ControllerKey<TestConfiguration, LazyTestController> lazyKey = new ControllerKey<>("LazyTestController");
+        ConfigurationServiceLocator<Void> otherLocator = new ConfigurationServiceLocator<>();
+        otherLocator.initialize(null, true, true);
+
+        TestController controller = mLocator.registerController(TestController.KEY, new TestController());
+        LazyTestController lazyController = mLocator.registerController(lazyKey, new LazyTestController());
+        LazyTestController otherLazyController = otherLocator.registerController(lazyKey, new LazyTestController());
+        TestController otherController = otherLocator.registerController(TestController.KEY, new TestController());
+
+        for (int i = 0; i < 2; i++) {
+            assertSame(controller, mLocator.getController(TestController.KEY));
+            assertSame(otherController, otherLocator.getController(TestController.KEY));
+            assertSame(lazyController, mLocator.getController(lazyKey));
+            assertSame(otherLazyController, otherLocator.getController(lazyKey));
+        }
+
+        ConfigurationServiceLocator<Void> emptyLocator = new ConfigurationServiceLocator<>();
+        emptyLocator.initialize(null, true, true);
+        emptyLocator.registerController("other", new TestController());
+        assertNull(emptyLocator.getController(lazyKey));
+        assertSame(lazyController, mLocator.getController(lazyKey));
+    }
+
+    @Test
+    public void testNameSetInInitIsDescribed() {
+        InitNamedController controller = mLocator.registerController("InitNamedController", new InitNamedController());
+        List<ConfigurationDescriptor> descriptors = controller.getConfigurationDescriptors();
+        assertEquals("Production", descriptors.get(0).getName());
+        assertEquals("Staging", descriptors.get(1).getName());
+        assertTrue(mLocator.dumpState().contains("configuration 1 Production [production]"));
+    }
+
+    @Test
+    public void testStagingNotAllowedUsesProduction() {
+        ConfigurationServiceLocator<Void> locator = new ConfigurationServiceLocator<>();
+        locator.initialize(null, false, false);
+        TestController controller = locator.registerController(TestController.KEY, new TestController());
+        assertEquals(PRODUCTION_ID, controller.getCurrentApplicationConfiguration().getId());
+        controller.setSelectedConfigId(STAGING_ID);
+        assertEquals(PRODUCTION_ID, controller.getCurrentApplicationConfiguration().getId());
+        assertNull(locator.getController(new ControllerKey<TestConfiguration, TestController>("missing")));
+    }
+
+    @Test
+    public void testLazyConfigurationsMaterializeOnDemand() {
+        LazyTestController controller = mLocator.registerController("LazyTestController", new LazyTestController());
+        controller.setLiveSwapEnabled(true);
+        assertEquals(STAGING_ID, controller.getCurrentApplicationConfiguration().getId());
+        assertEquals(1, controller.mCreated.get());
+        assertEquals(2, controller.getConfigurationDescriptors().size());
+        assertEquals(1, controller.mCreated.get());
+
+        assertEquals(2, controller.getApplicationConfigurations().size());
+        assertEquals(2, controller.mCreated.get());
+        assertEquals(1, mLocator.releaseInactiveConfigurations());
+        assertEquals(0, controller.releaseInactiveConfigurations());
+
+        controller.setSelectedConfigId(PRODUCTION_ID);
+        assertEquals(PRODUCTION_ID, controller.getCurrentApplicationConfiguration().getId());
+        assertEquals(3, controller.mCreated.get());
+    }
+
+    /**
+     * Return an initialized locator that allows staging and stores selections in memory.
+     */
+    static ConfigurationServiceLocator<Void> newLocator() {
+        return newLocator(new InMemorySelectionStore());
+    }
+
+    static ConfigurationServiceLocator<Void> newLocator(SelectionStore selectionStore) {
+        ConfigurationServiceLocator<Void> locator = new ConfigurationServiceLocator<>();
+        locator.setSelectionStore(selectionStore);
+        locator.initialize(null, true, true);
+        return locator;
+    }
+
+    /**
+     * Register a TestController that switches without exiting.
+     */
+    static TestController registerLiveSwapController(ConfigurationServiceLocator<Void> locator) {
+        TestController controller = locator.registerController(TestController.KEY, new TestController());
+        controller.setLiveSwapEnabled(true);
+        return controller;
+    }
+
+    static class TestConfiguration implements Configuration<Void> {
+        private final long mId;
+        private final boolean mProduction;
+
+        TestConfiguration(long id, boolean production) {
+            mId = id;
+            mProduction = production;
+        }
+
+        @Override
+        public long getId() {
+            return mId;
+        }
+
+        @Override
+        public String getName() {
+            return mProduction ? "Production" : "Staging";
+        }
+
+        @Override
+        public void init(Void context) {}
+
+        @Override
+        public boolean isProduction() {
+            return mProduction;
+        }
+    }
+
+    static class TestController extends ConfigurationController<Void, TestConfiguration> {
+        static final ControllerKey<TestConfiguration, TestController> KEY = new ControllerKey<>("TestController");
+
+        @Override
+        protected long getDefaultAppConfigId() {
+            return isStagingAllowed() ? STAGING_ID : PRODUCTION_ID;
+        }
+
+        @Override
+        protected void addAllApplicationConfigurations() {
+            putApplicationConfiguration(new TestConfiguration(PRODUCTION_ID, true));
+            putApplicationConfiguration(new TestConfiguration(STAGING_ID, false));
+        }
+
+        @Override
+        protected boolean shouldExitOnChange() {
+            return true;
+        }
+    }
+
+    /**
+     * Sets its name in init() like the configurations in the README.
+     */
+    private static class InitNamedConfiguration implements Configuration<Void> {
+        private final long mId;
+        private String mName;
+
+        InitNamedConfiguration(long id) {
+            mId = id;
+        }
+
+        @Override
+        public long getId() {
+            return mId;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public void init(Void context) {
+            mName = isProduction() ? "Production" : "Staging";
+        }
+
+        @Override
+        public boolean isProduction() {
+            return mId == PRODUCTION_ID;
+        }
+    }
+
+    private static class InitNamedController extends ConfigurationController<Void, InitNamedConfiguration> {
+        @Override
+        protected long getDefaultAppConfigId() {
+            return STAGING_ID;
+        }
+
+        @Override
+        protected void addAllApplicationConfigurations() {
+            putApplicationConfiguration(new InitNamedConfiguration(PRODUCTION_ID));
+            putApplicationConfiguration(new InitNamedConfiguration(STAGING_ID));
+        }
+
+        @Override
+        protected boolean shouldExitOnChange() {
+            return false;
+        }
+    }
+
+    static class LazyTestController extends ConfigurationController<Void, TestConfiguration> {
+        final AtomicInteger mCreated = new AtomicInteger();
+
+        @Override
+        protected long getDefaultAppConfigId() {
+            return STAGING_ID;
+        }
+
+        @Override
+        protected void addAllApplicationConfigurations() {
+            ConfigurationFactory<TestConfiguration> factory = new ConfigurationFactory<TestConfiguration>() {
+                @Override
+                public TestConfiguration create(ConfigurationDescriptor descriptor) {
+                    mCreated.incrementAndGet();
+                    return new TestConfiguration(descriptor.getId(), descriptor.isProduction());
+                }
+            };
+            putApplicationConfiguration(new ConfigurationDescriptor(PRODUCTION_ID, "Production", true), factory);
+            putApplicationConfiguration(new ConfigurationDescriptor(STAGING_ID, "Staging", false), factory);
+        }
+
+        @Override
+        protected boolean shouldExitOnChange() {
+            return true;
+        }
+    }
+
+    /**
+     * Swallows log output from tests that expect warnings, e.g. from failing listeners.
+     */
+    static class QuietLogger implements ConfigurationLogger {
+        @Override
+        public void i(String tag, String message) {}
+
+        @Override
+        public void w(String tag, String message, Throwable throwable) {}
+
+        @Override
+        public void e(String tag, String message, Throwable throwable) {}
+    }
+}
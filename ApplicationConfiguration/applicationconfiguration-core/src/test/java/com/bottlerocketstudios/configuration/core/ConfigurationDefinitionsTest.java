@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationDefinitionsTest {
+    private static final String DEFINITIONS = "# Servers\n"
+            + "[schema]\n"
+            + "apiUrl=string\n"
+            + "timeoutMs=int\n"
+            + "verbose=boolean\n"
+            + "\n"
+            + "[configuration 1]\n"
+            + "name=Production\n"
+            + "production=true\n"
+            + "apiUrl=https://api.example.com/?a=b\n"
+            + "timeoutMs=10000\n"
+            + "verbose=false\n"
+            + "\n"
+            + "[configuration 2]\n"
+            + "name=Staging\n"
+            + "apiUrl=https://staging.example.com\n"
+            + "timeoutMs=30000\n"
+            + "verbose=true\n";
+
+    @Test
+    public void testParse() throws IOException {
+        ConfigurationDefinitions definitions = ConfigurationDefinitions.parse(new StringReader(DEFINITIONS));
+        assertEquals(2, definitions.getDefinitions().size());
+        assertEquals(ConfigurationDefinitions.ValueType.INT, definitions.getSchema().get("timeoutMs"));
+
+        ConfigurationDefinition production = definitions.get(1);
+        assertTrue(production.isProduction());
+        assertEquals("https://api.example.com/?a=b", production.getString("apiUrl"));
+        assertEquals(10000, production.getInt("timeoutMs"));
+        assertFalse(production.getBoolean("verbose"));
+        assertFalse(definitions.get(2).isProduction());
+        assertNull(definitions.get(3));
+    }
+
+    @Test
+    public void testSchemaIsValidated() {
+        assertInvalid(DEFINITIONS.replace("timeoutMs=30000\n", ""));
+        assertInvalid(DEFINITIONS.replace("timeoutMs=30000", "timeoutMs=slow"));
+        assertInvalid(DEFINITIONS + "extra=1\n");
+        assertInvalid(DEFINITIONS.replace("[configuration 2]", "[configuration 1]"));
+        assertInvalid(DEFINITIONS.replace("production=true\n", ""));
+        assertInvalid(DEFINITIONS.replace("name=Staging\n", ""));
+        assertInvalid(DEFINITIONS.replace("[schema]", "[other]"));
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        ConfigurationDefinitions definitions = ConfigurationDefinitions.parse(new StringReader(DEFINITIONS));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        definitions.writeSnapshot(outputStream, 7, 100);
+        byte[] snapshot = outputStream.toByteArray();
+
+        ConfigurationDefinitions restored = ConfigurationDefinitions.readSnapshot(new ByteArrayInputStream(snapshot), 7, 100);
+        assertEquals(30000, restored.get(2).getInt("timeoutMs"));
+        assertEquals(definitions.getSchema(), restored.getSchema());
+        assertNull(ConfigurationDefinitions.readSnapshot(new ByteArrayInputStream(snapshot), 8, 100));
+
+        snapshot[snapshot.length - 10] ^= 1;
+        try {
+            ConfigurationDefinitions.readSnapshot(new ByteArrayInputStream(snapshot), 7, 100);
+            fail("Corrupt snapshot was accepted");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testLoadParsesOncePerVersion() throws IOException {
+        File snapshotFile = File.createTempFile("definitions", ".snapshot");
+        assertTrue(snapshotFile.delete());
+        final AtomicInteger parseCount = new AtomicInteger();
+        ConfigurationDefinitions.Source source = new ConfigurationDefinitions.Source() {
+            @Override
+            public Reader open() throws IOException {
+                parseCount.incrementAndGet();
+                return new StringReader(DEFINITIONS);
+            }
+        };
+
+        try {
+            ConfigurationDefinitions.load(source, snapshotFile, 1, 0);
+            assertEquals("Staging", ConfigurationDefinitions.load(source, snapshotFile, 1, 0).get(2).getName());
+            assertEquals(1, parseCount.get());
+            ConfigurationDefinitions.load(source, snapshotFile, 2, 0);
+            assertEquals(2, parseCount.get());
+        } finally {
+            snapshotFile.delete();
+        }
+    }
+
+    private static void assertInvalid(String definitions) {
+        try {
+            ConfigurationDefinitions.parse(new StringReader(definitions));
+            fail("Invalid definitions were accepted");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationInitializerTest {
+    private static final ControllerKey<TestConfiguration, InitController> FIRST = new ControllerKey<>("first");
+    private static final ControllerKey<TestConfiguration, InitController> SECOND = new ControllerKey<>("second");
+    private static final ControllerKey<TestConfiguration, InitController> THIRD = new ControllerKey<>("third");
+
+    private ConfigurationServiceLocator<Void> mLocator;
+    private ExecutorService mExecutor;
+    private final List<String> mInitialized = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        mLocator = newLocator();
+        mExecutor = ConfigurationInitializer.newBoundedExecutor(3);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testDependenciesInitializeFirst() throws InterruptedException {
+        ConfigurationInitializer<Void> initializer = new ConfigurationInitializer<>(mLocator, mExecutor);
+        initializer.add(THIRD, new InitController("third", false), SECOND)
+                .add(SECOND, new InitController("second", false), FIRST)
+                .add(FIRST, new InitController("first", false));
+        initializer.start();
+        initializer.await();
+
+        assertTrue(initializer.isComplete());
+        assertEquals(3, mInitialized.size());
+        assertTrue(mInitialized.indexOf("first") < mInitialized.indexOf("second"));
+        assertTrue(mInitialized.indexOf("second") < mInitialized.indexOf("third"));
+        assertEquals(2, mLocator.getConfiguration(THIRD).getId());
+    }
+
+    @Test
+    public void testCycleIsRejected() {
+        ConfigurationInitializer<Void> initializer = new ConfigurationInitializer<>(mLocator, mExecutor);
+        initializer.add(FIRST, new InitController("first", false), SECOND)
+                .add(SECOND, new InitController("second", false), FIRST);
+        try {
+            initializer.start();
+            fail("Cycle was accepted");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("cycle"));
+        }
+        assertFalse(mLocator.isControllerRegistered("first"));
+    }
+
+    @Test
+    public void testUnknownDependencyIsRejected() {
+        ConfigurationInitializer<Void> initializer = new ConfigurationInitializer<>(mLocator, mExecutor);
+        initializer.add(SECOND, new InitController("second", false), FIRST);
+        try {
+            initializer.start();
+            fail("Unknown dependency was accepted");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("first"));
+        }
+
+        mLocator.registerController(FIRST, new InitController("first", false));
+        initializer = new ConfigurationInitializer<>(mLocator, mExecutor);
+        initializer.add(SECOND, new InitController("second", false), FIRST);
+        initializer.start();
+        assertEquals(2, mLocator.getConfiguration(SECOND).getId());
+    }
+
+    @Test
+    public void testFailedInitPropagatesToDependents() throws InterruptedException {
+        ConfigurationInitializer<Void> initializer = new ConfigurationInitializer<>(mLocator, mExecutor);
+        initializer.add(FIRST, new InitController("first", true))
+                .add(SECOND, new InitController("second", false), FIRST)
+                .add(THIRD, new InitController("third", false));
+        initializer.start();
+        try {
+            initializer.await();
+            fail("Failure was not reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause().getMessage().contains("first"));
+        }
+
+        assertFalse(mInitialized.contains("second"));
+        assertEquals(2, mLocator.getConfiguration(THIRD).getId());
+        assertReadFails(FIRST);
+        assertReadFails(SECOND);
+    }
+
+    @Test
+    public void testReadersWaitForInitialization() throws InterruptedException {
+        QueuedExecutor executor = new QueuedExecutor();
+        ConfigurationInitializer<Void> initializer = new ConfigurationInitializer<>(mLocator, executor);
+        initializer.add(FIRST, new InitController("first", false));
+        initializer.start();
+        assertFalse(initializer.await(10, TimeUnit.MILLISECONDS));
+
+        final AtomicReference<TestConfiguration> read = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read.set(mLocator.getConfiguration(FIRST));
+            }
+        });
+        reader.start();
+        reader.join(50);
+        assertTrue(reader.isAlive());
+
+        executor.runAll();
+        reader.join(5000);
+        assertEquals(2, read.get().getId());
+        assertTrue(initializer.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCallerRunsConfigurationInitsTheExecutorHasNotStarted() throws InterruptedException {
+        QueuedExecutor executor = new QueuedExecutor();
+        ConfigurationInitializer<Void> initializer = new ConfigurationInitializer<>(mLocator, executor);
+        InitController controller = new InitController("first", false);
+        initializer.add(FIRST, controller);
+        initializer.start();
+
+        //Run only the controller task. Its configuration inits are queued behind it and never started.
+        executor.runNext();
+        assertTrue(initializer.isComplete());
+        assertEquals(Collections.nCopies(3, Thread.currentThread()), controller.mInitThreads);
+        executor.runAll();
+        assertEquals(3, controller.mInitThreads.size());
+    }
+
+    private void assertReadFails(ControllerKey<TestConfiguration, InitController> key) {
+        try {
+            mLocator.getConfiguration(key);
+            fail("Read of " + key + " did not fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() != null);
+        }
+    }
+
+    private static class QueuedExecutor implements Executor {
+        private final List<Runnable> mQueue = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            mQueue.add(command);
+        }
+
+        synchronized Runnable poll() {
+            return mQueue.isEmpty() ? null : mQueue.remove(0);
+        }
+
+        void runNext() {
+            poll().run();
+        }
+
+        void runAll() {
+            Runnable command;
+            while ((command = poll()) != null) {
+                command.run();
+            }
+        }
+    }
+
+    private class InitController extends ConfigurationController<Void, TestConfiguration> {
+        final List<Thread> mInitThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        private final String mName;
+        private final boolean mFail;
+
+        InitController(String name, boolean fail) {
+            mName = name;
+            mFail = fail;
+        }
+
+        @Override
+        protected long getDefaultAppConfigId() {
+            return 2;
+        }
+
+        @Override
+        protected void addAllApplicationConfigurations() {
+            mInitialized.add(mName);
+            for (long configId = 1; configId <= 3; configId++) {
+                putApplicationConfiguration(new TestConfiguration(configId, configId == 1) {
+                    @Override
+                    public void init(Void context) {
+                        mInitThreads.add(Thread.currentThread());
+                        if (mFail) {
+                            throw new IllegalStateException("Init of " + mName + " failed");
+                        }
+                    }
+                });
+            }
+        }
+
+        @Override
+        protected boolean shouldExitOnChange() {
+            return false;
+        }
+    }
+}
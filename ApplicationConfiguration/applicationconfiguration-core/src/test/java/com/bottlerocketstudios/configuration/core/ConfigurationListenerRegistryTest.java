@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConfigurationListenerRegistryTest {
+    private static final TestConfiguration CONFIGURATION = new TestConfiguration(1, true);
+
+    @Test
+    public void testListenersRunInPriorityOrder() {
+        ConfigurationListenerRegistry<Void, TestConfiguration> registry = new ConfigurationListenerRegistry<>();
+        List<String> order = new ArrayList<>();
+        registry.add(new OrderListener(order, "low"), 0, false);
+        registry.add(new OrderListener(order, "high"), 10, false);
+        OrderListener weakListener = new OrderListener(order, "middle");
+        registry.add(weakListener, 5, true);
+
+        registry.dispatch(null, CONFIGURATION);
+        assertEquals(3, order.size());
+        assertEquals("high", order.get(0));
+        assertEquals("middle", order.get(1));
+        assertEquals("low", order.get(2));
+        assertEquals(3, registry.getTimings().size());
+        registry.remove(weakListener);
+    }
+
+    @Test
+    public void testReaddingKeepsTimings() {
+        ConfigurationListenerRegistry<Void, TestConfiguration> registry = new ConfigurationListenerRegistry<>();
+        OrderListener listener = new OrderListener(new ArrayList<String>(), "listener");
+        registry.add(listener, 0, false);
+        registry.dispatch(null, CONFIGURATION);
+        registry.dispatch(null, CONFIGURATION);
+
+        registry.add(listener, 10, true);
+        registry.dispatch(null, CONFIGURATION);
+        assertEquals(1, registry.size());
+        ListenerTiming timing = registry.getTimings().get(0);
+        assertEquals(3, timing.getInvocationCount());
+        assertEquals(10, timing.getPriority());
+
+        registry.remove(listener);
+        registry.add(listener, 0, false);
+        assertEquals(0, registry.getTimings().get(0).getInvocationCount());
+    }
+
+    private static class OrderListener implements ConfigurationListener<Void, TestConfiguration> {
+        private final List<String> mOrder;
+        private final String mName;
+
+        OrderListener(List<String> order, String name) {
+            mOrder = order;
+            mName = name;
+        }
+
+        @Override
+        public void onStagingSwitch(Void context, TestConfiguration applicationConfiguration) {
+            mOrder.add(mName);
+        }
+    }
+}
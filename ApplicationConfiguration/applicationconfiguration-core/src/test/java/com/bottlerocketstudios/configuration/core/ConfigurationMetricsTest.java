@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.LazyTestController;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestController;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigurationMetricsTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final ControllerKey<TestConfiguration, LazyTestController> LAZY_KEY = new ControllerKey<>("LazyTestController");
+
+    private ConfigurationServiceLocator<Void> mLocator;
+    private RecordingMetricsListener mMetricsListener;
+
+    @Before
+    public void setUp() {
+        mLocator = newLocator();
+        mMetricsListener = new RecordingMetricsListener();
+    }
+
+    @Test
+    public void testInitializationTimingsReported() {
+        mLocator.setMetricsListener(mMetricsListener);
+        mLocator.registerController(TestController.KEY, new TestController());
+
+        List<String> events = mMetricsListener.getEvents();
+        assertEquals(5, events.size());
+        assertTrue(events.contains("configuration TestController 1"));
+        assertTrue(events.contains("configuration TestController 2"));
+        assertEquals("validated TestController", events.get(2));
+        assertEquals("selectionLoaded TestController", events.get(3));
+        assertEquals("controller TestController", events.get(4));
+        assertEquals(0, mMetricsListener.getNegativeTimings());
+    }
+
+    @Test
+    public void testLookupsOnlyCountedWithListener() {
+        TestController controller = mLocator.registerController(TestController.KEY, new TestController());
+        controller.getCurrentApplicationConfiguration();
+        assertTrue(mLocator.dumpState().contains("lookups=disabled"));
+
+        mLocator.setMetricsListener(mMetricsListener);
+        controller.getCurrentApplicationConfiguration();
+        controller.getCurrentGeneration();
+        controller.getCurrentApplicationConfiguration();
+        assertTrue(mLocator.dumpState().contains("lookups=3"));
+
+        mLocator.setMetricsListener(null);
+        controller.getCurrentApplicationConfiguration();
+        assertTrue(mLocator.dumpState().contains("lookups=disabled"));
+    }
+
+    @Test
+    public void testSwitchReportsNotificationAndCount() {
+        TestController controller = mLocator.registerController(TestController.KEY, new TestController());
+        controller.setLiveSwapEnabled(true);
+        controller.addListener(new ConfigurationListener<Void, TestConfiguration>() {
+            @Override
+            public void onStagingSwitch(Void context, TestConfiguration applicationConfiguration) {}
+        });
+        mLocator.setMetricsListener(mMetricsListener);
+
+        controller.setSelectedConfigId(PRODUCTION_ID);
+        //Selecting the current configuration again is not a switch.
+        controller.setSelectedConfigId(PRODUCTION_ID);
+
+        assertEquals(1, mMetricsListener.getEvents().size());
+        assertEquals("notified TestController 1", mMetricsListener.getEvents().get(0));
+        String state = mLocator.dumpState();
+        assertTrue(state.contains("switches=1"));
+        assertTrue(state.contains("listeners=1"));
+        assertTrue(state.contains("invocations=1"));
+    }
+
+    @Test
+    public void testDumpStateDescribesControllers() {
+        mLocator.registerController(TestController.KEY, new TestController());
+        mLocator.registerController(LAZY_KEY, new LazyTestController());
+        mLocator.registerProfile(new ConfigurationProfile("production").select(TestController.KEY, PRODUCTION_ID));
+
+        String state = mLocator.dumpState();
+        assertTrue(state.startsWith("Configuration stagingAllowed=true debugBuild=true asyncPersistence=false profiles=[production]\n"));
+        assertTrue(state.contains("TestController\n  selected=2 (Staging) generation="));
+        assertTrue(state.contains("  configuration 1 Production [production] init="));
+        assertTrue(state.contains("  configuration 2 Staging init="));
+        assertTrue(state.contains("LazyTestController\n  selected=2 (Staging)"));
+        assertTrue(state.contains("  configuration 1 Production [production] [not loaded]\n"));
+        assertTrue(state.contains("  configuration 2 Staging [loaded] init="));
+        assertTrue(state.contains("  initialize="));
+    }
+
+    private static class RecordingMetricsListener implements ConfigurationMetricsListener {
+        private final List<String> mEvents = new ArrayList<>();
+        private int mNegativeTimings;
+
+        synchronized int getNegativeTimings() {
+            return mNegativeTimings;
+        }
+
+        synchronized List<String> getEvents() {
+            return new ArrayList<>(mEvents);
+        }
+
+        private synchronized void record(String event, long elapsedNanos) {
+            mEvents.add(event);
+            if (elapsedNanos < 0) {
+                mNegativeTimings++;
+            }
+        }
+
+        @Override
+        public void onControllerInitialized(String controllerId, long elapsedNanos) {
+            record("controller " + controllerId, elapsedNanos);
+        }
+
+        @Override
+        public void onConfigurationInitialized(String controllerId, long applicationConfigId, long elapsedNanos) {
+            record("configuration " + controllerId + " " + applicationConfigId, elapsedNanos);
+        }
+
+        @Override
+        public void onConfigurationsValidated(String controllerId, long elapsedNanos) {
+            record("validated " + controllerId, elapsedNanos);
+        }
+
+        @Override
+        public void onSelectionLoaded(String controllerId, long elapsedNanos) {
+            record("selectionLoaded " + controllerId, elapsedNanos);
+        }
+
+        @Override
+        public void onListenersNotified(String controllerId, int listenerCount, long elapsedNanos) {
+            record("notified " + controllerId + " " + listenerCount, elapsedNanos);
+        }
+    }
+}
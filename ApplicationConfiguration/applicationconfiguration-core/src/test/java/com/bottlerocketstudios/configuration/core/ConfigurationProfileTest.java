@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.LazyTestController;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestController;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.registerLiveSwapController;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationProfileTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final long STAGING_ID = 2;
+    private static final ControllerKey<TestConfiguration, LazyTestController> LAZY_KEY = new ControllerKey<>("LazyTestController");
+    private static final ControllerKey<TestConfiguration, FailingController> FAILING_KEY = new ControllerKey<>("FailingController");
+
+    private ConfigurationServiceLocator<Void> mLocator;
+    private InMemorySelectionStore mSelectionStore;
+    private TestController mController;
+    private final AtomicInteger mNotifications = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        mSelectionStore = new InMemorySelectionStore();
+        mLocator = newLocator(mSelectionStore);
+        mController = registerLiveSwapController(mLocator);
+        mController.addListener(new ConfigurationListener<Void, TestConfiguration>() {
+            @Override
+            public void onStagingSwitch(Void context, TestConfiguration applicationConfiguration) {
+                mNotifications.incrementAndGet();
+            }
+        });
+    }
+
+    @Test
+    public void testProfileSwitchesEveryController() {
+        LazyTestController lazyController = mLocator.registerController(LAZY_KEY, new LazyTestController());
+        lazyController.setLiveSwapEnabled(true);
+        long generation = mLocator.getGeneration();
+        mLocator.registerProfile(new ConfigurationProfile("production")
+                .select(TestController.KEY, PRODUCTION_ID)
+                .select(LAZY_KEY, PRODUCTION_ID));
+
+        mLocator.switchToProfile("production");
+
+        assertEquals(PRODUCTION_ID, mController.getCurrentApplicationConfiguration().getId());
+        assertEquals(PRODUCTION_ID, lazyController.getCurrentApplicationConfiguration().getId());
+        assertEquals(PRODUCTION_ID, mSelectionStore.getSelectedConfigId(mController.getSettingKey(), -1));
+        assertEquals(PRODUCTION_ID, mSelectionStore.getSelectedConfigId(lazyController.getSettingKey(), -1));
+        assertEquals(1, mNotifications.get());
+        assertEquals(generation + 2, mLocator.getGeneration());
+
+        //Applying it again changes nothing.
+        mLocator.switchToProfile("production");
+        assertEquals(1, mNotifications.get());
+        assertEquals(generation + 2, mLocator.getGeneration());
+    }
+
+    @Test
+    public void testFailingLazyConfigurationChangesNothing() {
+        FailingController failingController = mLocator.registerController(FAILING_KEY, new FailingController());
+        failingController.setLiveSwapEnabled(true);
+        long generation = mLocator.getGeneration();
+
+        try {
+            mLocator.applyProfile(new ConfigurationProfile("broken")
+                    .select(TestController.KEY, PRODUCTION_ID)
+                    .select(FAILING_KEY, PRODUCTION_ID));
+            fail("Profile with a failing configuration was applied");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("init failed"));
+        }
+
+        assertEquals(STAGING_ID, mController.getCurrentApplicationConfiguration().getId());
+        assertEquals(STAGING_ID, failingController.getCurrentApplicationConfiguration().getId());
+        assertEquals(-1, mSelectionStore.getSelectedConfigId(mController.getSettingKey(), -1));
+        assertEquals(0, mNotifications.get());
+        assertEquals(generation, mLocator.getGeneration());
+    }
+
+    @Test
+    public void testUnknownTargetsChangeNothing() {
+        try {
+            mLocator.applyProfile(new ConfigurationProfile("unknown").select(TestController.KEY, PRODUCTION_ID).select("missing", PRODUCTION_ID));
+            fail("Unregistered controller was accepted");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("missing"));
+        }
+        try {
+            mLocator.applyProfile(new ConfigurationProfile("unknown").select(TestController.KEY, 99));
+            fail("Unknown configuration was accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("99"));
+        }
+        try {
+            mLocator.switchToProfile("unregistered");
+            fail("Unregistered profile was accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("unregistered"));
+        }
+        assertEquals(STAGING_ID, mController.getCurrentApplicationConfiguration().getId());
+        assertEquals(0, mNotifications.get());
+    }
+
+    /**
+     * Controllers are published one at a time, so a concurrent reader may see some of them switched and
+     * others not. Each controller switches once and never goes back, listeners only run after the whole
+     * profile is published and every controller is switched once applyProfile() returns.
+     */
+    @Test
+    public void testWhatReadersSeeWhileAProfileIsApplied() throws Exception {
+        final LazyTestController lazyController = mLocator.registerController(LAZY_KEY, new LazyTestController());
+        lazyController.setLiveSwapEnabled(true);
+        final AtomicLong lazyIdSeenByListener = new AtomicLong();
+        mController.addListener(new ConfigurationListener<Void, TestConfiguration>() {
+            @Override
+            public void onStagingSwitch(Void context, TestConfiguration applicationConfiguration) {
+                lazyIdSeenByListener.set(lazyController.getCurrentApplicationConfiguration().getId());
+            }
+        });
+
+        final AtomicBoolean applied = new AtomicBoolean();
+        final AtomicBoolean wentBack = new AtomicBoolean();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean controllerSwitched = false;
+                boolean lazySwitched = false;
+                while (!applied.get()) {
+                    controllerSwitched |= mController.getCurrentApplicationConfiguration().getId() == PRODUCTION_ID;
+                    lazySwitched |= lazyController.getCurrentApplicationConfiguration().getId() == PRODUCTION_ID;
+                    if ((controllerSwitched && mController.getCurrentApplicationConfiguration().getId() != PRODUCTION_ID)
+                            || (lazySwitched && lazyController.getCurrentApplicationConfiguration().getId() != PRODUCTION_ID)) {
+                        wentBack.set(true);
+                    }
+                }
+            }
+        });
+        reader.start();
+        mLocator.applyProfile(new ConfigurationProfile("production")
+                .select(TestController.KEY, PRODUCTION_ID)
+                .select(LAZY_KEY, PRODUCTION_ID));
+        applied.set(true);
+        reader.join();
+
+        assertFalse(wentBack.get());
+        assertEquals(PRODUCTION_ID, lazyIdSeenByListener.get());
+        assertEquals(PRODUCTION_ID, mController.getCurrentApplicationConfiguration().getId());
+        assertEquals(PRODUCTION_ID, lazyController.getCurrentApplicationConfiguration().getId());
+    }
+
+    @Test
+    public void testPreviousSelectionIsStoredForWarmStandby() {
+        mController.setStandbyExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        mController.setWarmStandbyCount(1);
+
+        mLocator.applyProfile(new ConfigurationProfile("production").select(TestController.KEY, PRODUCTION_ID));
+
+        assertEquals(PRODUCTION_ID, mSelectionStore.getSelectedConfigId(mController.getSettingKey(), -1));
+        assertEquals(STAGING_ID, mSelectionStore.getSelectedConfigId(mController.getSettingKey() + ".previous", -1));
+    }
+
+    static class FailingController extends ConfigurationController<Void, TestConfiguration> {
+        @Override
+        protected long getDefaultAppConfigId() {
+            return STAGING_ID;
+        }
+
+        @Override
+        protected void addAllApplicationConfigurations() {
+            ConfigurationFactory<TestConfiguration> factory = new ConfigurationFactory<TestConfiguration>() {
+                @Override
+                public TestConfiguration create(ConfigurationDescriptor descriptor) {
+                    if (descriptor.isProduction()) {
+                        return new TestConfiguration(descriptor.getId(), true) {
+                            @Override
+                            public void init(Void context) {
+                                throw new IllegalStateException("Production init failed");
+                            }
+                        };
+                    }
+                    return new TestConfiguration(descriptor.getId(), false);
+                }
+            };
+            putApplicationConfiguration(new ConfigurationDescriptor(PRODUCTION_ID, "Production", true), factory);
+            putApplicationConfiguration(new ConfigurationDescriptor(STAGING_ID, "Staging", false), factory);
+        }
+
+        @Override
+        protected boolean shouldExitOnChange() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationPropertiesTest {
+    private static final StringKey HOST = StringKey.of("propertiesTest.host");
+    private static final IntKey PORT = IntKey.of("propertiesTest.port");
+    private static final LongKey TIMEOUT = LongKey.of("propertiesTest.timeout");
+    private static final BooleanKey SECURE = BooleanKey.of("propertiesTest.secure");
+
+    @Test
+    public void testKeysAreInterned() {
+        assertSame(PORT, IntKey.of("propertiesTest.port"));
+        assertSame(PORT, PropertyKey.of("propertiesTest.port", ConfigurationDefinitions.ValueType.INT));
+        IntKey other = IntKey.of("propertiesTest.other");
+        assertTrue(other.ordinal() > PORT.ordinal());
+    }
+
+    @Test
+    public void testTypedReads() {
+        ConfigurationProperties properties = new ConfigurationProperties.Builder()
+                .put(HOST, "example.com")
+                .put(PORT, 443)
+                .put(SECURE, true)
+                .put(PORT, 8443)
+                .build();
+
+        assertEquals("example.com", properties.get(HOST));
+        assertEquals(8443, properties.get(PORT));
+        assertTrue(properties.get(SECURE));
+        assertFalse(properties.contains(TIMEOUT));
+        assertEquals(5000L, properties.get(TIMEOUT, 5000L));
+        assertNull(properties.getValue(TIMEOUT));
+        assertEquals(Arrays.<PropertyKey<?>>asList(HOST, PORT, SECURE), properties.getKeys());
+        assertEquals("{propertiesTest.host=example.com, propertiesTest.port=8443, propertiesTest.secure=true}", properties.toString());
+
+        try {
+            properties.get(TIMEOUT);
+            fail("Missing property was read");
+        } catch (IllegalStateException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testDeclaredConfigurationProperties() throws IOException {
+        ConfigurationDefinitions definitions = ConfigurationDefinitions.parse(new StringReader("[schema]\n"
+                + "propertiesTest.host=string\n"
+                + "propertiesTest.port=int\n"
+                + "[configuration 1]\n"
+                + "name=Production\n"
+                + "production=true\n"
+                + "propertiesTest.host=example.com\n"
+                + "propertiesTest.port=443\n"));
+
+        DeclaredConfiguration<Void> configuration = new DeclaredConfiguration<>(definitions.get(1));
+        assertEquals("example.com", configuration.getProperties().get(HOST));
+        assertEquals(443, configuration.getProperties().get(PORT));
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.QuietLogger;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized multi-threaded stress runs against the controller and service locator. Every thread
+ * checks that what it observes could be explained by some sequential order of the operations, and
+ * the first violation fails the test.
+ */
+public class ConfigurationStressTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final long[] CONFIG_IDS = {PRODUCTION_ID, 2, 3};
+    private static final int READER_COUNT = 4;
+    private static final int SWITCHER_COUNT = 2;
+    private static final int READ_ITERATIONS = 20000;
+    private static final int SWITCH_ITERATIONS = 2000;
+    private static final int LATE_CONTROLLER_COUNT = 50;
+    private static final long JOIN_TIMEOUT_MS = 60000;
+
+    private ConfigurationLogger mLogger;
+    private ConfigurationServiceLocator<Void> mLocator;
+    private InMemorySelectionStore mSelectionStore;
+    private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+
+    @Before
+    public void setUp() {
+        mLogger = ConfigurationLog.getLogger();
+        ConfigurationLog.setLogger(new QuietLogger());
+        mSelectionStore = new InMemorySelectionStore();
+        mLocator = newLocator(mSelectionStore);
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationLog.setLogger(mLogger);
+    }
+
+    @Test
+    public void testReadsDuringSwitchesSeeConsistentGenerations() throws Exception {
+        final StressController controller = mLocator.registerController("stress", new StressController());
+        controller.setLiveSwapEnabled(true);
+        final AtomicLong lastPublished = new AtomicLong();
+        controller.subscribe(new GenerationObserver<TestConfiguration>() {
+            @Override
+            public void onGeneration(ConfigurationGeneration<TestConfiguration> generation) {
+                //Delivered inline under the selection lock so generations must arrive without gaps.
+                long previous = lastPublished.getAndSet(generation.getGeneration());
+                check(previous == 0 || generation.getGeneration() == previous + 1, "Generation " + generation.getGeneration() + " published after " + previous);
+            }
+        }, null);
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < READER_COUNT; i++) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    long lastGeneration = 0;
+                    for (int j = 0; j < READ_ITERATIONS; j++) {
+                        ConfigurationGeneration<TestConfiguration> generation = controller.getCurrentGeneration();
+                        check(generation.getGeneration() >= lastGeneration, "Generation went back from " + lastGeneration + " to " + generation.getGeneration());
+                        check(generation.getApplicationConfiguration().getId() == generation.getSelectedConfigId(), "Generation " + generation + " does not hold selected id " + generation.getSelectedConfigId());
+                        lastGeneration = generation.getGeneration();
+
+                        TestConfiguration configuration = controller.getCurrentApplicationConfiguration();
+                        check(controller.getGeneration() >= lastGeneration, "Generation number behind an earlier read");
+                        check(isKnownId(configuration.getId()), "Unknown configuration " + configuration.getId());
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < SWITCHER_COUNT; i++) {
+            final Random random = new Random(i);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < SWITCH_ITERATIONS; j++) {
+                        long configId = CONFIG_IDS[random.nextInt(CONFIG_IDS.length)];
+                        long before = controller.getGeneration();
+                        controller.setSelectedConfigId(configId);
+                        ConfigurationGeneration<TestConfiguration> after = controller.getCurrentGeneration();
+                        //Either this switch is still the latest or a later one has been published.
+                        check(after.getSelectedConfigId() == configId || after.getGeneration() > before, "Switch to " + configId + " lost, current is " + after);
+                    }
+                }
+            });
+        }
+        runConcurrently(tasks);
+
+        ConfigurationGeneration<TestConfiguration> current = controller.getCurrentGeneration();
+        assertEquals(current.getGeneration(), lastPublished.get());
+        assertEquals(current.getSelectedConfigId(), mSelectionStore.getSelectedConfigId(controller.getSettingKey(), -1));
+    }
+
+    @Test
+    public void testListenerChangesDuringDispatch() throws Exception {
+        final StressController controller = mLocator.registerController("stress", new StressController());
+        controller.setLiveSwapEnabled(true);
+        final AtomicInteger notifications = new AtomicInteger();
+        controller.addListener(new ConfigurationListener<Void, TestConfiguration>() {
+            @Override
+            public void onStagingSwitch(Void context, TestConfiguration applicationConfiguration) {
+                notifications.incrementAndGet();
+                //Listeners run inline under the selection lock, nothing can be published meanwhile.
+                check(controller.getCurrentApplicationConfiguration() == applicationConfiguration, "Notified of " + applicationConfiguration.getId() + " while another configuration is current");
+            }
+        }, 100);
+        long startGeneration = controller.getGeneration();
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < SWITCHER_COUNT; i++) {
+            final Random random = new Random(i);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < SWITCH_ITERATIONS; j++) {
+                        controller.setSelectedConfigId(CONFIG_IDS[random.nextInt(CONFIG_IDS.length)]);
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < READER_COUNT; i++) {
+            final Random random = new Random(100 + i);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < SWITCH_ITERATIONS; j++) {
+                        ConfigurationListener<Void, TestConfiguration> listener = new SelfRemovingListener(controller, random.nextBoolean());
+                        if (random.nextBoolean()) {
+                            controller.addWeakListener(listener, random.nextInt(10));
+                        } else {
+                            controller.addListener(listener, random.nextInt(10));
+                        }
+                        if (random.nextBoolean()) {
+                            controller.removeListener(listener);
+                        }
+                        controller.getListenerTimings();
+                    }
+                }
+            });
+        }
+        runConcurrently(tasks);
+
+        assertEquals(controller.getGeneration() - startGeneration, notifications.get());
+    }
+
+    @Test
+    public void testLateRegistrationWhileReading() throws Exception {
+        final List<ControllerKey<TestConfiguration, StressController>> keys = new ArrayList<>();
+        for (int i = 0; i < LATE_CONTROLLER_COUNT; i++) {
+            keys.add(new ControllerKey<TestConfiguration, StressController>("late" + i));
+        }
+        final AtomicBoolean registered = new AtomicBoolean();
+        final AtomicLong observedGenerations = new AtomicLong();
+        Subscription subscription = mLocator.subscribe(new ConfigurationChangeObserver() {
+            @Override
+            public void onConfigurationChanged(String controllerId, ConfigurationGeneration<?> generation) {
+                observedGenerations.incrementAndGet();
+            }
+        }, null);
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < READER_COUNT; i++) {
+            final Random random = new Random(i);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    long lastGeneration = 0;
+                    while (!registered.get()) {
+                        ControllerKey<TestConfiguration, StressController> key = keys.get(random.nextInt(keys.size()));
+                        StressController controller = mLocator.getController(key);
+                        if (controller != null) {
+                            //A controller that can be found must be usable, even while it is being initialized.
+                            check(isKnownId(mLocator.getConfiguration(key).getId()), "Unknown configuration from " + key.getControllerId());
+                            check(mLocator.getController(key.getControllerId(), StressController.class) == controller, "Lookup by id and by key disagree for " + key.getControllerId());
+                        }
+                        long generation = mLocator.getGeneration();
+                        check(generation >= lastGeneration, "Locator generation went back from " + lastGeneration + " to " + generation);
+                        lastGeneration = generation;
+                    }
+                }
+            });
+        }
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (ControllerKey<TestConfiguration, StressController> key: keys) {
+                        StressController controller = new StressController();
+                        controller.mSlowInitialization = true;
+                        mLocator.registerController(key, controller);
+                    }
+                } finally {
+                    registered.set(true);
+                }
+            }
+        });
+        runConcurrently(tasks);
+        subscription.cancel();
+
+        for (ControllerKey<TestConfiguration, StressController> key: keys) {
+            assertNotNull(mLocator.getController(key));
+        }
+        assertEquals(LATE_CONTROLLER_COUNT, mLocator.getGeneration());
+        assertEquals(LATE_CONTROLLER_COUNT, observedGenerations.get());
+    }
+
+    /**
+     * Start every task at the same time on its own thread, wait for all of them and rethrow the first
+     * failure seen by any thread.
+     */
+    private void runConcurrently(List<Runnable> tasks) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(tasks.size());
+        List<Thread> threads = new ArrayList<>();
+        for (final Runnable task: tasks) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                        task.run();
+                    } catch (Throwable t) {
+                        mFailure.compareAndSet(null, t);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread: threads) {
+            thread.join(JOIN_TIMEOUT_MS);
+            assertTrue("Stress thread did not finish", !thread.isAlive());
+        }
+
+        Throwable failure = mFailure.get();
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof Exception) {
+            throw (Exception) failure;
+        }
+    }
+
+    private void check(boolean condition, String message) {
+        if (!condition) {
+            AssertionError error = new AssertionError(message);
+            mFailure.compareAndSet(null, error);
+            throw error;
+        }
+    }
+
+    private static boolean isKnownId(long configId) {
+        for (long knownId: CONFIG_IDS) {
+            if (knownId == configId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class StressController extends ConfigurationController<Void, TestConfiguration> {
+        volatile boolean mSlowInitialization;
+
+        @Override
+        protected long getDefaultAppConfigId() {
+            return CONFIG_IDS[1];
+        }
+
+        @Override
+        protected void addAllApplicationConfigurations() {
+            if (mSlowInitialization) {
+                //Widen the window between registration and the first published generation.
+                Thread.yield();
+            }
+            for (long configId: CONFIG_IDS) {
+                putApplicationConfiguration(new TestConfiguration(configId, configId == PRODUCTION_ID));
+            }
+        }
+
+        @Override
+        protected boolean shouldExitOnChange() {
+            return true;
+        }
+    }
+
+    private static class SelfRemovingListener implements ConfigurationListener<Void, TestConfiguration> {
+        private final ConfigurationController<Void, TestConfiguration> mController;
+        private final boolean mAddAnother;
+
+        SelfRemovingListener(ConfigurationController<Void, TestConfiguration> controller, boolean addAnother) {
+            mController = controller;
+            mAddAnother = addAnother;
+        }
+
+        @Override
+        public void onStagingSwitch(Void context, TestConfiguration applicationConfiguration) {
+            mController.removeListener(this);
+            if (mAddAnother) {
+                mController.addListener(new SelfRemovingListener(mController, false));
+            }
+        }
+    }
+}
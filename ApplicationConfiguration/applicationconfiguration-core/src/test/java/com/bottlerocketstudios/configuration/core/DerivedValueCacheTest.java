@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestController;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.registerLiveSwapController;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies memoization and eviction of values derived through ConfigurationController.derive().
+ */
+public class DerivedValueCacheTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final long STAGING_ID = 2;
+    private static final DerivedKey<Client> CLIENT = new DerivedKey<>("client");
+
+    private TestController mController;
+    private final AtomicInteger mCreated = new AtomicInteger();
+    private final DerivedValueFactory<TestConfiguration, Client> mClientFactory = new DerivedValueFactory<TestConfiguration, Client>() {
+        @Override
+        public Client create(TestConfiguration applicationConfiguration) {
+            mCreated.incrementAndGet();
+            return new Client(applicationConfiguration.getId());
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mController = registerLiveSwapController(newLocator());
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneValue() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Client>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<Client>() {
+                    @Override
+                    public Client call() throws Exception {
+                        start.await();
+                        return mController.derive(CLIENT, mClientFactory);
+                    }
+                }));
+            }
+            start.countDown();
+            Client first = results.get(0).get();
+            for (Future<Client> result: results) {
+                assertSame(first, result.get());
+            }
+            assertEquals(1, mCreated.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSwitchEvictsAndClosesPreviousValues() {
+        Client staging = mController.derive(CLIENT, mClientFactory);
+        mController.setSelectedConfigId(PRODUCTION_ID);
+        assertTrue(staging.mClosed);
+
+        Client production = mController.derive(CLIENT, mClientFactory);
+        assertEquals(PRODUCTION_ID, production.mConfigId);
+        mController.setSelectedConfigId(STAGING_ID);
+        assertNotSame(staging, mController.derive(CLIENT, mClientFactory));
+        assertEquals(3, mCreated.get());
+    }
+
+    @Test
+    public void testRetainedValuesAreReusedWhenSwitchingBack() {
+        mController.setDerivedValueRetention(1);
+        Client staging = mController.derive(CLIENT, mClientFactory);
+        mController.setSelectedConfigId(PRODUCTION_ID);
+        Client production = mController.derive(CLIENT, mClientFactory);
+        mController.setSelectedConfigId(STAGING_ID);
+
+        assertFalse(staging.mClosed);
+        assertSame(staging, mController.derive(CLIENT, mClientFactory));
+        assertEquals(2, mCreated.get());
+
+        mController.releaseInactiveConfigurations();
+        assertTrue(production.mClosed);
+        assertFalse(staging.mClosed);
+    }
+
+    @Test
+    public void testFailedDerivationIsRetried() {
+        final AtomicInteger attempts = new AtomicInteger();
+        DerivedValueFactory<TestConfiguration, Client> flakyFactory = new DerivedValueFactory<TestConfiguration, Client>() {
+            @Override
+            public Client create(TestConfiguration applicationConfiguration) {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IllegalStateException("unavailable");
+                }
+                return new Client(applicationConfiguration.getId());
+            }
+        };
+        try {
+            mController.derive(CLIENT, flakyFactory);
+            fail("The first derivation should fail");
+        } catch (IllegalStateException e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+        assertEquals(STAGING_ID, mController.derive(CLIENT, flakyFactory).mConfigId);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testDerivingRetainedValuesDoesNotChangeRecency() {
+        DerivedValueCache<TestConfiguration> cache = new DerivedValueCache<>();
+        FixedController controller = new FixedController();
+        cache.setRetention(1);
+        cache.select(1);
+        cache.select(2);
+
+        //A caller that read configuration 1 before the switch must not make it more recent than 2.
+        controller.mConfiguration = new TestConfiguration(1, true);
+        Client first = cache.derive(controller, CLIENT, mClientFactory);
+        controller.mConfiguration = new TestConfiguration(2, false);
+        Client second = cache.derive(controller, CLIENT, mClientFactory);
+        cache.select(3);
+        cache.closeEvicted();
+
+        assertTrue(first.mClosed);
+        assertFalse(second.mClosed);
+        assertEquals(2, cache.getConfigurationCount());
+    }
+
+    @Test
+    public void testEvictedConfigurationIsNotRecreated() {
+        DerivedValueCache<TestConfiguration> cache = new DerivedValueCache<>();
+        FixedController controller = new FixedController();
+        cache.select(1);
+        cache.select(2);
+
+        //The first read returns the configuration that was just evicted.
+        controller.mConfiguration = new TestConfiguration(1, true);
+        controller.mNextConfiguration = new TestConfiguration(2, false);
+        Client client = cache.derive(controller, CLIENT, mClientFactory);
+
+        assertEquals(2, client.mConfigId);
+        assertEquals(1, mCreated.get());
+        assertEquals(1, cache.getConfigurationCount());
+    }
+
+    @Test
+    public void testValueFinishedAfterEvictionIsClosed() throws Exception {
+        final DerivedValueCache<TestConfiguration> cache = new DerivedValueCache<>();
+        final FixedController controller = new FixedController();
+        controller.mConfiguration = new TestConfiguration(1, true);
+        cache.select(1);
+
+        final CountDownLatch deriving = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Client> created = Collections.synchronizedList(new ArrayList<Client>());
+        final DerivedValueFactory<TestConfiguration, Client> slowFactory = new DerivedValueFactory<TestConfiguration, Client>() {
+            @Override
+            public Client create(TestConfiguration applicationConfiguration) {
+                Client client = new Client(applicationConfiguration.getId());
+                created.add(client);
+                if (applicationConfiguration.getId() == 1) {
+                    deriving.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return client;
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Client> result = executor.submit(new Callable<Client>() {
+                @Override
+                public Client call() throws Exception {
+                    return cache.derive(controller, CLIENT, slowFactory);
+                }
+            });
+            deriving.await();
+            controller.mConfiguration = new TestConfiguration(2, false);
+            cache.select(2);
+            cache.closeEvicted();
+            release.countDown();
+
+            Client client = result.get();
+            assertEquals(2, client.mConfigId);
+            assertFalse(client.mClosed);
+            assertEquals(2, created.size());
+            assertEquals(1, created.get(0).mConfigId);
+            assertTrue(created.get(0).mClosed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testValuesAreClosedOnlyAfterPublishing() {
+        DerivedValueCache<TestConfiguration> cache = new DerivedValueCache<>();
+        FixedController controller = new FixedController();
+        controller.mConfiguration = new TestConfiguration(1, true);
+        cache.select(1);
+        Client first = cache.derive(controller, CLIENT, mClientFactory);
+
+        cache.select(2);
+        assertFalse(first.mClosed);
+        //A reader of the new generation finds its values right away.
+        controller.mConfiguration = new TestConfiguration(2, false);
+        assertEquals(2, cache.derive(controller, CLIENT, mClientFactory).mConfigId);
+        cache.closeEvicted();
+        assertTrue(first.mClosed);
+    }
+
+    @Test
+    public void testDerivingTheSameKeyFromItsFactoryFails() {
+        final AtomicInteger attempts = new AtomicInteger();
+        DerivedValueFactory<TestConfiguration, Client> recursiveFactory = new DerivedValueFactory<TestConfiguration, Client>() {
+            @Override
+            public Client create(TestConfiguration applicationConfiguration) {
+                attempts.incrementAndGet();
+                return mController.derive(CLIENT, this);
+            }
+        };
+        try {
+            mController.derive(CLIENT, recursiveFactory);
+            fail("A recursive derivation was allowed");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("derived the same key again"));
+        }
+        assertEquals(1, attempts.get());
+        //The failed derivation is not cached.
+        assertEquals(STAGING_ID, mController.derive(CLIENT, mClientFactory).mConfigId);
+    }
+
+    @Test
+    public void testClearKeepsDerivingFromCurrentConfiguration() {
+        Client staging = mController.derive(CLIENT, mClientFactory);
+        mController.clearDerivedValues();
+        assertTrue(staging.mClosed);
+
+        Client recreated = mController.derive(CLIENT, mClientFactory);
+        assertNotSame(staging, recreated);
+        assertFalse(recreated.mClosed);
+        assertSame(recreated, mController.derive(CLIENT, mClientFactory));
+    }
+
+    /**
+     * Controller that is never initialized, the test decides which configuration is current.
+     */
+    private static class FixedController extends ConfigurationController<Void, TestConfiguration> {
+        volatile TestConfiguration mConfiguration;
+        volatile TestConfiguration mNextConfiguration;
+
+        @Override
+        public TestConfiguration getCurrentApplicationConfiguration() {
+            TestConfiguration configuration = mConfiguration;
+            if (mNextConfiguration != null) {
+                mConfiguration = mNextConfiguration;
+                mNextConfiguration = null;
+            }
+            return configuration;
+        }
+
+        @Override
+        protected long getDefaultAppConfigId() {
+            return STAGING_ID;
+        }
+
+        @Override
+        protected void addAllApplicationConfigurations() {}
+
+        @Override
+        protected boolean shouldExitOnChange() {
+            return false;
+        }
+    }
+
+    private static class Client implements Closeable {
+        final long mConfigId;
+        volatile boolean mClosed;
+
+        Client(long configId) {
+            mConfigId = configId;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+}
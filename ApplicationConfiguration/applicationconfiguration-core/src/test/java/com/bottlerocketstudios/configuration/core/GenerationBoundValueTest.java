@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestController;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that GenerationBoundValue rebuilds its value only after a switch.
+ */
+public class GenerationBoundValueTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final long STAGING_ID = 2;
+
+    private ConfigurationServiceLocator<Void> mLocator;
+
+    @Before
+    public void setUp() {
+        mLocator = newLocator();
+    }
+
+    @Test
+    public void testGenerationBoundValueRebuildsOnlyWhenStale() {
+        final TestController controller = mLocator.registerController(TestController.KEY, new TestController());
+        controller.setLiveSwapEnabled(true);
+        final AtomicInteger built = new AtomicInteger();
+        final AtomicInteger released = new AtomicInteger();
+        GenerationBoundValue<String> client = new GenerationBoundValue<String>(controller) {
+            @Override
+            protected String create() {
+                built.incrementAndGet();
+                return "client for " + controller.getCurrentApplicationConfiguration().getId();
+            }
+
+            @Override
+            protected void release(String staleValue) {
+                released.incrementAndGet();
+            }
+        };
+
+        long locatorGeneration = mLocator.getGeneration();
+        assertEquals("client for " + STAGING_ID, client.get());
+        assertEquals("client for " + STAGING_ID, client.get());
+        assertEquals(1, built.get());
+
+        controller.setSelectedConfigId(STAGING_ID);
+        assertFalse(client.isStale());
+
+        controller.setSelectedConfigId(PRODUCTION_ID);
+        assertTrue(client.isStale());
+        assertTrue(mLocator.getGeneration() > locatorGeneration);
+        assertEquals("client for " + PRODUCTION_ID, client.get());
+        assertEquals(2, built.get());
+        assertEquals(1, released.get());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestController;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.registerLiveSwapController;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies replay, conflation and cancellation of controller and locator generation streams.
+ */
+public class GenerationStreamTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final long STAGING_ID = 2;
+
+    private ConfigurationServiceLocator<Void> mLocator;
+    private TestController mController;
+    private QueuedExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        mLocator = newLocator();
+        mController = registerLiveSwapController(mLocator);
+        mExecutor = new QueuedExecutor();
+    }
+
+    @Test
+    public void testSubscribeReplaysCurrentGeneration() {
+        RecordingObserver observer = new RecordingObserver();
+        mController.subscribe(observer, null);
+        assertEquals(1, observer.mGenerations.size());
+        assertEquals(mController.getCurrentGeneration().getGeneration(), observer.mGenerations.get(0).getGeneration());
+    }
+
+    @Test
+    public void testQueuedDeliveriesConflateToLatest() {
+        RecordingObserver observer = new RecordingObserver();
+        mController.subscribe(observer, mExecutor);
+        mController.setSelectedConfigId(PRODUCTION_ID);
+        mController.setSelectedConfigId(STAGING_ID);
+        mController.setSelectedConfigId(PRODUCTION_ID);
+        assertEquals(1, mExecutor.mTasks.size());
+
+        mExecutor.runAll();
+        assertEquals(1, observer.mGenerations.size());
+        assertEquals(mController.getCurrentGeneration().getGeneration(), observer.mGenerations.get(0).getGeneration());
+        assertEquals(PRODUCTION_ID, observer.mGenerations.get(0).getApplicationConfiguration().getId());
+    }
+
+    @Test
+    public void testCancelStopsDelivery() {
+        RecordingObserver observer = new RecordingObserver();
+        Subscription subscription = mController.subscribe(observer, mExecutor);
+        subscription.cancel();
+        mExecutor.runAll();
+        mController.setSelectedConfigId(PRODUCTION_ID);
+        mExecutor.runAll();
+        assertTrue(subscription.isCancelled());
+        assertEquals(0, observer.mGenerations.size());
+    }
+
+    @Test
+    public void testLocatorDeliversLatestPerController() {
+        final List<String> changes = new ArrayList<>();
+        Subscription subscription = mLocator.subscribe(new ConfigurationChangeObserver() {
+            @Override
+            public void onConfigurationChanged(String controllerId, ConfigurationGeneration<?> generation) {
+                changes.add(controllerId + ":" + generation.getGeneration());
+            }
+        }, mExecutor);
+
+        long generation = mController.getCurrentGeneration().getGeneration();
+        mController.setSelectedConfigId(PRODUCTION_ID);
+        mController.setSelectedConfigId(STAGING_ID);
+        mExecutor.runAll();
+        assertEquals(1, changes.size());
+        assertEquals(TestController.KEY.getControllerId() + ":" + (generation + 2), changes.get(0));
+
+        subscription.cancel();
+        mController.setSelectedConfigId(PRODUCTION_ID);
+        mExecutor.runAll();
+        assertEquals(1, changes.size());
+    }
+
+    private static class RecordingObserver implements GenerationObserver<TestConfiguration> {
+        final List<ConfigurationGeneration<TestConfiguration>> mGenerations = new ArrayList<>();
+
+        @Override
+        public void onGeneration(ConfigurationGeneration<TestConfiguration> generation) {
+            mGenerations.add(generation);
+        }
+    }
+
+    private static class QueuedExecutor implements Executor {
+        final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Probes stand-in mirrors served by a local HTTP server.
+ */
+public class LatencySelectionPolicyTest {
+    private static final long FAST_ID = 1;
+    private static final long SLOW_ID = 2;
+    private static final long DOWN_ID = 3;
+    private static final long FALLBACK_ID = 99;
+
+    private HttpServer mServer;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final Map<Long, String> mPaths = new HashMap<>();
+    private LatencySelectionPolicy<TestConfiguration> mPolicy;
+    private List<TestConfiguration> mCandidates;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.createContext("/fast", new HealthHandler(0, 200));
+        mServer.createContext("/slow", new HealthHandler(300, 200));
+        mServer.createContext("/down", new HealthHandler(0, 503));
+        mServer.start();
+
+        mPaths.put(FAST_ID, "/fast");
+        mPaths.put(SLOW_ID, "/slow");
+        mPaths.put(DOWN_ID, "/down");
+        mPolicy = new LatencySelectionPolicy<>(new HealthEndpointResolver<TestConfiguration>() {
+            @Override
+            public URL getHealthEndpoint(TestConfiguration applicationConfiguration) {
+                String path = mPaths.get(applicationConfiguration.getId());
+                try {
+                    return path != null ? new URL("http", "127.0.0.1", mServer.getAddress().getPort(), path) : null;
+                } catch (MalformedURLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        mPolicy.setProbeTimeout(2, TimeUnit.SECONDS);
+        mCandidates = Arrays.asList(new TestConfiguration(SLOW_ID, false), new TestConfiguration(DOWN_ID, false), new TestConfiguration(FAST_ID, false));
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void testSelectsFastestHealthyAndCachesResult() {
+        assertEquals(FAST_ID, mPolicy.selectFastestConfigId(mCandidates, FALLBACK_ID));
+        assertEquals(3, mRequestCount.get());
+
+        assertEquals(FAST_ID, mPolicy.selectFastestConfigId(mCandidates, FALLBACK_ID));
+        assertEquals(FAST_ID, mPolicy.getRecommendedConfigId(mCandidates, FALLBACK_ID));
+        assertEquals(3, mRequestCount.get());
+
+        for (ProbeResult result: mPolicy.getProbeResults()) {
+            assertEquals(result.getConfigId() != DOWN_ID, result.isHealthy());
+        }
+    }
+
+    @Test
+    public void testTimeoutAndNoHealthyCandidateUsesFallback() {
+        mPolicy.setProbeTimeout(50, TimeUnit.MILLISECONDS);
+        List<TestConfiguration> candidates = Arrays.asList(new TestConfiguration(SLOW_ID, false), new TestConfiguration(DOWN_ID, false));
+        assertEquals(FALLBACK_ID, mPolicy.selectFastestConfigId(candidates, FALLBACK_ID));
+        for (ProbeResult result: mPolicy.getProbeResults()) {
+            assertFalse(result.isHealthy());
+        }
+    }
+
+    @Test
+    public void testExpiredResultIsReprobed() {
+        mPolicy.setResultTtl(0, TimeUnit.MILLISECONDS);
+        assertEquals(FAST_ID, mPolicy.selectFastestConfigId(mCandidates, FALLBACK_ID));
+        assertEquals(FAST_ID, mPolicy.selectFastestConfigId(mCandidates, FALLBACK_ID));
+        assertEquals(6, mRequestCount.get());
+        for (ProbeResult result: mPolicy.getProbeResults()) {
+            assertTrue(result.getConfigId() == DOWN_ID || result.getSampleCount() == 2);
+        }
+    }
+
+    private class HealthHandler implements HttpHandler {
+        private final long mDelayMillis;
+        private final int mResponseCode;
+
+        HealthHandler(long delayMillis, int responseCode) {
+            mDelayMillis = delayMillis;
+            mResponseCode = responseCode;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            mRequestCount.incrementAndGet();
+            try {
+                Thread.sleep(mDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "ok".getBytes("UTF-8");
+            exchange.sendResponseHeaders(mResponseCode, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LayeredPropertiesTest {
+    private static final StringKey API_HOST = StringKey.of("layeredTest.apiHost");
+    private static final StringKey CDN_HOST = StringKey.of("layeredTest.cdnHost");
+    private static final BooleanKey VERBOSE = BooleanKey.of("layeredTest.verbose");
+    private static final IntKey TIMEOUT = IntKey.of("layeredTest.timeout");
+
+    @Test
+    public void testLaterLayersWin() {
+        LayeredProperties layered = new LayeredProperties("base", "environment", "developer");
+        layered.setLayer("base", new ConfigurationProperties.Builder()
+                .put(API_HOST, "api.example.com")
+                .put(CDN_HOST, "cdn.example.com")
+                .put(VERBOSE, false)
+                .put(TIMEOUT, 10)
+                .build());
+        layered.setLayer("environment", new ConfigurationProperties.Builder().put(API_HOST, "staging.example.com").build());
+        layered.setLayer("developer", new ConfigurationProperties.Builder().put(VERBOSE, true).build());
+
+        ConfigurationProperties resolved = layered.getProperties();
+        assertEquals("staging.example.com", resolved.get(API_HOST));
+        assertEquals("cdn.example.com", resolved.get(CDN_HOST));
+        assertTrue(resolved.get(VERBOSE));
+        assertEquals("developer", layered.getSourceLayer(VERBOSE));
+        assertEquals(3, layered.getGeneration());
+
+        layered.clearLayer("environment");
+        assertEquals("api.example.com", layered.getProperties().get(API_HOST));
+        assertEquals(1, layered.getLastResolvedKeyCount());
+        assertEquals(4, layered.getProperties().getKeys().size());
+    }
+
+    @Test
+    public void testOnlyAffectedKeysAreResolved() {
+        LayeredProperties layered = new LayeredProperties("base", "developer");
+        layered.setLayer("base", new ConfigurationProperties.Builder().put(API_HOST, "a").put(CDN_HOST, "b").put(TIMEOUT, 1).build());
+        layered.setLayer("developer", new ConfigurationProperties.Builder().put(TIMEOUT, 2).build());
+        assertEquals(1, layered.getLastResolvedKeyCount());
+        assertEquals(2, layered.getProperties().get(TIMEOUT));
+
+        layered.setLayer("developer", new ConfigurationProperties.Builder().put(VERBOSE, true).build());
+        assertEquals(2, layered.getLastResolvedKeyCount());
+        assertEquals(1, layered.getProperties().get(TIMEOUT));
+        assertTrue(layered.getProperties().get(VERBOSE));
+    }
+
+    @Test
+    public void testOverridesTakeResolvedTypes() throws IOException {
+        LayeredProperties layered = new LayeredProperties("base", "developer");
+        layered.setLayer("base", new ConfigurationProperties.Builder().put(TIMEOUT, 10).put(VERBOSE, false).build());
+
+        ConfigurationProperties overrides = layered.parseOverrides(new StringReader("# local\nlayeredTest.timeout=30\nlayeredTest.verbose=true\nlayeredTest.extra=value\n"));
+        layered.setLayer("developer", overrides);
+        assertEquals(30, layered.getProperties().get(TIMEOUT));
+        assertTrue(layered.getProperties().get(VERBOSE));
+        assertEquals("value", layered.getProperties().get(StringKey.of("layeredTest.extra")));
+
+        try {
+            layered.parseOverrides(new StringReader("layeredTest.timeout=slow\n"));
+            throw new AssertionError("Invalid override was accepted");
+        } catch (IOException e) {
+            assertFalse(e.getMessage().isEmpty());
+        }
+    }
+
+    @Test
+    public void testBoundLayerNeverGoesBack() {
+        ConfigurationServiceLocator<Void> locator = newLocator();
+        HostController controller = locator.registerController("HostController", new HostController());
+        controller.setLiveSwapEnabled(true);
+        //Hold notifications and deliver the newest first, as a late listener thread might.
+        final Deque<Runnable> pending = new ArrayDeque<>();
+        controller.setListenerExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending.push(command);
+            }
+        }, false);
+
+        LayeredProperties layered = new LayeredProperties("environment");
+        layered.bindLayer("environment", controller);
+        assertEquals("staging.example.com", layered.getProperties().get(API_HOST));
+
+        controller.setSelectedConfigId(1);
+        controller.setSelectedConfigId(2);
+        while (!pending.isEmpty()) {
+            pending.pop().run();
+        }
+        assertEquals("staging.example.com", layered.getProperties().get(API_HOST));
+
+        controller.setSelectedConfigId(1);
+        pending.pop().run();
+        assertEquals("api.example.com", layered.getProperties().get(API_HOST));
+    }
+
+    static class HostConfiguration extends ConfigurationControllerTest.TestConfiguration implements ConfigurationPropertySource {
+        private final ConfigurationProperties mProperties;
+
+        HostConfiguration(long id, boolean production, String apiHost) {
+            super(id, production);
+            mProperties = new ConfigurationProperties.Builder().put(API_HOST, apiHost).build();
+        }
+
+        @Override
+        public ConfigurationProperties getProperties() {
+            return mProperties;
+        }
+    }
+
+    static class HostController extends ConfigurationController<Void, ConfigurationControllerTest.TestConfiguration> {
+        @Override
+        protected long getDefaultAppConfigId() {
+            return 2;
+        }
+
+        @Override
+        protected void addAllApplicationConfigurations() {
+            putApplicationConfiguration(new HostConfiguration(1, true, "api.example.com"));
+            putApplicationConfiguration(new HostConfiguration(2, false, "staging.example.com"));
+        }
+
+        @Override
+        protected boolean shouldExitOnChange() {
+            return false;
+        }
+    }
+}
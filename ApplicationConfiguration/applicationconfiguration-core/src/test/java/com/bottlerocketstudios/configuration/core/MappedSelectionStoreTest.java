@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedSelectionStoreTest {
+    private static final int PROCESS_KEY_COUNT = 20;
+    private static final int PROCESS_BATCH_COUNT = 500;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("selections", ".bin");
+        assertTrue(mFile.delete());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testRoundTripAcrossReopen() throws IOException {
+        MappedSelectionStore store = MappedSelectionStore.open(mFile);
+        assertEquals(-1, store.getSelectedConfigId("server", -1));
+
+        Map<String, Long> selections = new LinkedHashMap<>();
+        selections.put("server", 2L);
+        selections.put("ads", 5L);
+        assertTrue(store.putSelectedConfigIds(selections));
+        assertTrue(store.putSelectedConfigIds(Collections.singletonMap("server", 3L)));
+
+        MappedSelectionStore reopened = MappedSelectionStore.open(mFile);
+        assertEquals(3, reopened.getSelectedConfigId("server", -1));
+        assertEquals(5, reopened.getSelectedConfigId("ads", -1));
+        assertEquals(-1, reopened.getSelectedConfigId("other", -1));
+    }
+
+    @Test
+    public void testChangeSequenceIsSharedBetweenMappings() throws IOException {
+        MappedSelectionStore writer = MappedSelectionStore.open(mFile);
+        MappedSelectionStore reader = MappedSelectionStore.open(mFile);
+        int changeSequence = reader.getChangeSequence();
+
+        writer.putSelectedConfigIds(Collections.singletonMap("server", 2L));
+        assertTrue(reader.getChangeSequence() != changeSequence);
+        assertEquals(2, reader.getSelectedConfigId("server", -1));
+    }
+
+    @Test
+    public void testConcurrentWritesFromAnotherProcess() throws Exception {
+        MappedSelectionStore store = MappedSelectionStore.open(mFile);
+        int changeSequence = store.getChangeSequence();
+
+        String javaCommand = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        Process process = new ProcessBuilder(Arrays.asList(javaCommand, "-cp", System.getProperty("java.class.path"), WriterProcess.class.getName(), mFile.getPath()))
+                .redirectErrorStream(true)
+                .start();
+        try {
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+            assertEquals(WriterProcess.READY, output.readLine());
+            OutputStream input = process.getOutputStream();
+            input.write('\n');
+            input.flush();
+
+            writeBatches(store, "parent");
+            assertEquals(0, process.waitFor());
+        } finally {
+            process.destroy();
+        }
+
+        //Every batch from both processes moved the sequence to odd and back and every key claimed its own slot.
+        assertEquals(changeSequence + 2 * 2 * PROCESS_BATCH_COUNT, store.getChangeSequence());
+        for (int i = 0; i < PROCESS_KEY_COUNT; i++) {
+            assertEquals(lastValue(i), store.getSelectedConfigId("parent." + i, -1));
+            assertEquals(lastValue(i), store.getSelectedConfigId("child." + i, -1));
+        }
+        store.close();
+    }
+
+    @Test
+    public void testCorruptCopyFallsBackToPreviousValue() throws IOException {
+        MappedSelectionStore store = MappedSelectionStore.open(mFile, 1, null);
+        store.putSelectedConfigIds(Collections.singletonMap("server", 1L));
+        store.putSelectedConfigIds(Collections.singletonMap("server", 2L));
+
+        //The second write went to the second copy of the only slot, simulate a torn write of its value.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        try {
+            randomAccessFile.seek(16 + 32 + 16);
+            randomAccessFile.writeLong(99);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        assertEquals(1, MappedSelectionStore.open(mFile, 1, null).getSelectedConfigId("server", -1));
+    }
+
+    @Test
+    public void testSequenceLeftOddByDeadWriterIsRecovered() throws IOException {
+        MappedSelectionStore store = MappedSelectionStore.open(mFile);
+        store.putSelectedConfigIds(Collections.singletonMap("server", 2L));
+
+        //A writer that died mid batch leaves the change sequence odd, readers must not wait for it forever.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        try {
+            randomAccessFile.seek(12);
+            randomAccessFile.writeInt(store.getChangeSequence() + 1);
+        } finally {
+            randomAccessFile.close();
+        }
+        int changeSequence = store.getChangeSequence();
+        assertEquals(1, changeSequence & 1);
+        assertEquals(2, store.getSelectedConfigId("server", -1));
+
+        store.putSelectedConfigIds(Collections.singletonMap("server", 3L));
+        assertEquals(changeSequence + 1, store.getChangeSequence());
+        assertEquals(3, store.getSelectedConfigId("server", -1));
+    }
+
+    @Test
+    public void testInvalidFileIsRecreated() throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        try {
+            randomAccessFile.writeLong(42);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        MappedSelectionStore store = MappedSelectionStore.open(mFile);
+        assertEquals(MappedSelectionStore.DEFAULT_SLOT_COUNT, store.getSlotCount());
+        assertEquals(-1, store.getSelectedConfigId("server", -1));
+    }
+
+    @Test
+    public void testFallbackSelectionIsMigrated() throws IOException {
+        InMemorySelectionStore fallbackStore = new InMemorySelectionStore();
+        fallbackStore.putSelectedConfigIds(Collections.singletonMap("server", 7L));
+
+        assertEquals(7, MappedSelectionStore.open(mFile, 4, fallbackStore).getSelectedConfigId("server", -1));
+        assertEquals(7, MappedSelectionStore.open(mFile).getSelectedConfigId("server", -1));
+    }
+
+    @Test
+    public void testFullStoreRejectsNewKeys() throws IOException {
+        MappedSelectionStore store = MappedSelectionStore.open(mFile, 2, null);
+        Map<String, Long> selections = new LinkedHashMap<>();
+        selections.put("a", 1L);
+        selections.put("b", 2L);
+        assertTrue(store.putSelectedConfigIds(selections));
+        assertFalse(store.putSelectedConfigIds(Collections.singletonMap("c", 3L)));
+        assertTrue(store.putSelectedConfigIds(Collections.singletonMap("a", 4L)));
+        assertEquals(4, store.getSelectedConfigId("a", -1));
+        assertEquals(2, store.getSelectedConfigId("b", -1));
+    }
+
+    /**
+     * Write batches that add a new key on each of the first PROCESS_KEY_COUNT batches and then update
+     * existing keys along with one key shared by every writer.
+     */
+    private static void writeBatches(MappedSelectionStore store, String keyPrefix) {
+        for (int i = 0; i < PROCESS_BATCH_COUNT; i++) {
+            Map<String, Long> selections = new LinkedHashMap<>();
+            selections.put(keyPrefix + "." + (i % PROCESS_KEY_COUNT), (long) i);
+            selections.put("shared", (long) i);
+            assertTrue(store.putSelectedConfigIds(selections));
+        }
+    }
+
+    private static long lastValue(int key) {
+        return PROCESS_BATCH_COUNT - PROCESS_KEY_COUNT + key;
+    }
+
+    /**
+     * Runs in a second JVM, writes once the parent sends a line so both processes write at the same time.
+     */
+    public static class WriterProcess {
+        static final String READY = "ready";
+
+        public static void main(String[] args) throws IOException {
+            MappedSelectionStore store = MappedSelectionStore.open(new File(args[0]));
+            System.out.println(READY);
+            System.out.flush();
+            new BufferedReader(new InputStreamReader(System.in, "UTF-8")).readLine();
+            writeBatches(store, "child");
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestController;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that locators sharing a selection file adopt selections made by each other.
+ */
+public class MultiProcessSelectionTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final long STAGING_ID = 2;
+
+    @Test
+    public void testSelectionFromAnotherProcessIsAdopted() throws IOException, InterruptedException {
+        File file = File.createTempFile("selections", ".bin");
+        try {
+            ConfigurationServiceLocator<Void> mainProcess = createMultiProcessLocator(file);
+            ConfigurationServiceLocator<Void> syncProcess = createMultiProcessLocator(file);
+            TestController mainController = mainProcess.registerController(TestController.KEY, new TestController());
+            TestController syncController = syncProcess.registerController(TestController.KEY, new TestController());
+            final AtomicReference<TestConfiguration> notified = new AtomicReference<>();
+            final AtomicReference<Thread> listenerThread = new AtomicReference<>();
+            final CountDownLatch notification = new CountDownLatch(1);
+            syncController.addListener(new ConfigurationListener<Void, TestConfiguration>() {
+                @Override
+                public void onStagingSwitch(Void context, TestConfiguration configuration) {
+                    notified.set(configuration);
+                    listenerThread.set(Thread.currentThread());
+                    notification.countDown();
+                }
+            });
+            assertEquals(STAGING_ID, syncController.getCurrentApplicationConfiguration().getId());
+
+            mainController.setLiveSwapEnabled(true);
+            mainController.setSelectedConfigId(PRODUCTION_ID);
+
+            //The lookup publishes the adopted selection but never runs listeners itself.
+            assertEquals(PRODUCTION_ID, syncProcess.getConfiguration(TestController.KEY).getId());
+            assertTrue(notification.await(5, TimeUnit.SECONDS));
+            assertEquals(PRODUCTION_ID, notified.get().getId());
+            assertNotSame(Thread.currentThread(), listenerThread.get());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static ConfigurationServiceLocator<Void> createMultiProcessLocator(File file) throws IOException {
+        ConfigurationServiceLocator<Void> locator = new ConfigurationServiceLocator<>();
+        locator.setSelectionStore(MappedSelectionStore.open(file));
+        locator.setMultiProcessEnabled(true);
+        locator.initialize(null, true, true);
+        return locator;
+    }
+}
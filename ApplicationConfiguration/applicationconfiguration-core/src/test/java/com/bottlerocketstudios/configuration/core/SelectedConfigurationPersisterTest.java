@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SelectedConfigurationPersisterTest {
+
+    @Test
+    public void testAsynchronousWritesAreCoalesced() throws InterruptedException {
+        RecordingStore store = new RecordingStore();
+        store.mGate = new CountDownLatch(1);
+        SelectedConfigurationPersister persister = new SelectedConfigurationPersister(store);
+        persister.setAsynchronous(true);
+
+        persister.persist("server", 1);
+        assertTrue(store.mWriteStarted.await(5, TimeUnit.SECONDS));
+        persister.persist("server", 2);
+        persister.persist("ads", 3);
+        persister.persist("ads", 4);
+        store.mGate.countDown();
+        assertTrue(persister.flush());
+
+        assertEquals(2, store.mBatches.size());
+        assertEquals(Collections.singletonMap("server", 1L), store.mBatches.get(0));
+        Map<String, Long> coalesced = new HashMap<>();
+        coalesced.put("server", 2L);
+        coalesced.put("ads", 4L);
+        assertEquals(coalesced, store.mBatches.get(1));
+    }
+
+    @Test
+    public void testReadsSeePendingAndWritingSelections() throws InterruptedException {
+        RecordingStore store = new RecordingStore();
+        store.mGate = new CountDownLatch(1);
+        SelectedConfigurationPersister persister = new SelectedConfigurationPersister(store);
+        persister.setAsynchronous(true);
+
+        persister.persist("server", 1);
+        assertTrue(store.mWriteStarted.await(5, TimeUnit.SECONDS));
+        persister.persist("ads", 2);
+        //The first batch is inside the store, the second has not been handed to it yet.
+        assertEquals(1, persister.getSelectedConfigId("server", -1));
+        assertEquals(2, persister.getSelectedConfigId("ads", -1));
+        assertEquals(-1, store.getSelectedConfigId("server", -1));
+
+        store.mGate.countDown();
+        persister.flush();
+        assertEquals(1, store.getSelectedConfigId("server", -1));
+        assertEquals(2, store.getSelectedConfigId("ads", -1));
+    }
+
+    @Test
+    public void testFlushMakesAsynchronousWritesDurable() {
+        RecordingStore store = new RecordingStore();
+        SelectedConfigurationPersister persister = new SelectedConfigurationPersister(store);
+        persister.setAsynchronous(true);
+        for (long i = 0; i < 100; i++) {
+            persister.persist("server", i);
+        }
+        assertTrue(persister.flush());
+        assertEquals(99, store.getSelectedConfigId("server", -1));
+    }
+
+    @Test
+    public void testSwitchingToSynchronousFlushes() {
+        RecordingStore store = new RecordingStore();
+        SelectedConfigurationPersister persister = new SelectedConfigurationPersister(store);
+        persister.setAsynchronous(true);
+        persister.persist("server", 1);
+        persister.persist("ads", 2);
+
+        persister.setAsynchronous(false);
+        assertEquals(1, store.getSelectedConfigId("server", -1));
+        assertEquals(2, store.getSelectedConfigId("ads", -1));
+
+        persister.persist("server", 3);
+        assertSame(Thread.currentThread(), store.mWriteThreads.get(store.mWriteThreads.size() - 1));
+        assertEquals(3, store.getSelectedConfigId("server", -1));
+    }
+
+    @Test
+    public void testFailedWriteStaysPendingAndIsRetried() {
+        RecordingStore store = new RecordingStore();
+        store.mFail = true;
+        SelectedConfigurationPersister persister = new SelectedConfigurationPersister(store);
+
+        persister.persist("server", 1);
+        assertEquals(1, persister.getSelectedConfigId("server", -1));
+        assertFalse(persister.flush());
+        assertEquals(1, persister.getSelectedConfigId("server", -1));
+
+        store.mFail = false;
+        persister.persist("ads", 2);
+        assertEquals(1, store.getSelectedConfigId("server", -1));
+        assertEquals(2, store.getSelectedConfigId("ads", -1));
+        assertTrue(persister.flush());
+    }
+
+    private static class RecordingStore extends InMemorySelectionStore {
+        final List<Map<String, Long>> mBatches = Collections.synchronizedList(new ArrayList<Map<String, Long>>());
+        final List<Thread> mWriteThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        final CountDownLatch mWriteStarted = new CountDownLatch(1);
+        volatile CountDownLatch mGate;
+        volatile boolean mFail;
+
+        @Override
+        public boolean putSelectedConfigIds(Map<String, Long> selections) {
+            mWriteThreads.add(Thread.currentThread());
+            mWriteStarted.countDown();
+            CountDownLatch gate = mGate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (mFail) {
+                return false;
+            }
+            mBatches.add(new HashMap<>(selections));
+            return super.putSelectedConfigIds(selections);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.core;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.LazyTestController;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestConfiguration;
+import com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.TestController;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.bottlerocketstudios.configuration.core.ConfigurationControllerTest.newLocator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that warm standby prepares hinted and recently used configurations before they are selected.
+ */
+public class WarmStandbyTest {
+    private static final long PRODUCTION_ID = 1;
+    private static final long STAGING_ID = 2;
+
+    private ConfigurationServiceLocator<Void> mLocator;
+    private InMemorySelectionStore mSelectionStore;
+
+    @Before
+    public void setUp() {
+        mSelectionStore = new InMemorySelectionStore();
+        mLocator = newLocator(mSelectionStore);
+    }
+
+    @Test
+    public void testWarmStandbyPreparesHintedAndRecentConfigurations() {
+        LazyTestController controller = mLocator.registerController("LazyTestController", new LazyTestController());
+        controller.setLiveSwapEnabled(true);
+        final List<Long> warmed = new ArrayList<>();
+        controller.setConfigurationWarmer(new ConfigurationWarmer<Void, TestConfiguration>() {
+            @Override
+            public void warm(Void context, TestConfiguration applicationConfiguration) {
+                warmed.add(applicationConfiguration.getId());
+            }
+        });
+        controller.setStandbyExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        controller.setWarmStandbyCount(1);
+        assertEquals(1, controller.mCreated.get());
+        assertTrue(warmed.isEmpty());
+
+        controller.hintStandbyConfiguration(PRODUCTION_ID);
+        assertEquals(2, controller.mCreated.get());
+        assertTrue(controller.isConfigurationWarm(PRODUCTION_ID));
+        assertFalse(controller.isConfigurationWarm(STAGING_ID));
+
+        controller.setSelectedConfigId(PRODUCTION_ID);
+        assertEquals(2, controller.mCreated.get());
+        assertTrue(controller.isConfigurationWarm(STAGING_ID));
+        assertEquals(PRODUCTION_ID, warmed.get(0).longValue());
+        assertEquals(STAGING_ID, warmed.get(1).longValue());
+        assertEquals(STAGING_ID, mSelectionStore.getSelectedConfigId(controller.getSettingKey() + ".previous", -1));
+    }
+
+    @Test
+    public void testSwitchReusesValuesDerivedForWarmCandidate() {
+        TestController controller = mLocator.registerController(TestController.KEY, new TestController());
+        controller.setLiveSwapEnabled(true);
+        controller.setStandbyExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        final DerivedKey<List<Long>> clientKey = new DerivedKey<>("client");
+        final List<List<Long>> created = new ArrayList<>();
+        DerivedValueFactory<TestConfiguration, List<Long>> factory = new DerivedValueFactory<TestConfiguration, List<Long>>() {
+            @Override
+            public List<Long> create(TestConfiguration applicationConfiguration) {
+                List<Long> client = Collections.singletonList(applicationConfiguration.getId());
+                created.add(client);
+                return client;
+            }
+        };
+        assertEquals(STAGING_ID, controller.derive(clientKey, factory).get(0).longValue());
+
+        //Every configuration of this controller is eager, warming must still derive the key.
+        controller.setWarmStandbyCount(1);
+        controller.hintStandbyConfiguration(PRODUCTION_ID);
+        assertEquals(2, created.size());
+        List<Long> warmedClient = created.get(1);
+        assertEquals(PRODUCTION_ID, warmedClient.get(0).longValue());
+
+        controller.setSelectedConfigId(PRODUCTION_ID);
+        int createdBeforeDerive = created.size();
+        assertSame(warmedClient, controller.derive(clientKey, factory));
+        assertEquals(createdBeforeDerive, created.size());
+    }
+}
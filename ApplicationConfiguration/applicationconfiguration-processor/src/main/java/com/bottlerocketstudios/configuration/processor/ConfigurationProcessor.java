@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.processor;
+
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.LiteralTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.ParenthesizedTree;
+import com.sun.source.tree.ReturnTree;
+import com.sun.source.tree.StatementTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.UnaryTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.Trees;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a ConfigurationTable for every controller referenced by ControllerConfiguration annotations
+ * and reports duplicate ids, a missing or duplicate production configuration and a duplicate default
+ * configuration as compile errors. When getId() or isProduction() of a configuration returns a constant,
+ * e.g. a literal or a CONFIGURATION_ID field, a value that differs from the annotation is an error too.
+ * Other implementations are still checked when the configuration is created.
+ *
+ * If the controller declares a CONTROLLER_ID constant, the table also gets a typed KEY and static
+ * registerController(), getController() and getConfiguration() methods taking the locator.
+ *
+ * When the applicationconfiguration.productionOnly option is true, e.g. for release variants, every
+ * configuration is still validated but the table only contains the production configurations. The
+ * other configuration classes are then unreferenced and removed by ProGuard or R8. A default
+ * configuration that is not production is an error in that mode, the controller would otherwise
+ * silently fall back to production.
+ */
+public class ConfigurationProcessor extends AbstractProcessor {
+    static final String ANNOTATION_NAME = "com.bottlerocketstudios.configuration.core.ControllerConfiguration";
+    private static final String CONTROLLER_NAME = "com.bottlerocketstudios.configuration.core.ConfigurationController";
+    private static final String CORE_PACKAGE = "com.bottlerocketstudios.configuration.core";
+    static final String TABLE_SUFFIX = "_ConfigurationTable";
+    private static final String CONTROLLER_ID_FIELD = "CONTROLLER_ID";
+    static final String PRODUCTION_ONLY_OPTION = "applicationconfiguration.productionOnly";
+
+    private final Set<String> mGeneratedControllers = new HashSet<>();
+    private Trees mTrees;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        try {
+            mTrees = Trees.instance(processingEnv);
+        } catch (IllegalArgumentException | NoClassDefFoundError e) {
+            //Not running in javac, getId() and isProduction() are only checked at runtime.
+            mTrees = null;
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION_NAME);
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(PRODUCTION_ONLY_OPTION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotationElement = processingEnv.getElementUtils().getTypeElement(ANNOTATION_NAME);
+        if (annotationElement == null) {
+            return false;
+        }
+
+        Map<TypeElement, List<Entry>> entriesByController = new LinkedHashMap<>();
+        for (Element element: roundEnv.getElementsAnnotatedWith(annotationElement)) {
+            Entry entry = readEntry(element, annotationElement);
+            if (entry != null) {
+                List<Entry> entries = entriesByController.get(entry.mController);
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    entriesByController.put(entry.mController, entries);
+                }
+                entries.add(entry);
+            }
+        }
+
+        for (Map.Entry<TypeElement, List<Entry>> controllerEntries: entriesByController.entrySet()) {
+            processController(controllerEntries.getKey(), controllerEntries.getValue());
+        }
+        return true;
+    }
+
+    private Entry readEntry(Element element, TypeElement annotationElement) {
+        Messager messager = processingEnv.getMessager();
+        AnnotationMirror annotationMirror = getAnnotationMirror(element, annotationElement);
+        if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "ControllerConfiguration must annotate a concrete class", element, annotationMirror);
+            return null;
+        }
+        TypeElement configurationElement = (TypeElement) element;
+        if (configurationElement.getNestingKind() == NestingKind.MEMBER && !configurationElement.getModifiers().contains(Modifier.STATIC)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "ControllerConfiguration must annotate a top level or static nested class", element, annotationMirror);
+            return null;
+        }
+        if (!hasAccessibleNoArgConstructor(configurationElement)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "ControllerConfiguration classes need a public no argument constructor", element, annotationMirror);
+            return null;
+        }
+
+        Entry entry = new Entry();
+        entry.mConfiguration = configurationElement;
+        entry.mAnnotationMirror = annotationMirror;
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value: processingEnv.getElementUtils().getElementValuesWithDefaults(annotationMirror).entrySet()) {
+            String name = value.getKey().getSimpleName().toString();
+            Object annotationValue = value.getValue().getValue();
+            if ("controller".equals(name)) {
+                entry.mController = (TypeElement) ((DeclaredType) annotationValue).asElement();
+            } else if ("id".equals(name)) {
+                entry.mId = (Long) annotationValue;
+            } else if ("name".equals(name)) {
+                entry.mName = (String) annotationValue;
+            } else if ("production".equals(name)) {
+                entry.mProduction = (Boolean) annotationValue;
+            } else if ("defaultConfiguration".equals(name)) {
+                entry.mDefault = (Boolean) annotationValue;
+            }
+        }
+        return entry;
+    }
+
+    private void processController(TypeElement controller, List<Entry> entries) {
+        Messager messager = processingEnv.getMessager();
+        String controllerName = controller.getQualifiedName().toString();
+        if (!mGeneratedControllers.add(controllerName)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Configurations of " + controllerName + " must be compiled together", entries.get(0).mConfiguration);
+            return;
+        }
+
+        List<? extends TypeMirror> controllerTypeArguments = findControllerTypeArguments(controller);
+        if (controllerTypeArguments == null) {
+            messager.printMessage(Diagnostic.Kind.ERROR, controllerName + " must be a non generic subclass of ConfigurationController", entries.get(0).mConfiguration, entries.get(0).mAnnotationMirror);
+            return;
+        }
+        TypeMirror contextType = controllerTypeArguments.get(0);
+        TypeMirror configurationType = controllerTypeArguments.get(1);
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.mId < rhs.mId ? -1 : (lhs.mId == rhs.mId ? 0 : 1);
+            }
+        });
+
+        Types types = processingEnv.getTypeUtils();
+        boolean valid = true;
+        int productionCount = 0;
+        Entry defaultEntry = null;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (!types.isAssignable(entry.mConfiguration.asType(), configurationType)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, entry.mConfiguration.getQualifiedName() + " is not a " + configurationType + " required by " + controllerName, entry.mConfiguration, entry.mAnnotationMirror);
+                valid = false;
+            }
+            if (!checkDeclaredValues(entry)) {
+                valid = false;
+            }
+            if (i > 0 && entries.get(i - 1).mId == entry.mId) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Duplicate configuration id " + entry.mId + " for " + controllerName + ", also used by " + entries.get(i - 1).mConfiguration.getQualifiedName(), entry.mConfiguration, entry.mAnnotationMirror);
+                valid = false;
+            }
+            if (entry.mProduction) {
+                productionCount++;
+                if (productionCount > 1) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "More than one production configuration for " + controllerName, entry.mConfiguration, entry.mAnnotationMirror);
+                    valid = false;
+                }
+            }
+            if (entry.mDefault) {
+                if (defaultEntry != null) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "More than one default configuration for " + controllerName + ", also marked on " + defaultEntry.mConfiguration.getQualifiedName(), entry.mConfiguration, entry.mAnnotationMirror);
+                    valid = false;
+                } else {
+                    defaultEntry = entry;
+                }
+            }
+        }
+        if (defaultEntry != null && !defaultEntry.mProduction && isProductionOnly()) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Default configuration " + defaultEntry.mConfiguration.getQualifiedName() + " of " + controllerName
+                    + " is not production and would be left out by " + PRODUCTION_ONLY_OPTION, defaultEntry.mConfiguration, defaultEntry.mAnnotationMirror);
+            valid = false;
+        }
+        if (productionCount == 0) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "No production configuration for " + controllerName, entries.get(0).mConfiguration, entries.get(0).mAnnotationMirror);
+            valid = false;
+        }
+
+        if (valid) {
+            writeTable(controller, contextType, configurationType, isProductionOnly() ? getProductionEntries(entries) : entries);
+        }
+    }
+
+    /**
+     * Compare the annotation with the constants returned by getId() and isProduction(). Returns false
+     * after reporting a mismatch.
+     */
+    private boolean checkDeclaredValues(Entry entry) {
+        Messager messager = processingEnv.getMessager();
+        boolean valid = true;
+        Object id = getReturnedConstant(entry.mConfiguration, "getId");
+        if ((id instanceof Long || id instanceof Integer) && ((Number) id).longValue() != entry.mId) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "ControllerConfiguration id " + entry.mId + " of " + entry.mConfiguration.getQualifiedName()
+                    + " does not match " + id + " returned by getId()", entry.mConfiguration, entry.mAnnotationMirror);
+            valid = false;
+        }
+        Object production = getReturnedConstant(entry.mConfiguration, "isProduction");
+        if (production instanceof Boolean && (Boolean) production != entry.mProduction) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "ControllerConfiguration production " + entry.mProduction + " of " + entry.mConfiguration.getQualifiedName()
+                    + " does not match " + production + " returned by isProduction()", entry.mConfiguration, entry.mAnnotationMirror);
+            valid = false;
+        }
+        return valid;
+    }
+
+    /**
+     * Return the constant returned by the closest implementation of the no argument method or null if
+     * it is not compiled with the configuration or does more than return a constant.
+     */
+    private Object getReturnedConstant(TypeElement configuration, String methodName) {
+        if (mTrees == null) {
+            return null;
+        }
+        ExecutableElement method = findMethod(configuration, methodName);
+        if (method == null || method.getModifiers().contains(Modifier.ABSTRACT)) {
+            return null;
+        }
+        TreePath methodPath = mTrees.getPath(method);
+        if (methodPath == null) {
+            return null;
+        }
+        MethodTree methodTree = (MethodTree) methodPath.getLeaf();
+        if (methodTree.getBody() == null || methodTree.getBody().getStatements().size() != 1) {
+            return null;
+        }
+        StatementTree statement = methodTree.getBody().getStatements().get(0);
+        if (!(statement instanceof ReturnTree) || ((ReturnTree) statement).getExpression() == null) {
+            return null;
+        }
+        return evaluateConstant(methodPath, ((ReturnTree) statement).getExpression());
+    }
+
+    private ExecutableElement findMethod(TypeElement type, String methodName) {
+        while (type != null) {
+            for (ExecutableElement method: ElementFilter.methodsIn(type.getEnclosedElements())) {
+                if (method.getSimpleName().contentEquals(methodName) && method.getParameters().isEmpty()) {
+                    return method;
+                }
+            }
+            TypeMirror superclass = type.getSuperclass();
+            type = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Evaluate literals, negated numbers and references to constant fields.
+     */
+    private Object evaluateConstant(TreePath methodPath, ExpressionTree expression) {
+        if (expression instanceof ParenthesizedTree) {
+            return evaluateConstant(methodPath, ((ParenthesizedTree) expression).getExpression());
+        } else if (expression instanceof LiteralTree) {
+            return ((LiteralTree) expression).getValue();
+        } else if (expression.getKind() == Tree.Kind.UNARY_MINUS) {
+            Object value = evaluateConstant(methodPath, ((UnaryTree) expression).getExpression());
+            if (value instanceof Long) {
+                return -(Long) value;
+            } else if (value instanceof Integer) {
+                return -(Integer) value;
+            }
+            return null;
+        } else if (expression.getKind() == Tree.Kind.IDENTIFIER || expression.getKind() == Tree.Kind.MEMBER_SELECT) {
+            Element element = mTrees.getElement(TreePath.getPath(methodPath.getCompilationUnit(), expression));
+            return element instanceof VariableElement ? ((VariableElement) element).getConstantValue() : null;
+        }
+        return null;
+    }
+
+    private boolean isProductionOnly() {
+        return Boolean.parseBoolean(processingEnv.getOptions().get(PRODUCTION_ONLY_OPTION));
+    }
+
+    private static List<Entry> getProductionEntries(List<Entry> entries) {
+        List<Entry> productionEntries = new ArrayList<>(1);
+        for (Entry entry: entries) {
+            if (entry.mProduction) {
+                productionEntries.add(entry);
+            }
+        }
+        return productionEntries;
+    }
+
+    /**
+     * Walk the supertypes of the controller to find the context and configuration type arguments of
+     * ConfigurationController.
+     */
+    private List<? extends TypeMirror> findControllerTypeArguments(TypeElement controller) {
+        if (!controller.getTypeParameters().isEmpty()) {
+            return null;
+        }
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror type = controller.asType();
+        while (type != null && type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declaredType = (DeclaredType) type;
+            if (((TypeElement) declaredType.asElement()).getQualifiedName().contentEquals(CONTROLLER_NAME)) {
+                List<? extends TypeMirror> typeArguments = declaredType.getTypeArguments();
+                return typeArguments.size() == 2 && typeArguments.get(1).getKind() == TypeKind.DECLARED ? typeArguments : null;
+            }
+            TypeMirror superclass = null;
+            for (TypeMirror supertype: types.directSupertypes(type)) {
+                if (((DeclaredType) supertype).asElement().getKind() == ElementKind.CLASS) {
+                    superclass = supertype;
+                }
+            }
+            type = superclass;
+        }
+        return null;
+    }
+
+    private void writeTable(TypeElement controller, TypeMirror contextType, TypeMirror configurationType, List<Entry> entries) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(controller);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String tableName = getFlatName(controller) + TABLE_SUFFIX;
+        String controllerName = controller.getQualifiedName().toString();
+        String configurationName = configurationType.toString();
+        String controllerId = getControllerId(controller);
+
+        List<Element> originatingElements = new ArrayList<>();
+        originatingElements.add(controller);
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+                .append(" * Generated from ControllerConfiguration annotations for ").append(controller.getSimpleName()).append(". Do not edit.\n")
+                .append(" */\n")
+                .append("public final class ").append(tableName).append(" extends ").append(CORE_PACKAGE).append(".ConfigurationTable<").append(configurationName).append("> {\n");
+        Entry defaultEntry = null;
+        for (Entry entry: entries) {
+            if (entry.mProduction) {
+                source.append("    public static final long PRODUCTION_CONFIG_ID = ").append(entry.mId).append("L;\n");
+                if (defaultEntry == null) {
+                    defaultEntry = entry;
+                }
+            }
+        }
+        for (Entry entry: entries) {
+            if (entry.mDefault) {
+                defaultEntry = entry;
+            }
+        }
+        source.append("    public static final long DEFAULT_CONFIG_ID = ").append(defaultEntry.mId).append("L;\n");
+        source.append("    public static final boolean PRODUCTION_ONLY = ").append(isProductionOnly()).append(";\n");
+        if (controllerId != null) {
+            source.append("    public static final ").append(CORE_PACKAGE).append(".ControllerKey<").append(configurationName).append(", ").append(controllerName).append("> KEY = new ")
+                    .append(CORE_PACKAGE).append(".ControllerKey<>(").append(controllerName).append('.').append(CONTROLLER_ID_FIELD).append(");\n");
+        }
+        source.append("    public static final ").append(tableName).append(" INSTANCE = new ").append(tableName).append("();\n\n");
+
+        source.append("    private ").append(tableName).append("() {\n")
+                .append("        super(");
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            originatingElements.add(entry.mConfiguration);
+            source.append(i == 0 ? "\n" : ",\n")
+                    .append("                new ").append(CORE_PACKAGE).append(".ConfigurationDescriptor(").append(entry.mId).append("L, ")
+                    .append(quote(entry.mName)).append(", ").append(entry.mProduction).append(")");
+        }
+        source.append(");\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    protected ").append(configurationName).append(" create(int index) {\n")
+                .append("        switch (index) {\n");
+        for (int i = 0; i < entries.size(); i++) {
+            source.append("            case ").append(i).append(":\n")
+                    .append("                return new ").append(entries.get(i).mConfiguration.getQualifiedName()).append("();\n");
+        }
+        source.append("            default:\n")
+                .append("                throw new IllegalArgumentException(\"No configuration at index \" + index);\n")
+                .append("        }\n")
+                .append("    }\n");
+
+        if (controllerId != null) {
+            String locatorName = CORE_PACKAGE + ".ConfigurationServiceLocator<" + contextType + ">";
+            source.append("\n")
+                    .append("    public static ").append(controllerName).append(" registerController(").append(locatorName).append(" locator, ").append(controllerName).append(" controller) {\n")
+                    .append("        return locator.registerController(KEY, controller);\n")
+                    .append("    }\n\n")
+                    .append("    public static ").append(controllerName).append(" getController(").append(locatorName).append(" locator) {\n")
+                    .append("        return locator.getController(KEY);\n")
+                    .append("    }\n\n")
+                    .append("    public static ").append(configurationName).append(" getConfiguration(").append(locatorName).append(" locator) {\n")
+                    .append("        return locator.getConfiguration(KEY);\n")
+                    .append("    }\n");
+        }
+        source.append("}\n");
+
+        String qualifiedTableName = packageName.isEmpty() ? tableName : packageName + "." + tableName;
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedTableName, originatingElements.toArray(new Element[originatingElements.size()]));
+            Writer writer = sourceFile.openWriter();
+            try {
+                writer.write(source.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + qualifiedTableName + ": " + e.getMessage(), controller);
+        }
+    }
+
+    /**
+     * Return the controller's CONTROLLER_ID if it declares one as a String constant.
+     */
+    private static String getControllerId(TypeElement controller) {
+        for (VariableElement field: ElementFilter.fieldsIn(controller.getEnclosedElements())) {
+            if (field.getSimpleName().contentEquals(CONTROLLER_ID_FIELD) && field.getModifiers().contains(Modifier.STATIC)
+                    && !field.getModifiers().contains(Modifier.PRIVATE) && field.getConstantValue() instanceof String) {
+                return (String) field.getConstantValue();
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasAccessibleNoArgConstructor(TypeElement element) {
+        if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+            return false;
+        }
+        for (ExecutableElement constructor: ElementFilter.constructorsIn(element.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static AnnotationMirror getAnnotationMirror(Element element, TypeElement annotationElement) {
+        for (AnnotationMirror annotationMirror: element.getAnnotationMirrors()) {
+            if (annotationMirror.getAnnotationType().asElement().equals(annotationElement)) {
+                return annotationMirror;
+            }
+        }
+        return null;
+    }
+
+    private static String getFlatName(TypeElement element) {
+        String name = element.getSimpleName().toString();
+        Element enclosing = element.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name = enclosing.getSimpleName() + "_" + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name;
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            if (character == '"' || character == '\\') {
+                quoted.append('\\').append(character);
+            } else if (character < 0x20 || character > 0x7e) {
+                quoted.append(String.format("\\u%04x", (int) character));
+            } else {
+                quoted.append(character);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static class Entry {
+        TypeElement mConfiguration;
+        AnnotationMirror mAnnotationMirror;
+        TypeElement mController;
+        long mId;
+        String mName;
+        boolean mProduction;
+        boolean mDefault;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration.processor;
+
+import com.bottlerocketstudios.configuration.core.Configuration;
+import com.bottlerocketstudios.configuration.core.ConfigurationDescriptor;
+import com.bottlerocketstudios.configuration.core.ConfigurationServiceLocator;
+import com.bottlerocketstudios.configuration.core.ConfigurationTable;
+import com.bottlerocketstudios.configuration.core.InMemorySelectionStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles small sources with the processor using the system compiler.
+ */
+public class ConfigurationProcessorTest {
+    private static final String CONTROLLER = "package test;\n"
+            + "public class ServerController extends com.bottlerocketstudios.configuration.core.ConfigurationController<Void, ServerConfiguration> {\n"
+            + "    public static final String CONTROLLER_ID = \"server\";\n"
+            + "    protected long getDefaultAppConfigId() { return ServerController_ConfigurationTable.PRODUCTION_CONFIG_ID; }\n"
+            + "    protected void addAllApplicationConfigurations() { putApplicationConfigurations(ServerController_ConfigurationTable.INSTANCE); }\n"
+            + "    protected boolean shouldExitOnChange() { return false; }\n"
+            + "}\n";
+    private static final String BASE_CONFIGURATION = "package test;\n"
+            + "public abstract class ServerConfiguration implements com.bottlerocketstudios.configuration.core.Configuration<Void> {\n"
+            + "    public void init(Void context) {}\n"
+            + "}\n";
+
+    private File mOutputDirectory;
+    private DiagnosticCollector<JavaFileObject> mDiagnostics;
+
+    @Before
+    public void setUp() throws IOException {
+        mOutputDirectory = File.createTempFile("processor", "");
+        assertTrue(mOutputDirectory.delete());
+        assertTrue(mOutputDirectory.mkdir());
+        mDiagnostics = new DiagnosticCollector<>();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mOutputDirectory);
+    }
+
+    @Test
+    public void testGeneratesTable() throws Exception {
+        assertTrue(compile(configuration("Production", 1, true), configuration("Staging", 2, false)));
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {mOutputDirectory.toURI().toURL()}, getClass().getClassLoader());
+        ConfigurationTable<?> table = (ConfigurationTable<?>) classLoader.loadClass("test.ServerController_ConfigurationTable").getField("INSTANCE").get(null);
+        assertEquals(2, table.getDescriptors().size());
+        ConfigurationDescriptor staging = table.getDescriptors().get(1);
+        assertEquals("Staging", staging.getName());
+        assertEquals(2, table.create(staging).getId());
+        assertEquals(1L, classLoader.loadClass("test.ServerController_ConfigurationTable").getField("PRODUCTION_CONFIG_ID").get(null));
+        assertFalse(classLoader.loadClass("test.ServerController_ConfigurationTable").getField("KEY").get(null) == null);
+    }
+
+    @Test
+    public void testGeneratesTypedAccessors() throws Exception {
+        assertTrue(compile(configuration("Production", 1, true), configuration("Staging", 2, false)));
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {mOutputDirectory.toURI().toURL()}, getClass().getClassLoader());
+        Class<?> tableClass = classLoader.loadClass("test.ServerController_ConfigurationTable");
+        Class<?> controllerClass = classLoader.loadClass("test.ServerController");
+        ConfigurationServiceLocator<Void> locator = new ConfigurationServiceLocator<>();
+        locator.setSelectionStore(new InMemorySelectionStore());
+        locator.initialize(null, true, true);
+
+        Object controller = controllerClass.getConstructor().newInstance();
+        assertSame(controller, tableClass.getMethod("registerController", ConfigurationServiceLocator.class, controllerClass).invoke(null, locator, controller));
+        assertSame(controller, tableClass.getMethod("getController", ConfigurationServiceLocator.class).invoke(null, locator));
+        Configuration<?> configuration = (Configuration<?>) tableClass.getMethod("getConfiguration", ConfigurationServiceLocator.class).invoke(null, locator);
+        assertEquals(1, configuration.getId());
+        assertEquals("test.ServerConfiguration", tableClass.getMethod("getConfiguration", ConfigurationServiceLocator.class).getReturnType().getName());
+    }
+
+    @Test
+    public void testProductionOnlyTableOmitsOtherConfigurations() throws Exception {
+        assertTrue(compile(Collections.singletonList("-A" + ConfigurationProcessor.PRODUCTION_ONLY_OPTION + "=true"), configuration("Production", 1, true), configuration("Staging", 2, false)));
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {mOutputDirectory.toURI().toURL()}, getClass().getClassLoader());
+        Class<?> tableClass = classLoader.loadClass("test.ServerController_ConfigurationTable");
+        ConfigurationTable<?> table = (ConfigurationTable<?>) tableClass.getField("INSTANCE").get(null);
+        assertEquals(1, table.getDescriptors().size());
+        assertTrue(table.getDescriptors().get(0).isProduction());
+        assertEquals(true, tableClass.getField("PRODUCTION_ONLY").get(null));
+
+        String generated = new String(Files.readAllBytes(new File(mOutputDirectory, "test/ServerController_ConfigurationTable.java").toPath()), "UTF-8");
+        assertFalse(generated.contains("Staging"));
+    }
+
+    @Test
+    public void testDefaultConfigIdDefaultsToProduction() throws Exception {
+        assertTrue(compile(configuration("Production", 1, true), configuration("Staging", 2, false)));
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {mOutputDirectory.toURI().toURL()}, getClass().getClassLoader());
+        assertEquals(1L, classLoader.loadClass("test.ServerController_ConfigurationTable").getField("DEFAULT_CONFIG_ID").get(null));
+    }
+
+    @Test
+    public void testMarkedDefaultConfiguration() throws Exception {
+        assertTrue(compile(configuration("Production", 1, true), configuration("Staging", 2, false, true)));
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {mOutputDirectory.toURI().toURL()}, getClass().getClassLoader());
+        assertEquals(2L, classLoader.loadClass("test.ServerController_ConfigurationTable").getField("DEFAULT_CONFIG_ID").get(null));
+    }
+
+    @Test
+    public void testProductionOnlyWithStagingDefaultIsAnError() {
+        assertFalse(compile(Collections.singletonList("-A" + ConfigurationProcessor.PRODUCTION_ONLY_OPTION + "=true"), configuration("Production", 1, true), configuration("Staging", 2, false, true)));
+        assertError("Default configuration test.Staging of test.ServerController is not production");
+    }
+
+    @Test
+    public void testProductionOnlyWithProductionDefault() {
+        assertTrue(compile(Collections.singletonList("-A" + ConfigurationProcessor.PRODUCTION_ONLY_OPTION + "=true"), configuration("Production", 1, true, true), configuration("Staging", 2, false)));
+    }
+
+    @Test
+    public void testDuplicateDefaultIsAnError() {
+        assertFalse(compile(configuration("Production", 1, true, true), configuration("Staging", 2, false, true)));
+        assertError("More than one default configuration");
+    }
+
+    @Test
+    public void testIdNotMatchingGetIdIsAnError() {
+        assertFalse(compile(configuration("Production", 1, true), configuration("Staging", 2, "return 3L;", "return false;")));
+        assertError("ControllerConfiguration id 2 of test.Staging does not match 3 returned by getId()");
+    }
+
+    @Test
+    public void testIdNotMatchingConstantIsAnError() {
+        assertFalse(compile(configuration("Production", 1, true), configuration("Staging", 2, "return Constants.STAGING_ID;", "return false;"),
+                source("test.Constants", "package test;\npublic class Constants {\n    public static final long STAGING_ID = 4;\n}\n")));
+        assertError("does not match 4 returned by getId()");
+    }
+
+    @Test
+    public void testProductionNotMatchingIsProductionIsAnError() {
+        assertFalse(compile(configuration("Production", 1, true), configuration("Staging", 2, "return 2;", "return (true);")));
+        assertError("ControllerConfiguration production false of test.Staging does not match true returned by isProduction()");
+    }
+
+    @Test
+    public void testComputedValuesAreLeftToRuntime() {
+        assertTrue(compile(configuration("Production", 1, true), configuration("Staging", 2, "return Long.parseLong(\"3\");", "return Boolean.getBoolean(\"production\");")));
+    }
+
+    @Test
+    public void testDuplicateIdIsAnError() {
+        assertFalse(compile(configuration("Production", 1, true), configuration("Staging", 1, false)));
+        assertError("Duplicate configuration id 1");
+    }
+
+    @Test
+    public void testMissingProductionIsAnError() {
+        assertFalse(compile(configuration("Staging", 2, false)));
+        assertError("No production configuration");
+    }
+
+    @Test
+    public void testDuplicateProductionIsAnError() {
+        assertFalse(compile(configuration("Production", 1, true), configuration("Staging", 2, true)));
+        assertError("More than one production configuration");
+    }
+
+    private static JavaFileObject configuration(String name, long id, boolean production) {
+        return configuration(name, id, production, false);
+    }
+
+    private static JavaFileObject configuration(String name, long id, boolean production, boolean defaultConfiguration) {
+        return source("test." + name, "package test;\n"
+                + "@com.bottlerocketstudios.configuration.core.ControllerConfiguration(controller = ServerController.class, id = " + id + ", name = \"" + name + "\", production = " + production
+                + ", defaultConfiguration = " + defaultConfiguration + ")\n"
+                + "public class " + name + " extends ServerConfiguration {\n"
+                + "    public long getId() { return " + id + "; }\n"
+                + "    public String getName() { return \"" + name + "\"; }\n"
+                + "    public boolean isProduction() { return " + production + "; }\n"
+                + "}\n");
+    }
+
+    private static JavaFileObject configuration(String name, long id, String getIdBody, String isProductionBody) {
+        return source("test." + name, "package test;\n"
+                + "@com.bottlerocketstudios.configuration.core.ControllerConfiguration(controller = ServerController.class, id = " + id + ", name = \"" + name + "\")\n"
+                + "public class " + name + " extends ServerConfiguration {\n"
+                + "    public long getId() { " + getIdBody + " }\n"
+                + "    public String getName() { return \"" + name + "\"; }\n"
+                + "    public boolean isProduction() { " + isProductionBody + " }\n"
+                + "}\n");
+    }
+
+    private boolean compile(JavaFileObject... configurations) {
+        return compile(Collections.<String>emptyList(), configurations);
+    }
+
+    private boolean compile(List<String> processorOptions, JavaFileObject... configurations) {
+        List<JavaFileObject> sources = new ArrayList<>(Arrays.asList(configurations));
+        sources.add(source("test.ServerController", CONTROLLER));
+        sources.add(source("test.ServerConfiguration", BASE_CONFIGURATION));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> options = new ArrayList<>(Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", mOutputDirectory.getPath(), "-s", mOutputDirectory.getPath()));
+        options.addAll(processorOptions);
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, mDiagnostics, options, null, sources);
+        task.setProcessors(Collections.singletonList(new ConfigurationProcessor()));
+        return task.call();
+    }
+
+    private void assertError(String message) {
+        for (Diagnostic<? extends JavaFileObject> diagnostic: mDiagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && diagnostic.getMessage(null).contains(message)) {
+                return;
+            }
+        }
+        throw new AssertionError("Expected error containing \"" + message + "\" in " + mDiagnostics.getDiagnostics());
+    }
+
+    private static JavaFileObject source(String className, final String content) {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return content;
+            }
+        };
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -20,6 +20,7 @@ import android.test.AndroidTestCase;
 
 import com.bottlerocketstudios.applicationconfiguration.BuildConfig;
 import com.bottlerocketstudios.configuration.configuration.TestConfigurationController;
+import com.bottlerocketstudios.configuration.configuration.TestProductionServerConfiguration;
 import com.bottlerocketstudios.configuration.configuration.TestServerConfiguration;
 import com.bottlerocketstudios.configuration.configuration.TestStagingServerConfiguration;
 
@@ -38,4 +39,40 @@ public class ConfigurationTest extends AndroidTestCase {
         assertSame("Did not get same configuration", testConfigurationController.getCurrentApplicationConfiguration(), testServerConfiguration);
         assertEquals("Server was not staging server", TestStagingServerConfiguration.SERVER_HOST, testServerConfiguration.getServerHost());
     }
+
+    public void testControllerKey() {
+        ApplicationConfigurationServiceLocator.getInstance().initialize(
+                getContext(),
+                true,
+                BuildConfig.DEBUG);
+        TestConfigurationController controller = ApplicationConfigurationServiceLocator.initConfigurationController(
+                TestConfigurationController.KEY,
+                new TestConfigurationController());
+
+        assertSame("Did not get same controller", controller, ApplicationConfigurationServiceLocator.getConfigurationController(TestConfigurationController.KEY));
+        assertSame("Did not get same controller by id", controller, ApplicationConfigurationServiceLocator.getConfigurationController(TestConfigurationController.CONTROLLER_ID, TestConfigurationController.class));
+        assertSame("Did not get same configuration", controller.getCurrentApplicationConfiguration(), ApplicationConfigurationServiceLocator.getCurrentConfiguration(TestConfigurationController.KEY));
+    }
+
+    public void testDuplicateConfigurationId() {
+        ApplicationConfigurationController<TestServerConfiguration> controller = new TestConfigurationController() {
+            @Override
+            protected void addAllApplicationConfigurations() {
+                super.addAllApplicationConfigurations();
+                putApplicationConfiguration(new TestStagingServerConfiguration() {
+                    @Override
+                    public long getId() {
+                        return TestProductionServerConfiguration.CONFIGURATION_ID;
+                    }
+                });
+            }
+        };
+
+        try {
+            controller.initialize(getContext(), "DuplicateConfigurationId", true, BuildConfig.DEBUG);
+            fail("Duplicate configuration id was not rejected");
+        } catch (IllegalStateException expected) {
+            //Expected
+        }
+    }
 }
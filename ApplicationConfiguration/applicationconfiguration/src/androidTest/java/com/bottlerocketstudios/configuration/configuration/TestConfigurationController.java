@@ -17,9 +17,11 @@
 package com.bottlerocketstudios.configuration.configuration;
 
 import com.bottlerocketstudios.configuration.ApplicationConfigurationController;
+import com.bottlerocketstudios.configuration.core.ControllerKey;
 
 public class TestConfigurationController extends ApplicationConfigurationController<TestServerConfiguration> {
     public static final String CONTROLLER_ID = "TestConfigurationController";
+    public static final ControllerKey<TestServerConfiguration, TestConfigurationController> KEY = new ControllerKey<>(CONTROLLER_ID);
 
     @Override
     protected long getDefaultAppConfigId() {
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.util.Log;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationLog;
+import com.bottlerocketstudios.configuration.core.ConfigurationLogger;
+
+/**
+ * Routes library logging to android.util.Log.
+ */
+class AndroidConfigurationLogger implements ConfigurationLogger {
+
+    static void install() {
+        if (!(ConfigurationLog.getLogger() instanceof AndroidConfigurationLogger)) {
+            ConfigurationLog.setLogger(new AndroidConfigurationLogger());
+        }
+    }
+
+    @Override
+    public void i(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void w(String tag, String message, Throwable throwable) {
+        Log.w(tag, message, throwable);
+    }
+
+    @Override
+    public void e(String tag, String message, Throwable throwable) {
+        Log.e(tag, message, throwable);
+    }
+}
@@ -18,27 +18,16 @@ package com.bottlerocketstudios.configuration;
 
 import android.content.Context;
 
-public interface ApplicationConfiguration {
-    /**
-     * Return a unique long value for configuration.
-     */
-    public long getId();
-
-    /**
-     * Return a string which will name this configuration. Can be used for convenience to display when
-     * selecting environments.
-     */
-    public String getName();
+import com.bottlerocketstudios.configuration.core.Configuration;
 
+/**
+ * Configuration initialized with an Android Context.
+ */
+public interface ApplicationConfiguration extends Configuration<Context> {
     /**
      * Load any resources that require a context on initialization.
      */
+    @Override
     public void init(Context context);
 
-    /**
-     * Determine if this configuration can be used in production. Only one configuration in a set
-     * should be allowed to do this.
-     */
-    public boolean isProduction();
-
 }
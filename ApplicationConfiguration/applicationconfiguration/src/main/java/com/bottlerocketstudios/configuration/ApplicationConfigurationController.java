@@ -17,198 +17,73 @@
 package com.bottlerocketstudios.configuration;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
-import android.util.Log;
-import android.widget.Toast;
+import android.os.Process;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import com.bottlerocketstudios.configuration.core.ConfigurationController;
+import com.bottlerocketstudios.configuration.core.ConfigurationWarningPresenter;
+import com.bottlerocketstudios.configuration.core.SelectionStore;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages the state and ability to switch application configurations for different aspects of the application.
  * Will warn when in a non production mode. Each type of configuration that switch modes should have its
  * own ApplicationConfigurationController managed by the ApplicationConfigurationServiceLocator.
+ * Selections are stored in a memory-mapped file and warnings are shown as a Toast. Warm standby runs
+ * on a shared thread at the lowest Linux priority.
  */
-public abstract class ApplicationConfigurationController<T extends ApplicationConfiguration> {
-    
-    private static final String TAG = ApplicationConfigurationController.class.getSimpleName();
-
-    protected static final long INVALID_CONFIG_ID = -1;
-
-    private Context mContext;
-    
-    private Boolean mStagingAllowed;
-    private Long mSelectedConfigId;
-    private long mProductionConfigId = INVALID_CONFIG_ID;
-    private String mSettingKeyAddition;
-    private Set<ApplicationConfigurationControllerListener> mListeners;
-    private Map<Long, T> mApplicationConfigurationMap;
+public abstract class ApplicationConfigurationController<T extends ApplicationConfiguration> extends ConfigurationController<Context, T> {
 
-    public ApplicationConfigurationController() {
-        mListeners = new HashSet<>();
-        mApplicationConfigurationMap = new HashMap<>();
+    static {
+        AndroidConfigurationLogger.install();
     }
-    
+
     @SuppressWarnings("unused")
+    @Override
     public void initialize(Context context, String keyAddition, boolean stagingAllowed, boolean isDebugBuild) {
-        mContext = context.getApplicationContext();
-        mStagingAllowed = stagingAllowed;
-        mSettingKeyAddition = keyAddition;
-
-        addAllApplicationConfigurations();
-        initAllApplicationConfigurations();
-        validateAllApplicationConfigurations();
-
-        if (isStagingEnabled() && !isDebugBuild) {
-            Toast.makeText(mContext, "DEBUG: STAGING IS IN USE FOR " + keyAddition, Toast.LENGTH_LONG).show();
-        }
-    }
-
-    /**
-     * Are staging environments allowed for this controller.
-     */
-    public boolean isStagingAllowed() {
-        return mStagingAllowed;
-    }
-
-    private boolean isStagingEnabled() {
-        return getSelectedConfigId() != getProductionConfigId();
-    }
-
-    protected long getSelectedConfigId() {
-        if (!isStagingAllowed()) {
-            //Cannot be enabled if it is not allowed, ignore configuration value.
-            mSelectedConfigId = getProductionConfigId();
-        }
-
-        if (mSelectedConfigId == null) {
-            //Lazy load from config on first read.
-            SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
-            mSelectedConfigId = sharedPrefs.getLong(getSettingKey(), getDefaultAppConfigId());
-        }
-
-        return mSelectedConfigId;
-    }
-
-    /**
-     * Select the specified application configuration by Id. This method will notify all listeners then
-     * shutdown the application by calling System.exit(0);
-     */
-    public void setSelectedConfigId(long applicationConfigId) {
-        T newApplicationConfig = getApplicationConfigurationById(applicationConfigId);
-        if (isStagingAllowed() && newApplicationConfig != null && applicationConfigId != getSelectedConfigId()) {
-            mSelectedConfigId = applicationConfigId;
-            SharedPreferences.Editor sharedPrefsEditor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
-            sharedPrefsEditor.putLong(getSettingKey(), applicationConfigId);
-            sharedPrefsEditor.commit();
-            Log.i(TAG, "Notifying listeners for switch to " + newApplicationConfig.getName() + ".");
-            for (ApplicationConfigurationControllerListener listener: mListeners) {
-                listener.onStagingSwitch(mContext, newApplicationConfig);
-            }
-            if (shouldExitOnChange()) {
-                Log.i(TAG, "Shutting down VM to affect staging switch.");
-                System.exit(0);
-            }
-        }
-    }
-    
-    protected String getSettingKey() {
-        return "com.bottlerocketstudios.configuration.ApplicationConfigurationController."
-                + mSettingKeyAddition + ".selectedConfigId";
-    }
-
-    /**
-     * Register interest in configuration changes.
-     */
-    public void addListener(ApplicationConfigurationControllerListener<T> listener) {
-        mListeners.add(listener);
-    }
-
-    /**
-     * Unregister interest in configuration changes.
-     */
-    public void removeListener(ApplicationConfigurationControllerListener<T> listener) {
-        mListeners.remove(listener);
-    }
-
-    protected void putApplicationConfiguration(T applicationConfiguration) {
-        mApplicationConfigurationMap.put(applicationConfiguration.getId(), applicationConfiguration);
-        if (applicationConfiguration.isProduction()) {
-            if (getProductionConfigId() == INVALID_CONFIG_ID) {
-                setProductionConfigId(applicationConfiguration.getId());
-            } else {
-                throw new IllegalStateException("You have added two configurations to the same set which both report isProduction() == true");
-            }
-        }
-    }
-
-    private Map<Long, T> getApplicationConfigurationMap() {
-        return mApplicationConfigurationMap;
+        super.initialize(context.getApplicationContext(), keyAddition, stagingAllowed, isDebugBuild);
     }
 
-    private T getApplicationConfigurationById(long id) {
-        return mApplicationConfigurationMap.get(id);
+    @Override
+    protected SelectionStore createSelectionStore(Context context) {
+        return SelectionStores.getDefaultSelectionStore(context);
     }
 
-    /**
-     * Get the currently selected application configuration.
-     */
-    public T getCurrentApplicationConfiguration() {
-        T applicationConfiguration = getApplicationConfigurationById(getSelectedConfigId());
-        if (applicationConfiguration == null) {
-            Log.w(TAG, "Selected Configuration was null. Falling back to production configuration.");
-            applicationConfiguration = getApplicationConfigurationById(getProductionConfigId());
-        }
-        return applicationConfiguration;
-    }
-
-    /**
-     * Return the ID for the production configuration.
-     */
-    public long getProductionConfigId() {
-        return mProductionConfigId;
-    }
-
-    private void setProductionConfigId(long productionConfigId) {
-        mProductionConfigId = productionConfigId;
+    @Override
+    protected ConfigurationWarningPresenter createWarningPresenter(Context context) {
+        return new ToastWarningPresenter(context);
     }
 
-    private void initAllApplicationConfigurations() {
-        for (T appConfig: getApplicationConfigurationMap().values()) {
-            appConfig.init(mContext);
-        }
+    @Override
+    protected Executor createStandbyExecutor() {
+        return StandbyExecutorHolder.instance;
     }
 
-    private void validateAllApplicationConfigurations() {
-        if (getProductionConfigId() == INVALID_CONFIG_ID) {
-            throw new IllegalStateException("None of the application configurations report isProduction() == true");
-        }
+    private static class StandbyExecutorHolder {
+        public static final Executor instance = createIdleExecutor();
 
-        if (getApplicationConfigurationMap().size() == 0) {
-            throw new IllegalStateException("No application configurations were provided");
+        private static Executor createIdleExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                            runnable.run();
+                        }
+                    }, "ApplicationConfiguration-Standby");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
         }
     }
 
-    /**
-     * Return the ID for the configuration ID that is considered default for this build. Builds in which
-     * staging is not allowed will ignore this value altogether and use the production environment.
-     */
-    protected abstract long getDefaultAppConfigId();
-
-    /**
-     * Call putApplicationConfiguration for all of your application configuration objects. Exactly one
-     * must return isProduction() == true. After this call the init method for your configurations will
-     * be called.
-     */
-    protected abstract void addAllApplicationConfigurations();
-
-    /**
-     * Return true if you want the application to be killed immediately after storing the newly selected
-     * environment and waiting for notified listeners to complete.
-     */
-    protected abstract boolean shouldExitOnChange();
-
 }
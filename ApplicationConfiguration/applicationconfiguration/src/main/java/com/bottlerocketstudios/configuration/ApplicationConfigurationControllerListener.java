@@ -18,15 +18,20 @@ package com.bottlerocketstudios.configuration;
 
 import android.content.Context;
 
+import com.bottlerocketstudios.configuration.core.ConfigurationListener;
+
 /**
  * Listener interface for the application configuration controller. A strong reference is retained to these
- * listeners when added to the ApplicationConfigurationController and they will be notified of
- * events related to application configuration switches.
+ * listeners when added to the ApplicationConfigurationController with addListener, or a weak reference
+ * when added with addWeakListener, and they will be notified of events related to application
+ * configuration switches.
  */
-public interface ApplicationConfigurationControllerListener <T extends ApplicationConfiguration>{
+public interface ApplicationConfigurationControllerListener <T extends ApplicationConfiguration> extends ConfigurationListener<Context, T> {
     /**
      * A staging configuration change has occurred, clear any cached configuration or data that is subject
-     * to change when switching to staging.
+     * to change when switching to staging. When live swap is enabled on the controller the process keeps
+     * running, so rebuild any clients that were created from the previous configuration.
      */
+    @Override
     public void onStagingSwitch(Context context, T applicationConfiguration);
 }
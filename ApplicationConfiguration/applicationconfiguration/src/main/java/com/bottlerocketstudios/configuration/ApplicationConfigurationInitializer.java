@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.content.Context;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationInitializer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Initializes several ApplicationConfigurationControllers in parallel and registers them with the
+ * ApplicationConfigurationServiceLocator. ApplicationConfigurationServiceLocator.getInstance().initialize()
+ * must be called before start().
+ */
+public class ApplicationConfigurationInitializer extends ConfigurationInitializer<Context> {
+
+    /**
+     * Create an initializer backed by a bounded pool sized to the device, which is shut down once
+     * initialization completes.
+     */
+    public ApplicationConfigurationInitializer() {
+        super(ApplicationConfigurationServiceLocator.getInstance());
+    }
+
+    /**
+     * Create an initializer that runs controller and configuration initialization on the supplied executor.
+     */
+    public ApplicationConfigurationInitializer(Executor executor) {
+        super(ApplicationConfigurationServiceLocator.getInstance(), executor);
+    }
+}
@@ -16,28 +16,30 @@
 
 package com.bottlerocketstudios.configuration;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.widget.Toast;
+import android.content.res.Configuration;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.bottlerocketstudios.configuration.core.ConfigurationServiceLocator;
+import com.bottlerocketstudios.configuration.core.ConfigurationWarningPresenter;
+import com.bottlerocketstudios.configuration.core.ControllerKey;
+import com.bottlerocketstudios.configuration.core.SelectionStore;
 
 /**
  * Application wide service locator for one or more ApplicationConfigurationControllers. A call
  * to initialize should be placed in the application object's onCreate. This will show a warning toast
- * on release builds with staging allowed.
+ * on release builds with staging allowed. Inactive configurations registered with a factory are
+ * released when the system reports memory pressure.
  */
-public class ApplicationConfigurationServiceLocator {
-    private static final String TAG = ApplicationConfigurationServiceLocator.class.getSimpleName();
-    
-    private Map<String, ApplicationConfigurationController<?>> mControllers;
-    private Context mContext;
-    private Boolean mStagingAllowed;
-    private boolean mDebugBuild;
+public class ApplicationConfigurationServiceLocator extends ConfigurationServiceLocator<Context> {
 
-    private ApplicationConfigurationServiceLocator() {
-        mControllers = new HashMap<>();
+    static {
+        AndroidConfigurationLogger.install();
     }
+
+    private boolean mTrimMemoryCallbacksRegistered;
+
+    private ApplicationConfigurationServiceLocator() {}
     
     /**
      * SingletonHolder is loaded on the first execution of Singleton.getInstance()
@@ -55,49 +57,82 @@ public class ApplicationConfigurationServiceLocator {
     }
     
     @SuppressWarnings("unused")
+    @Override
     public void initialize(Context context, boolean allowStaging, boolean isDebugBuild) {
-        mContext = context.getApplicationContext();
-        mStagingAllowed = allowStaging;
-        mDebugBuild = isDebugBuild;
-        if (isStagingAllowed() && !mDebugBuild) {
-            Toast.makeText(mContext, "DEBUG: STAGING ALLOWED ON A RELEASE BUILD.", Toast.LENGTH_LONG).show();
+        Context applicationContext = context.getApplicationContext();
+        super.initialize(applicationContext, allowStaging, isDebugBuild);
+        synchronized (this) {
+            if (!mTrimMemoryCallbacksRegistered) {
+                applicationContext.registerComponentCallbacks(new TrimMemoryCallbacks());
+                mTrimMemoryCallbacksRegistered = true;
+            }
         }
     }
 
-    public boolean isStagingAllowed() {
-        return mStagingAllowed;
+    @Override
+    protected SelectionStore createSelectionStore(Context context) {
+        return SelectionStores.getDefaultSelectionStore(context);
     }
 
-    public boolean isDebugBuild() {
-        return mDebugBuild;
+    @Override
+    protected ConfigurationWarningPresenter createWarningPresenter(Context context) {
+        return new ToastWarningPresenter(context);
     }
 
     /**
      * Initialize the supplied configuration controller and associate it with the supplied identifier
      */
     public static ApplicationConfigurationController initConfigurationController(String controllerId, ApplicationConfigurationController<?> controller) {
-        getInstance().putConfigurationController(controllerId, controller);
-        getInstance().initializeController(controllerId, controller);
-        return controller;
+        return getInstance().registerController(controllerId, controller);
     }
 
-    private void putConfigurationController(String controllerId, ApplicationConfigurationController<?> controller) {
-        mControllers.put(controllerId, controller);
-    }
-
-    private void initializeController(String controllerId, ApplicationConfigurationController<?> controller) {
-        controller.initialize(mContext, controllerId, isStagingAllowed(), isDebugBuild());
+    /**
+     * Initialize the supplied configuration controller and resolve the key to its slot for fast lookups.
+     */
+    public static <AC extends ApplicationConfiguration, T extends ApplicationConfigurationController<AC>> T initConfigurationController(ControllerKey<AC, T> controllerKey, T controller) {
+        return getInstance().registerController(controllerKey, controller);
     }
 
     /**
      * Get configuration associated with the controllerId
      */
     public static <T extends ApplicationConfigurationController<?>> T getConfigurationController(String controllerId, Class<T> configurationControllerClass) {
-        return configurationControllerClass.cast(getInstance().mControllers.get(controllerId));
+        return getInstance().getController(controllerId, configurationControllerClass);
+    }
+
+    /**
+     * Get the configuration controller associated with the key or null if it has not been registered.
+     */
+    public static <AC extends ApplicationConfiguration, T extends ApplicationConfigurationController<AC>> T getConfigurationController(ControllerKey<AC, T> controllerKey) {
+        return getInstance().getController(controllerKey);
     }
 
     public static <AC extends ApplicationConfiguration, T extends ApplicationConfigurationController<AC>> AC getCurrentConfiguration(String controllerId, Class<T> configurationControllerClass) {
-        return getConfigurationController(controllerId, configurationControllerClass).getCurrentApplicationConfiguration();
+        return getInstance().getConfiguration(controllerId, configurationControllerClass);
     }
-    
+
+    /**
+     * Get the current configuration of the controller associated with the key.
+     */
+    public static <AC extends ApplicationConfiguration, T extends ApplicationConfigurationController<AC>> AC getCurrentConfiguration(ControllerKey<AC, T> controllerKey) {
+        return getInstance().getConfiguration(controllerKey);
+    }
+
+    private class TrimMemoryCallbacks implements ComponentCallbacks2 {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                releaseInactiveConfigurations();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            releaseInactiveConfigurations();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {}
+    }
+
 }
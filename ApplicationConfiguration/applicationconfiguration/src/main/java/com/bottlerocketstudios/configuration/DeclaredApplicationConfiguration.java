@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.content.Context;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationDefinition;
+import com.bottlerocketstudios.configuration.core.DeclaredConfiguration;
+
+/**
+ * ApplicationConfiguration whose values come from a definition file in the assets directory.
+ */
+public class DeclaredApplicationConfiguration extends DeclaredConfiguration<Context> implements ApplicationConfiguration {
+
+    public DeclaredApplicationConfiguration(ConfigurationDefinition definition) {
+        super(definition);
+    }
+
+    @Override
+    public void init(Context context) {}
+
+}
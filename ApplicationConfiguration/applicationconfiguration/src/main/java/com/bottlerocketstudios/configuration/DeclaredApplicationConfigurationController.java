@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationDefinitions;
+import com.bottlerocketstudios.configuration.core.ConfigurationDescriptor;
+import com.bottlerocketstudios.configuration.core.ConfigurationFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * ApplicationConfigurationController whose configurations are declared in a definition file in the
+ * assets directory. See ConfigurationDefinitions for the file format. The file is parsed on the first
+ * launch of each installed version and a binary snapshot in the cache directory is used afterwards.
+ * Configurations are created only when selected or enumerated.
+ */
+public abstract class DeclaredApplicationConfigurationController extends ApplicationConfigurationController<DeclaredApplicationConfiguration> {
+
+    @Override
+    protected void addAllApplicationConfigurations() {
+        final ConfigurationDefinitions definitions = loadDefinitions(getContext(), getDefinitionAssetName());
+        putApplicationConfigurations(definitions, new ConfigurationFactory<DeclaredApplicationConfiguration>() {
+            @Override
+            public DeclaredApplicationConfiguration create(ConfigurationDescriptor descriptor) {
+                return createApplicationConfiguration(definitions, descriptor);
+            }
+        });
+    }
+
+    /**
+     * Create the configuration for a definition. Override to return a subclass with typed accessors.
+     */
+    protected DeclaredApplicationConfiguration createApplicationConfiguration(ConfigurationDefinitions definitions, ConfigurationDescriptor descriptor) {
+        return new DeclaredApplicationConfiguration(definitions.get(descriptor.getId()));
+    }
+
+    /**
+     * Return the path of the definition file in the assets directory.
+     */
+    protected abstract String getDefinitionAssetName();
+
+    /**
+     * Load definitions from the asset, or from its snapshot if the installed app has not changed since
+     * it was written.
+     */
+    public static ConfigurationDefinitions loadDefinitions(final Context context, final String assetName) {
+        PackageInfo packageInfo;
+        try {
+            packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IllegalStateException("Unable to read package info", e);
+        }
+
+        File snapshotFile = new File(context.getCacheDir(), "configuration_" + assetName.replace('/', '_') + ".snapshot");
+        try {
+            return ConfigurationDefinitions.load(new ConfigurationDefinitions.Source() {
+                @Override
+                public Reader open() throws IOException {
+                    return new InputStreamReader(context.getAssets().open(assetName), Charset.forName("UTF-8"));
+                }
+            }, snapshotFile, packageInfo.versionCode, packageInfo.lastUpdateTime);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load configuration definitions from " + assetName, e);
+        }
+    }
+}
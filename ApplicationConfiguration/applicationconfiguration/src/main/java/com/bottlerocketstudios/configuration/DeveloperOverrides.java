@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+import com.bottlerocketstudios.configuration.core.LayeredProperties;
+
+import java.io.File;
+
+/**
+ * Loads a layer of LayeredProperties from a key=value file in the app's external files directory so
+ * developers can override properties on a device with adb push. Ignored unless the app is debuggable.
+ */
+public final class DeveloperOverrides {
+
+    public static final String OVERRIDE_FILE_NAME = "configuration_overrides.properties";
+
+    private DeveloperOverrides() {}
+
+    /**
+     * Apply the override file to the layer, or clear the layer if there is no file. Reads the file on
+     * the calling thread. Returns true if overrides were applied.
+     */
+    public static boolean apply(Context context, LayeredProperties layeredProperties, String layerName) {
+        File overrideFile = getOverrideFile(context);
+        if (overrideFile == null) {
+            layeredProperties.clearLayer(layerName);
+            return false;
+        }
+        return layeredProperties.applyOverrideFile(layerName, overrideFile);
+    }
+
+    /**
+     * Location of the override file, or null if the app is not debuggable or external storage is not
+     * available.
+     */
+    public static File getOverrideFile(Context context) {
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return null;
+        }
+        File externalFilesDir = context.getExternalFilesDir(null);
+        return externalFilesDir != null ? new File(externalFilesDir, OVERRIDE_FILE_NAME) : null;
+    }
+}
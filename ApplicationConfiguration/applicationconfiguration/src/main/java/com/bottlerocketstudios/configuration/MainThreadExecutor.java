@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that posts to the main thread, for generation observers that update the UI.
+ */
+public class MainThreadExecutor implements Executor {
+
+    private static class SingletonHolder {
+        public static final MainThreadExecutor instance = new MainThreadExecutor();
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public static MainThreadExecutor getInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private MainThreadExecutor() {}
+
+    @Override
+    public void execute(Runnable command) {
+        mHandler.post(command);
+    }
+}
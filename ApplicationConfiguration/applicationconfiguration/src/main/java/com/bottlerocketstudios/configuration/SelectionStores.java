@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.bottlerocketstudios.configuration.core.MappedSelectionStore;
+import com.bottlerocketstudios.configuration.core.SelectionStore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates the process wide SelectionStore used on Android. Selections are kept in a memory-mapped
+ * file in the files directory. Selections made by earlier versions in the default SharedPreferences
+ * are migrated on first read, and SharedPreferences remain in use if the file cannot be mapped.
+ * Batches of selections hold a lock on the file while written, so other processes of the
+ * application never read a batch half applied.
+ */
+final class SelectionStores {
+    private static final String TAG = SelectionStores.class.getSimpleName();
+
+    static final String SELECTION_FILE_NAME = "application_configuration_selections";
+
+    private static SelectionStore sDefaultSelectionStore;
+
+    private SelectionStores() {}
+
+    static synchronized SelectionStore getDefaultSelectionStore(Context context) {
+        if (sDefaultSelectionStore == null) {
+            SelectionStore preferencesStore = new SharedPreferencesSelectionStore(context);
+            try {
+                File selectionFile = new File(context.getApplicationContext().getFilesDir(), SELECTION_FILE_NAME);
+                sDefaultSelectionStore = MappedSelectionStore.open(selectionFile, MappedSelectionStore.DEFAULT_SLOT_COUNT, preferencesStore);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to map selection file, using SharedPreferences", e);
+                sDefaultSelectionStore = preferencesStore;
+            }
+        }
+        return sDefaultSelectionStore;
+    }
+}
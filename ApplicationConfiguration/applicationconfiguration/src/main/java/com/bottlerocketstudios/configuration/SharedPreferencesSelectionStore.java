@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.bottlerocketstudios.configuration.core.SelectionStore;
+
+import java.util.Map;
+
+/**
+ * Stores selections in the application's default SharedPreferences.
+ */
+public class SharedPreferencesSelectionStore implements SelectionStore {
+    private final Context mContext;
+
+    public SharedPreferencesSelectionStore(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public long getSelectedConfigId(String settingKey, long defaultConfigId) {
+        return getSharedPreferences().getLong(settingKey, defaultConfigId);
+    }
+
+    @Override
+    public boolean putSelectedConfigIds(Map<String, Long> selections) {
+        SharedPreferences.Editor sharedPrefsEditor = getSharedPreferences().edit();
+        for (Map.Entry<String, Long> selection: selections.entrySet()) {
+            sharedPrefsEditor.putLong(selection.getKey(), selection.getValue());
+        }
+        return sharedPrefsEditor.commit();
+    }
+
+    private SharedPreferences getSharedPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+}
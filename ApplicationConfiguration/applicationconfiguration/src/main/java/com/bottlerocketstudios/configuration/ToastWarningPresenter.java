@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 Bottle Rocket LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bottlerocketstudios.configuration;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.Toast;
+
+import com.bottlerocketstudios.configuration.core.ConfigurationWarningPresenter;
+
+/**
+ * Shows warnings as a long Toast, posting to the main thread when called from a background thread.
+ */
+public class ToastWarningPresenter implements ConfigurationWarningPresenter {
+    private final Context mContext;
+
+    public ToastWarningPresenter(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public void showWarning(final String message) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        } else {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+                }
+            });
+        }
+    }
+}